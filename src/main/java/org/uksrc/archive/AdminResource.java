@@ -2,23 +2,37 @@ package org.uksrc.archive;
 
 
 import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
+import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.ExampleObject;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.ivoa.dm.caom2.DerivedObservation;
 import org.ivoa.dm.caom2.Observation;
 import org.ivoa.dm.caom2.SimpleObservation;
+import org.uksrc.archive.ingest.BatchIngester;
+import org.uksrc.archive.ingest.ObservationWrites;
+import org.uksrc.archive.ingest.CollectionSummary;
+import org.uksrc.archive.ingest.IngestReport;
+import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.responses.Responses;
+import org.uksrc.archive.utils.tools.CacheStatistics;
 import org.uksrc.archive.utils.tools.Tools;
 
+import java.io.InputStream;
+
 @Path("/admin")
 @RolesAllowed("admin")
 public class AdminResource {
@@ -26,6 +40,12 @@ public class AdminResource {
     @PersistenceContext
     protected EntityManager em;
 
+    @Inject
+    BatchIngester ingester;
+
+    @Inject
+    ObservationWrites writes;
+
     @GET
     public String test() {
         return "Admin utilities";
@@ -103,6 +123,10 @@ public class AdminResource {
             description = "Observation created successfully",
             content = @Content(schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
     )
+    @APIResponse(
+            responseCode = "409",
+            description = "An Observation with the supplied ID already exists"
+    )
     @APIResponse(
             responseCode = "400",
             description = "Invalid input"
@@ -111,7 +135,88 @@ public class AdminResource {
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     @Transactional
     public Response submitObservation(Observation observation) {
-        return Tools.submitObservation(em, observation);
+        return Tools.submitObservation(observation, o -> writes.persist(em, o));
     }
-}
 
+    @POST
+    @Path("/addObservations")
+    @Operation(summary = "Create multiple Observations", description = "Adds all the supplied observations, as per POST /observations/batch.")
+    @RequestBody(
+            description = "The observations to add, an <Observations> document or one observation per line (NDJSON).",
+            required = true,
+            content = {
+                    @Content(mediaType = MediaType.APPLICATION_XML, schema = @Schema(implementation = ObservationListWrapper.class)),
+                    @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ObservationListWrapper.class)),
+                    @Content(mediaType = BatchIngester.APPLICATION_NDJSON, schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
+            }
+    )
+    @Parameter(
+            name = "results",
+            description = "Which entries to list in the response, 'all' (default) or 'errors' (duplicate & invalid entries only, created entries are just counted). " +
+                    "Use 'errors' for very large requests.",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING, enumeration = {"all", "errors"})
+    )
+    @Parameter(
+            name = "upsert",
+            description = "Update existing observations rather than reporting them as duplicates (default false).",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.BOOLEAN)
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Request processed, see the result of each entry",
+            content = @Content(schema = @Schema(implementation = IngestReport.class))
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "The request body cannot be read"
+    )
+    @Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, BatchIngester.APPLICATION_NDJSON})
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    public Response submitObservations(InputStream body, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                                      @QueryParam("results") String results, @QueryParam("upsert") boolean upsert) {
+        try {
+            IngestReport report = IngestReport.forResults(results);
+            return Response.ok(ingester.ingest(body, contentType != null ? MediaType.valueOf(contentType) : null, report, upsert, r -> {})).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
+
+    @GET
+    @Path("/cache")
+    @Operation(summary = "Second-level cache statistics", description = "Hits, misses and puts of each (entity and collection) region of the second-level cache, " +
+            "and of the query cache, since the service started.")
+    @APIResponse(
+            responseCode = "200",
+            description = "The current statistics",
+            content = @Content(schema = @Schema(implementation = CacheStatistics.class))
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    public Response getCacheStatistics() {
+        return Response.ok(CacheStatistics.of(em.getEntityManagerFactory())).build();
+    }
+
+    @POST
+    @Path("/collections/rebuild")
+    @Operation(summary = "Rebuild the collection summary", description = "Recounts the observations, artifacts and bytes of every collection from the observations themselves. " +
+            "Only needed if observations have been changed directly in the database, the summary is otherwise maintained by every write.")
+    @APIResponse(
+            responseCode = "204",
+            description = "The summary has been rebuilt"
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "Internal error whilst rebuilding the summary."
+    )
+    @Transactional
+    public Response rebuildCollectionSummary() {
+        try {
+            CollectionSummary.rebuild(em);
+            return Response.noContent().build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
+}
@@ -2,15 +2,18 @@ package org.uksrc.archive;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
-import jakarta.persistence.TypedQuery;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
+import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.uksrc.archive.auth.ConditionalRolesAllowed;
+import org.uksrc.archive.ingest.CollectionSummary;
 import org.uksrc.archive.utils.responses.Responses;
 import org.uksrc.archive.utils.tools.Tools;
 
@@ -26,7 +29,7 @@ public class CollectionResource {
 
     @GET
     @Path("/")
-    @Operation(summary = "Retrieve all collection IDs", description = "Returns a list of unique collectionIds as a TSV (Tab Separated List).")
+    @Operation(summary = "Retrieve all collection IDs", description = "Returns a list of unique collectionIds as a TSV (Tab Separated List), in order.")
     @APIResponse(
             responseCode = "200",
             description = "CollectionIds retrieved successfully",
@@ -41,8 +44,7 @@ public class CollectionResource {
     @Produces(MediaType.TEXT_PLAIN)
     public Response getCollections(){
         try {
-            TypedQuery<String> query = em.createQuery("SELECT DISTINCT o.collection FROM Observation o", String.class);
-            List<String> uniqueCollections = query.getResultList();
+            List<String> uniqueCollections = CollectionSummary.collections(em);
 
             return Response.ok()
                     .type(MediaType.TEXT_PLAIN)
@@ -52,4 +54,42 @@ public class CollectionResource {
             return Responses.errorResponse(e);
         }
     }
+
+    @GET
+    @Path("/{collectionId}/stats")
+    @Operation(summary = "Retrieve the statistics of a collection", description = "Returns the number of observations and artifacts, the total size (bytes) of the artifacts " +
+            "and when the collection was last modified.")
+    @Parameter(
+            name = "collectionId",
+            description = "The collection to retrieve the statistics of",
+            required = true,
+            in = ParameterIn.PATH,
+            schema = @Schema(type = SchemaType.STRING)
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Statistics retrieved successfully",
+            content = @Content(
+                    mediaType = MediaType.APPLICATION_XML, schema = @Schema(implementation = CollectionSummary.class)
+            )
+    )
+    @APIResponse(
+            responseCode = "404",
+            description = "No observations belong to the collection"
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    public Response getCollectionStats(@PathParam("collectionId") String collectionId) {
+        try {
+            CollectionSummary summary = em.find(CollectionSummary.class, collectionId);
+            if (summary == null) {
+                return Response.status(Response.Status.NOT_FOUND)
+                        .type(MediaType.TEXT_PLAIN)
+                        .entity("Collection not found")
+                        .build();
+            }
+            return Response.ok(summary).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
 }
@@ -2,9 +2,7 @@ package org.uksrc.archive;
 
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.NoResultException;
 import jakarta.persistence.PersistenceContext;
-import jakarta.persistence.TypedQuery;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
@@ -147,16 +145,8 @@ public class DataLinkResource {
      * @return The artifact or null if not found.
      */
     private Artifact findArtifact(String id) {
-        TypedQuery<Artifact> existsQuery = em.createQuery(
-                "SELECT a FROM Artifact a WHERE a.id = :id", Artifact.class
-        );
-
-        try {
-            existsQuery.setParameter("id", id);
-            return existsQuery.getSingleResult();
-        } catch (NoResultException e){
-            return null;
-        }
+        // By primary key, so answered from the second-level cache when possible
+        return em.find(Artifact.class, id);
     }
 
     /**
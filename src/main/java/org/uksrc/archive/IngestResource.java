@@ -0,0 +1,114 @@
+package org.uksrc.archive;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.UriInfo;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.media.Content;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.ivoa.dm.caom2.DerivedObservation;
+import org.ivoa.dm.caom2.SimpleObservation;
+import org.uksrc.archive.auth.ConditionalRolesAllowed;
+import org.uksrc.archive.ingest.BatchIngester;
+import org.uksrc.archive.ingest.IngestJob;
+import org.uksrc.archive.ingest.IngestJobManager;
+import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.responses.Responses;
+
+import java.io.InputStream;
+import java.util.concurrent.RejectedExecutionException;
+
+@SuppressWarnings("unused")
+@Path("/ingest")
+public class IngestResource {
+
+    @Inject
+    IngestJobManager jobs;
+
+    @POST
+    @Path("/jobs")
+    @Operation(summary = "Create multiple Observations in the background", description = "Accepts the same observations as POST /observations/batch " +
+            "but returns as soon as the request has been queued. The progress and outcome of the job can be retrieved from GET /ingest/jobs/{id}.")
+    @RequestBody(
+            description = "The observations to add.",
+            required = true,
+            content = {
+                    @Content(mediaType = MediaType.APPLICATION_XML, schema = @Schema(implementation = ObservationListWrapper.class)),
+                    @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ObservationListWrapper.class)),
+                    @Content(mediaType = BatchIngester.APPLICATION_NDJSON, schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
+            }
+    )
+    @APIResponse(
+            responseCode = "202",
+            description = "Request queued, the Location header contains the URL of the job",
+            content = @Content(schema = @Schema(implementation = IngestJob.class))
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "The request body cannot be read"
+    )
+    @APIResponse(
+            responseCode = "429",
+            description = "Too many jobs queued, try again later"
+    )
+    @Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, BatchIngester.APPLICATION_NDJSON})
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.edit")
+    public Response submitJob(InputStream body, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                              @Context SecurityContext security, @Context UriInfo uriInfo) {
+        try {
+            String user = security != null && security.getUserPrincipal() != null ? security.getUserPrincipal().getName() : null;
+            IngestJob job = jobs.submit(body, contentType != null ? MediaType.valueOf(contentType) : null, user);
+            return Response.accepted(job)
+                    .location(uriInfo != null ? uriInfo.getAbsolutePathBuilder().path(job.getId()).build() : null)
+                    .build();
+        } catch (RejectedExecutionException e) {
+            return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity(e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    @Operation(summary = "Retrieve an ingest job", description = "Returns the status of the job, the number of entries created, duplicated and invalid so far, " +
+            "and the details of each entry that wasn't created.")
+    @Parameter(
+            name = "id",
+            description = "ID of the job, as returned when it was submitted",
+            required = true,
+            example = "123e4567-e89b-12d3-a456-426614174000"
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Job found",
+            content = @Content(schema = @Schema(implementation = IngestJob.class))
+    )
+    @APIResponse(
+            responseCode = "404",
+            description = "Job not found"
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.edit")
+    public Response getJob(@PathParam("id") String id) {
+        IngestJob job = jobs.find(id);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity("Ingest job with ID " + id + " not found")
+                    .build();
+        }
+        return Response.ok(job).build();
+    }
+}
@@ -1,14 +1,22 @@
 package org.uksrc.archive;
 
+import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.TypedQuery;
+import jakarta.ws.rs.BeanParam;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
@@ -16,22 +24,59 @@ import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameters;
+import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.ivoa.dm.caom2.DataProductType;
 import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.ObservationIntentType;
+import org.jboss.logging.Logger;
 import org.uksrc.archive.auth.ConditionalRolesAllowed;
 import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.query.Bounds;
+import org.uksrc.archive.utils.query.Crossmatch;
+import org.uksrc.archive.utils.query.FieldProjection;
+import org.uksrc.archive.utils.query.KeysetCursor;
+import org.uksrc.archive.utils.query.Listing;
+import org.uksrc.archive.utils.query.ListingParameters;
+import org.uksrc.archive.utils.query.ObservationSearch;
+import org.uksrc.archive.utils.query.Region;
+import org.uksrc.archive.utils.query.ResultCount;
+import org.uksrc.archive.utils.query.SkyIndex;
 import org.uksrc.archive.utils.responses.Responses;
+import org.uksrc.archive.utils.tools.ObservationStreamer;
 import org.uksrc.archive.utils.tools.Tools;
 
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
 @Path("/search")
 public class ObsSearchResource {
 
+    private static final Logger LOG = Logger.getLogger(ObsSearchResource.class);
+
     @PersistenceContext
     protected EntityManager em;
 
-   public static final String CONE_SEARCH_QUERY =
-           "SELECT obs FROM Observation obs JOIN obs.targetPosition tp JOIN tp.coordinates p" +
-                   " WHERE FUNCTION('pgsphere_distance', p.cval1, p.cval2, :ra, :dec) <= radians(:radiusInDegrees)";
+    @Inject
+    ObservationStreamer streamer;
+
+    @Inject
+    Crossmatch crossmatch;
+
+    @Inject
+    SkyIndex skyIndex;
+
+    public static final String PGSPHERE_BACKEND = "pgsphere";
+    public static final String HEALPIX_BACKEND = "healpix";
+
+    // How cones are matched, pgSphere's operators (requires the extension) or HEALPix pixels (see TargetPixel).
+    @ConfigProperty(name = "archive.search.cone-backend", defaultValue = PGSPHERE_BACKEND)
+    String coneBackend;
+
+    public static final String SORT_DISTANCE = "distance";
 
     @GET
     @Path("/cone")
@@ -56,14 +101,15 @@ public class ObsSearchResource {
                     schema = @Schema(type = SchemaType.NUMBER, format = "double")
             ),
             @Parameter(
-                    name = "page",
-                    description = "The page number to retrieve, zero-indexed. If not provided, ALL results are returned.",
+                    name = "sort",
+                    description = "Order the matches nearest first, rather than by collection and id. Cannot be used with 'cursor'.",
                     in = ParameterIn.QUERY,
-                    schema = @Schema(type = SchemaType.INTEGER, minimum = "0")
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {SORT_DISTANCE})
             ),
             @Parameter(
-                    name = "size",
-                    description = "The number of observations per page. If not provided, ALL results are returned.",
+                    name = "nearest",
+                    description = "Return only the N nearest matches, nearest first. 'radius' is optional (unless the HEALPix backend is " +
+                            "configured), without it the nearest Observations anywhere are returned. Cannot be used with 'page' or 'cursor'.",
                     in = ParameterIn.QUERY,
                     schema = @Schema(type = SchemaType.INTEGER, minimum = "1")
             )
@@ -87,27 +133,525 @@ public class ObsSearchResource {
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     @ConditionalRolesAllowed("resource.roles.view")
     public Response getAllObservations(@QueryParam("ra") Double ra, @QueryParam("dec") Double dec, @QueryParam("radius") Double radius,
-                                       @QueryParam("page") Integer page, @QueryParam("size") Integer size) {
-        if ((page != null) ^ (size != null)) {
-            return Responses.errorResponse("Both 'page' and 'size' must be provided together or neither.");
-        } else if ((page != null && page < 0) || (size != null && size < 1)) {
-            return Responses.errorResponse("Page must be 0 or greater and size must be greater than 0.");
+                                       @QueryParam("sort") String sort, @QueryParam("nearest") Integer nearest,
+                                       @BeanParam ListingParameters parameters,
+                                       @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        Listing listing;
+        try {
+            listing = parameters.parse(true);
+        } catch (IllegalArgumentException e) {
+            return Responses.errorResponse(e.getMessage());
         }
 
-        if (ra == null || dec == null || radius == null) {
+        boolean healpix = HEALPIX_BACKEND.equalsIgnoreCase(coneBackend);
+        if (ra == null || dec == null || (radius == null && (nearest == null || healpix))) {
             return Responses.errorResponse("All parameters 'ra', 'dec' and 'radius' must be supplied.");
         }
 
-        TypedQuery<Observation> query = em.createQuery(CONE_SEARCH_QUERY, Observation.class);
-        query.setParameter("ra", ra);
-        query.setParameter("dec", dec);
-        query.setParameter("radiusInDegrees", radius);
+        if (sort != null && !SORT_DISTANCE.equalsIgnoreCase(sort)) {
+            return Responses.errorResponse("Unknown sort '" + sort + "', supported values are: " + SORT_DISTANCE);
+        }
+        if (nearest != null && (nearest < 1 || !listing.unpaged())) {
+            return Responses.errorResponse("'nearest' must be greater than 0 and cannot be combined with 'page' or 'cursor'.");
+        }
+        if (sort != null && listing.cursor() != null) {
+            return Responses.errorResponse("'sort' cannot be combined with 'cursor', use 'page' instead.");
+        }
+
+        FieldProjection projection = listing.projection();
+        if (radius != null && listing.unpaged() && SkyIndex.covers(projection)) {
+            //Answered from memory once the sky index has been built
+            List<SkyIndex.Match> matches = skyIndex.cone(ra, dec, radius);
+            if (matches != null) {
+                if (sort != null || nearest != null) {
+                    matches = SkyIndex.nearestFirst(matches);
+                }
+                List<Object[]> rows = (nearest != null ? matches.subList(0, Math.min(nearest, matches.size())) : matches).stream()
+                        .map(match -> SkyIndex.row(projection, match))
+                        .toList();
+                MediaType type = Tools.preferredMediaType(accept);
+                return Response.ok(streamer.streamRows(rows, projection, type), type).build();
+            }
+        }
+
+        ObservationSearch.Builder search = ObservationSearch.builder(healpix).cone(ra, dec, radius).limit(nearest);
+        if (sort != null || nearest != null) {
+            search.nearestFirst();
+        }
+        return search(search.build(), listing, accept);
+    }
+
+    @GET
+    @Path("/region")
+    @Operation(summary = "Region search of Plane footprints", description = "Returns a list of Observations that have at least one Plane whose footprint " +
+            "(position.bounds) overlaps, contains or is within the supplied region")
+    @Parameters({
+            @Parameter(
+                    name = "pos",
+                    description = "The region in degrees, 'CIRCLE ra dec radius', 'BOX ra dec width height' or 'POLYGON ra1 dec1 ra2 dec2 ra3 dec3 ...'",
+                    in = ParameterIn.QUERY,
+                    required = true,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "predicate",
+                    description = "How the footprints must relate to the region, 'overlaps' (default), 'contains' (the region) or 'within' (the region).",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {"overlaps", "contains", "within"})
+            )
+    })
+    @APIResponse(
+            responseCode = "200",
+            description = "List of observations retrieved successfully",
+            content = {
+                    @Content(
+                            mediaType = MediaType.APPLICATION_XML, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    ),
+                    @Content(
+                            mediaType = MediaType.APPLICATION_JSON, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    )
+            }
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "If the region is missing or invalid, or pgSphere isn't available"
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.view")
+    public Response getRegionObservations(@QueryParam("pos") String pos, @QueryParam("predicate") String predicate,
+                                          @BeanParam ListingParameters parameters,
+                                          @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        if (HEALPIX_BACKEND.equalsIgnoreCase(coneBackend)) {
+            return Responses.errorResponse("Region searches require pgSphere, which isn't available (archive.search.cone-backend=healpix).");
+        }
+
+        Region region;
+        Region.Predicate matching;
+        Listing listing;
+        try {
+            region = Region.parse(pos);
+            matching = Region.Predicate.parse(predicate);
+            listing = parameters.parse(false);
+        } catch (IllegalArgumentException e) {
+            return Responses.errorResponse(e.getMessage());
+        }
+
+        return search(ObservationSearch.builder(false).region(region, matching).build(), listing, accept);
+    }
+
+    @GET
+    @Path("/time")
+    @Operation(summary = "Time search of Plane time bounds", description = "Returns a list of Observations that have at least one Plane whose time " +
+            "bounds overlap, contain or are within the supplied interval")
+    @Parameters({
+            @Parameter(
+                    name = "start",
+                    description = "Start of the interval, MJD or ISO 8601 (UTC unless an offset is supplied). Open if not provided.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "end",
+                    description = "End of the interval, MJD or ISO 8601 (UTC unless an offset is supplied). Open if not provided.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "predicate",
+                    description = "How the time bounds must relate to the interval, 'overlaps' (default), 'contains' (the interval, both ends must be supplied) or 'within' (the interval).",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {"overlaps", "contains", "within"})
+            )
+    })
+    @APIResponse(
+            responseCode = "200",
+            description = "List of observations retrieved successfully",
+            content = {
+                    @Content(
+                            mediaType = MediaType.APPLICATION_XML, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    ),
+                    @Content(
+                            mediaType = MediaType.APPLICATION_JSON, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    )
+            }
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "If neither end of the interval is supplied, or either is invalid"
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.view")
+    public Response getTimeObservations(@QueryParam("start") String start, @QueryParam("end") String end,
+                                        @QueryParam("predicate") String predicate,
+                                        @BeanParam ListingParameters parameters,
+                                        @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        Bounds interval;
+        Region.Predicate matching;
+        Listing listing;
+        try {
+            interval = Bounds.time(start, end);
+            matching = Region.Predicate.parse(predicate);
+            interval.validate(matching);
+            listing = parameters.parse(false);
+        } catch (IllegalArgumentException e) {
+            return Responses.errorResponse(e.getMessage());
+        }
+
+        return search(ObservationSearch.builder(false).time(interval, matching).build(), listing, accept);
+    }
 
+    @GET
+    @Path("/energy")
+    @Operation(summary = "Spectral search of Plane energy bounds", description = "Returns a list of Observations that have at least one Plane whose energy " +
+            "bounds overlap, contain or are within the supplied wavelength, frequency or energy interval")
+    @Parameters({
+            @Parameter(
+                    name = "min",
+                    description = "Minimum of the interval, in 'unit'. Open if not provided.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.NUMBER, format = "double")
+            ),
+            @Parameter(
+                    name = "max",
+                    description = "Maximum of the interval, in 'unit'. Open if not provided, supply the same value as 'min' for a single wavelength/frequency.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.NUMBER, format = "double")
+            ),
+            @Parameter(
+                    name = "unit",
+                    description = "Unit of min and max, a wavelength (default m), frequency or energy.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {"m", "cm", "mm", "um", "nm", "Angstrom", "Hz", "kHz", "MHz", "GHz", "eV", "keV"})
+            ),
+            @Parameter(
+                    name = "predicate",
+                    description = "How the energy bounds must relate to the interval, 'overlaps' (default), 'contains' (the interval, both ends must be supplied) or 'within' (the interval).",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {"overlaps", "contains", "within"})
+            )
+    })
+    @APIResponse(
+            responseCode = "200",
+            description = "List of observations retrieved successfully",
+            content = {
+                    @Content(
+                            mediaType = MediaType.APPLICATION_XML, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    ),
+                    @Content(
+                            mediaType = MediaType.APPLICATION_JSON, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    )
+            }
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "If neither end of the interval is supplied, either is invalid, or the unit isn't supported"
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.view")
+    public Response getEnergyObservations(@QueryParam("min") Double min, @QueryParam("max") Double max,
+                                          @QueryParam("unit") String unit, @QueryParam("predicate") String predicate,
+                                          @BeanParam ListingParameters parameters,
+                                          @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        Bounds interval;
+        Region.Predicate matching;
+        Listing listing;
         try {
-            return Tools.performQuery(page, size, query);
+            interval = Bounds.energy(min, max, unit);
+            matching = Region.Predicate.parse(predicate);
+            interval.validate(matching);
+            listing = parameters.parse(false);
+        } catch (IllegalArgumentException e) {
+            return Responses.errorResponse(e.getMessage());
+        }
+
+        return search(ObservationSearch.builder(false).energy(interval, matching).build(), listing, accept);
+    }
+
+    @GET
+    @Path("/query")
+    @Operation(summary = "Combined search of Observations", description = "Returns a list of Observations that match all of the supplied criteria " +
+            "(any combination of collection, cone, time, energy, intent and data product type), in a single query")
+    @Parameters({
+            @Parameter(
+                    name = "collectionId",
+                    description = "The collection of the Observations.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "ra",
+                    description = "Right ascension in degrees of the centre of the cone, 'ra', 'dec' and 'radius' must be supplied together.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.NUMBER, format = "double")
+            ),
+            @Parameter(
+                    name = "dec",
+                    description = "Declination in degrees of the centre of the cone.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.NUMBER, format = "double")
+            ),
+            @Parameter(
+                    name = "radius",
+                    description = "Radius in degrees of the cone.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.NUMBER, format = "double")
+            ),
+            @Parameter(
+                    name = "start",
+                    description = "Start of an interval the time bounds of a Plane must overlap, MJD or ISO 8601 (UTC unless an offset is supplied). Open if not provided.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "end",
+                    description = "End of the time interval, as 'start'.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "min",
+                    description = "Minimum of an interval the energy bounds of a Plane must overlap, in 'unit'. Open if not provided.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.NUMBER, format = "double")
+            ),
+            @Parameter(
+                    name = "max",
+                    description = "Maximum of the energy interval, in 'unit'. Open if not provided.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.NUMBER, format = "double")
+            ),
+            @Parameter(
+                    name = "unit",
+                    description = "Unit of min and max, a wavelength (default m), frequency or energy.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {"m", "cm", "mm", "um", "nm", "Angstrom", "Hz", "kHz", "MHz", "GHz", "eV", "keV"})
+            ),
+            @Parameter(
+                    name = "intent",
+                    description = "The intent of the Observations.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {"science", "calibration"})
+            ),
+            @Parameter(
+                    name = "productType",
+                    description = "The data product type of a Plane of the Observations (case-insensitive), such as 'image', 'cube' or 'visibility'.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "sort",
+                    description = "Order the matches nearest the centre of the cone first, rather than by collection and id. Requires the cone, cannot be used with 'cursor'.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {SORT_DISTANCE})
+            )
+    })
+    @APIResponse(
+            responseCode = "200",
+            description = "List of observations retrieved successfully",
+            content = {
+                    @Content(
+                            mediaType = MediaType.APPLICATION_XML, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    ),
+                    @Content(
+                            mediaType = MediaType.APPLICATION_JSON, schema = @Schema(oneOf = ObservationListWrapper.class)
+                    )
+            }
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "If no criteria are supplied, the cone is incomplete, or any of the parameters are invalid"
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.view")
+    public Response getMatchingObservations(@QueryParam("collectionId") String collection,
+                                            @QueryParam("ra") Double ra, @QueryParam("dec") Double dec, @QueryParam("radius") Double radius,
+                                            @QueryParam("start") String start, @QueryParam("end") String end,
+                                            @QueryParam("min") Double min, @QueryParam("max") Double max, @QueryParam("unit") String unit,
+                                            @QueryParam("intent") String intent, @QueryParam("productType") String productType,
+                                            @QueryParam("sort") String sort,
+                                            @BeanParam ListingParameters parameters,
+                                            @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        boolean cone = ra != null || dec != null || radius != null;
+        boolean filtered = collection != null && !collection.isEmpty();
+
+        Listing listing;
+        Bounds time;
+        Bounds energy;
+        ObservationIntentType intentType;
+        DataProductType productTypeValue;
+        try {
+            listing = parameters.parse(cone);
+            time = start != null || end != null ? Bounds.time(start, end) : null;
+            energy = min != null || max != null || unit != null ? Bounds.energy(min, max, unit) : null;
+            intentType = vocabulary("intent", intent, ObservationIntentType.class);
+            productTypeValue = vocabulary("productType", productType, DataProductType.class);
+        } catch (IllegalArgumentException e) {
+            return Responses.errorResponse(e.getMessage());
+        }
+
+        if (cone && (ra == null || dec == null || radius == null)) {
+            return Responses.errorResponse("All parameters 'ra', 'dec' and 'radius' must be supplied for a cone.");
+        }
+        if (!cone && time == null && energy == null && !filtered && intentType == null && productTypeValue == null) {
+            return Responses.errorResponse("At least one of the cone, time, energy, 'collectionId', 'intent' or 'productType' must be supplied.");
+        }
+        if (sort != null && (!SORT_DISTANCE.equalsIgnoreCase(sort) || !cone)) {
+            return Responses.errorResponse("Unknown sort '" + sort + "', supported values are: " + SORT_DISTANCE + " (with a cone)");
+        }
+        if (sort != null && listing.cursor() != null) {
+            return Responses.errorResponse("'sort' cannot be combined with 'cursor', use 'page' instead.");
+        }
+
+        ObservationSearch.Builder search = ObservationSearch.builder(HEALPIX_BACKEND.equalsIgnoreCase(coneBackend));
+        if (cone) {
+            search.cone(ra, dec, radius);
+        }
+        if (time != null) {
+            search.time(time, Region.Predicate.OVERLAPS);
+        }
+        if (energy != null) {
+            search.energy(energy, Region.Predicate.OVERLAPS);
+        }
+        if (filtered) {
+            search.collection(collection);
+        }
+        if (intentType != null) {
+            search.intent(intentType);
+        }
+        if (productTypeValue != null) {
+            search.productType(productTypeValue);
+        }
+        if (sort != null) {
+            search.nearestFirst();
+        }
+        return search(search.build(), listing, accept);
+    }
+
+    @POST
+    @Path("/crossmatch")
+    @Operation(summary = "Crossmatch a list of positions", description = "Cone searches for every supplied position at once, returning the observations " +
+            "within each cone grouped by position (in the order supplied), nearest first, with the distance (degrees) from the position.")
+    @RequestBody(
+            description = "The positions, a JSON array of {\"ra\", \"dec\", \"radius\"} objects (degrees), CSV with a header line " +
+                    "(ra, dec and optionally radius columns) or a VOTable (columns named as CSV, or with pos.eq.ra/pos.eq.dec UCDs).",
+            required = true,
+            content = {
+                    @Content(mediaType = MediaType.APPLICATION_JSON),
+                    @Content(mediaType = Crossmatch.TEXT_CSV),
+                    @Content(mediaType = Crossmatch.APPLICATION_VOTABLE)
+            }
+    )
+    @Parameter(
+            name = "radius",
+            description = "Radius in degrees of positions that don't have their own.",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.NUMBER, format = "double")
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "The matches of each position"
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "The positions cannot be read, or there are too many"
+    )
+    @Consumes({MediaType.APPLICATION_JSON, Crossmatch.TEXT_CSV, Crossmatch.APPLICATION_VOTABLE, MediaType.APPLICATION_XML, MediaType.TEXT_XML})
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.view")
+    public Response crossmatch(InputStream body, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                               @QueryParam("radius") Double radius, @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        List<Crossmatch.Position> positions;
+        try {
+            positions = crossmatch.read(body, contentType != null ? MediaType.valueOf(contentType) : null, radius);
         } catch (Exception e) {
-            System.err.println("Query Execution Error: " + e.getMessage());
-            return Response.serverError().entity("Database query failed.").build();
+            return Responses.errorResponse(e);
         }
+
+        MediaType type = Tools.preferredMediaType(accept);
+        return Response.ok(crossmatch.stream(positions, type), type).build();
+    }
+
+    /**
+     * Performs a search, streaming all the matches or returning the requested page.
+     */
+    private Response search(ObservationSearch search, Listing listing, String accept) {
+        String jpql = search.jpql();
+        String order = search.order();
+        FieldProjection projection = listing.projection();
+        String projected = projection != null ? projection.apply(jpql, "obs", search.distance()) : null;
+        KeysetCursor after = listing.after();
+
+        MediaType type = Tools.preferredMediaType(accept);
+        if (listing.unpaged()) {
+            //All (or the nearest) matches requested, stream them
+            StreamingOutput output = projection != null
+                    ? streamer.streamRows(() -> limit(query(projected, after, order, false, search, Object[].class), search.limit()), projection, type)
+                    : streamer.stream(() -> limit(query(jpql, after, order, false, search, Observation.class), search.limit()), type, listing.fetchDepth());
+            return Response.ok(output, type).build();
+        }
+
+        Supplier<ResultCount> total = listing.countMode() != null ? () -> {
+            TypedQuery<Long> countQuery = em.createQuery(jpql.replaceFirst("SELECT obs", "SELECT COUNT(obs)"), Long.class);
+            search.setParameters(countQuery);
+            return ResultCount.exact(countQuery);
+        } : null;
+
+        try {
+            if (projection != null) {
+                TypedQuery<Object[]> query = query(projected, after, order, true, search, Object[].class);
+                return streamer.projectedPage(query, projection, listing.page(), listing.size(), listing.cursor() != null, type, total);
+            }
+
+            TypedQuery<Observation> query = query(jpql, after, order, true, search, Observation.class);
+            return listing.cursor() != null
+                    ? Tools.performKeysetQuery(listing.size(), query, em, listing.fetchDepth(), total)
+                    : Tools.performQuery(listing.page(), listing.size(), query, em, listing.fetchDepth(), total);
+        } catch (Exception e) {
+            LOG.error("Search query failed: " + jpql, e);
+            return Responses.serverError("Database query failed.");
+        }
+    }
+
+    /**
+     * Creates the search query (or a projection of it), with its parameters set.
+     * @param order The ORDER BY clause of searches ordered by something other than the keyset, null for the keyset order
+     */
+    private <T> TypedQuery<T> query(String jpql, KeysetCursor after, String order, boolean paged, ObservationSearch search,
+                                    Class<T> resultClass) {
+        TypedQuery<T> query;
+        if (after != null) {
+            query = Tools.createKeysetQuery(em, jpql, search.filtered(), "obs", after, resultClass);
+        } else if (order != null) {
+            query = em.createQuery(jpql + order, resultClass);
+        } else if (paged) {
+            query = em.createQuery(jpql + String.format(Tools.KEYSET_ORDER, "obs"), resultClass);
+        } else {
+            query = em.createQuery(jpql, resultClass);
+        }
+        search.setParameters(query);
+        return query;
+    }
+
+    /**
+     * @param name The query parameter, for the error
+     * @param value The value of the query parameter (case-insensitive), null if not supplied
+     * @param type The enumeration of the model the value is one of
+     * @throws IllegalArgumentException if the value isn't known.
+     */
+    private static <E extends Enum<E>> E vocabulary(String name, String value, Class<E> type) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value.trim())) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Unknown " + name + " '" + value + "', supported values are: " +
+                String.join(", ", Arrays.stream(type.getEnumConstants()).map(t -> t.name().toLowerCase(Locale.ROOT)).toList()));
+    }
+
+    private static <T> TypedQuery<T> limit(TypedQuery<T> query, Integer nearest) {
+        return nearest != null ? query.setMaxResults(nearest) : query;
     }
 }
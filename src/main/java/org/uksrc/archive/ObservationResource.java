@@ -3,6 +3,8 @@ package org.uksrc.archive;
  * Created on 21/08/2024 by Paul Harrison (paul.harrison@manchester.ac.uk).
  */
 
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
 import jakarta.persistence.PersistenceContext;
@@ -10,7 +12,6 @@ import jakarta.persistence.TypedQuery;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.*;
-import org.apache.commons.beanutils.BeanUtils;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
@@ -25,9 +26,31 @@ import org.ivoa.dm.caom2.DerivedObservation;
 import org.ivoa.dm.caom2.Observation;
 import org.ivoa.dm.caom2.SimpleObservation;
 import org.uksrc.archive.auth.ConditionalRolesAllowed;
+import org.uksrc.archive.ingest.BatchIngester;
+import org.uksrc.archive.ingest.ContentHash;
+import org.uksrc.archive.ingest.DeleteReport;
+import org.uksrc.archive.ingest.IngestReport;
+import org.uksrc.archive.ingest.IngestResult;
+import org.uksrc.archive.ingest.ObservationDeleter;
+import org.uksrc.archive.ingest.ObservationPatcher;
+import org.uksrc.archive.ingest.ObservationWrites;
+import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.query.CaomTables;
+import org.uksrc.archive.utils.query.FetchDepth;
+import org.uksrc.archive.utils.query.FieldProjection;
+import org.uksrc.archive.utils.query.KeysetCursor;
+import org.uksrc.archive.utils.query.Listing;
+import org.uksrc.archive.utils.query.ListingParameters;
+import org.uksrc.archive.utils.query.ResultCount;
 import org.uksrc.archive.utils.responses.Responses;
+import org.uksrc.archive.utils.tools.MergePatch;
+import org.uksrc.archive.utils.tools.ObservationStreamer;
 import org.uksrc.archive.utils.tools.Tools;
 
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Supplier;
+
 @SuppressWarnings("unused")
 @Path("/observations")
 public class ObservationResource {
@@ -35,6 +58,21 @@ public class ObservationResource {
     @PersistenceContext
     protected EntityManager em;  // exists for the application lifetime no need to close
 
+    @Inject
+    ObservationStreamer streamer;
+
+    @Inject
+    BatchIngester ingester;
+
+    @Inject
+    ObservationPatcher patcher;
+
+    @Inject
+    ObservationWrites writes;
+
+    @Inject
+    ObservationDeleter deleter;
+
     @POST
     @Operation(summary = "Create a new Observation", description = "Creates a new observation in the database, note the supplied ID needs to be unique and XML namespace/JSON type supplied.")
     @RequestBody(
@@ -106,6 +144,10 @@ public class ObservationResource {
             description = "Observation created successfully",
             content = @Content(schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
     )
+    @APIResponse(
+            responseCode = "409",
+            description = "An Observation with the supplied ID already exists"
+    )
     @APIResponse(
             responseCode = "400",
             description = "Invalid input"
@@ -115,18 +157,74 @@ public class ObservationResource {
     @ConditionalRolesAllowed("resource.roles.edit")
     @Transactional
     public Response addObservation(Observation observation) {
-        return Tools.submitObservation(em, observation);
+        return Tools.submitObservation(observation, o -> writes.persist(em, o));
+    }
+
+    @POST
+    @Path("/batch")
+    @Operation(summary = "Create multiple Observations", description = "Adds all the supplied observations, either an <Observations> document (as returned by GET /observations) " +
+            "or one observation per line (NDJSON). Each entry is reported individually (created, duplicate or invalid), a bad entry doesn't prevent the others from being added. " +
+            "The body is read one observation at a time and committed in chunks, so documents of any size can be submitted.")
+    @RequestBody(
+            description = "The observations to add.",
+            required = true,
+            content = {
+                    @Content(mediaType = MediaType.APPLICATION_XML, schema = @Schema(implementation = ObservationListWrapper.class)),
+                    @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ObservationListWrapper.class)),
+                    @Content(mediaType = BatchIngester.APPLICATION_NDJSON, schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
+            }
+    )
+    @Parameter(
+            name = "results",
+            description = "Which entries to list in the response, 'all' (default) or 'errors' (duplicate & invalid entries only, created entries are just counted). " +
+                    "Use 'errors' for very large requests.",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING, enumeration = {"all", "errors"})
+    )
+    @Parameter(
+            name = "upsert",
+            description = "Update existing observations rather than reporting them as duplicates (default false).",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.BOOLEAN)
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Request processed, see the result of each entry",
+            content = @Content(schema = @Schema(implementation = IngestReport.class))
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "The request body cannot be read"
+    )
+    @Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, BatchIngester.APPLICATION_NDJSON})
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.edit")
+    public Response addObservations(InputStream body, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                                   @QueryParam("results") String results, @QueryParam("upsert") boolean upsert) {
+        try {
+            IngestReport report = IngestReport.forResults(results);
+            return Response.ok(ingester.ingest(body, contentType != null ? MediaType.valueOf(contentType) : null, report, upsert, r -> {})).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
     }
 
     @PUT
     @Path("/{id}")
-    @Operation(summary = "Update an existing Observation", description = "Updates an existing observation with the supplied ID")
+    @Operation(summary = "Update an existing Observation", description = "Updates an existing observation with the supplied ID, " +
+            "or with upsert=true adds it if it doesn't exist yet.")
     @Parameter(
             name = "id",
             description = "ID of the Observation to be updated (UUID)",
             required = true,
             example = "c630c66f-b06b-4fed-bc16-1d7fd32161"
     )
+    @Parameter(
+            name = "upsert",
+            description = "Add the observation if it doesn't exist (default false).",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.BOOLEAN)
+    )
     @RequestBody(
             description = "XML representation of the Observation",
             required = true,
@@ -196,6 +294,15 @@ public class ObservationResource {
             description = "Observation updated successfully",
             content = @Content(schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
     )
+    @APIResponse(
+            responseCode = "304",
+            description = "The supplied Observation is the same as the existing Observation, nothing has been updated"
+    )
+    @APIResponse(
+            responseCode = "201",
+            description = "Observation created (upsert only)",
+            content = @Content(schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
+    )
     @APIResponse(
             responseCode = "404",
             description = "An Observation with the supplied ID has not been found."
@@ -208,7 +315,7 @@ public class ObservationResource {
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     @ConditionalRolesAllowed("resource.roles.edit")
     @Transactional
-    public Response updateObservation(@PathParam("id") String id, Observation observation) {
+    public Response updateObservation(@PathParam("id") String id, @QueryParam("upsert") boolean upsert, Observation observation) {
         try {
             if(id == null || id.isEmpty()) {
                 return Responses.errorResponse("Invalid ID");
@@ -217,12 +324,31 @@ public class ObservationResource {
                 return Responses.errorResponse("id MUST be the same as observation.id");
             }
 
+            if (upsert) {
+                // INSERT first, relying on the primary key to detect an existing observation (in its own transaction).
+                IngestResult result = ingester.upsert(observation);
+                return switch (result.getStatus()) {
+                    case CREATED -> Response.status(Response.Status.CREATED).entity(Tools.formatObservation(observation)).build();
+                    case UPDATED -> Response.ok(Tools.formatObservation(observation)).build();
+                    case UNCHANGED -> Response.notModified().build();
+                    default -> Responses.errorResponse(result.getMessage());
+                };
+            }
+
+            //Nothing to do if the content is the same as the existing observation
+            String hash = ContentHash.of(observation);
+            if (ContentHash.matches(em, id, hash)) {
+                return Response.notModified().build();
+            }
+
             //Only update IF found
             Observation existing = Tools.findObservation(em, id);
             if (existing != null) {
                 //Copy all properties from the supplied observation over the existing observation.
-                //Observation.uri MUST remain the same and won't be affected.
-                BeanUtils.copyProperties(existing, observation);
+                ObservationWrites.Changes changes = ObservationWrites.changes().replacing(existing);
+                Tools.updateObservation(existing, observation);
+                em.flush();
+                writes.written(em, changes.add(existing, hash));
                 Object formattedObs = Tools.formatObservation(existing);
                 return Response.ok(formattedObs).build();
             }
@@ -236,27 +362,143 @@ public class ObservationResource {
                 .build();
     }
 
+    @PATCH
+    @Path("/{id}")
+    @Operation(summary = "Partially update an existing Observation", description = "Applies a JSON Merge Patch (RFC 7386) to the observation with the supplied ID, " +
+            "only the supplied values are changed and null removes a value. Child arrays (planes, artifacts...) are patched element by element, matched by id, " +
+            "an element without an id patches every existing element and new elements are added. " +
+            "Alternatively supply a partial Observation (XML), all the elements it contains are patched.")
+    @Parameter(
+            name = "id",
+            description = "ID of the Observation to be patched (UUID)",
+            required = true,
+            example = "c630c66f-b06b-4fed-bc16-1d7fd32161"
+    )
+    @RequestBody(
+            description = "The changes to make",
+            required = true,
+            content = {
+                    @Content(
+                            mediaType = MergePatch.APPLICATION_MERGE_PATCH_JSON,
+                            examples = @ExampleObject(
+                                    name = "Change the intent and release date of a plane",
+                                    value = """
+                                            {
+                                                "intent": "calibration",
+                                                "planes": [
+                                                    {"id": "plane-1", "dataRelease": "2025-01-01T00:00:00.000Z"}
+                                                ]
+                                            }
+                                            """
+                            )
+                    ),
+                    @Content(mediaType = MediaType.APPLICATION_XML, schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
+            }
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Observation updated successfully",
+            content = @Content(schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
+    )
+    @APIResponse(
+            responseCode = "304",
+            description = "The patch makes no difference to the Observation, nothing has been updated"
+    )
+    @APIResponse(
+            responseCode = "404",
+            description = "An Observation with the supplied ID has not been found."
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "Invalid patch, or the patched Observation is invalid"
+    )
+    @Consumes({MergePatch.APPLICATION_MERGE_PATCH_JSON, MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.edit")
+    @Transactional
+    public Response patchObservation(@PathParam("id") String id, InputStream body, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType) {
+        try {
+            JsonNode patch = patcher.read(body, contentType != null ? MediaType.valueOf(contentType) : null);
+            Observation existing = Tools.findObservation(em, id);
+            if (existing == null) {
+                return Response.status(Response.Status.NOT_FOUND)
+                        .type(MediaType.TEXT_PLAIN)
+                        .entity("Observation with ID " + id + " not found")
+                        .build();
+            }
+
+            if (patcher.patch(existing, patch) == IngestResult.Status.UNCHANGED) {
+                return Response.notModified().build();
+            }
+            return Response.ok(Tools.formatObservation(existing)).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
+
+    @PATCH
+    @Path("/")
+    @Operation(summary = "Partially update all the Observations of a collection", description = "Applies the same patch (see PATCH /observations/{id}) " +
+            "to every observation of the collection, e.g. {\"planes\": [{\"dataRelease\": ...}]} to set the data release of every plane. " +
+            "Observations are patched in chunks, an observation that can't be patched is reported as invalid without preventing the others from being patched.")
+    @Parameter(
+            name = "collectionId",
+            description = "The collection to patch (required).",
+            required = true,
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING)
+    )
+    @Parameter(
+            name = "results",
+            description = "Which observations to list in the response, 'all' (default) or 'errors' (invalid observations only, the others are just counted).",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING, enumeration = {"all", "errors"})
+    )
+    @RequestBody(
+            description = "The changes to make, which cannot include the id",
+            required = true,
+            content = {
+                    @Content(mediaType = MergePatch.APPLICATION_MERGE_PATCH_JSON),
+                    @Content(mediaType = MediaType.APPLICATION_XML, schema = @Schema(oneOf = {SimpleObservation.class, DerivedObservation.class}))
+            }
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Request processed, see the result (updated, unchanged or invalid) of each observation",
+            content = @Content(schema = @Schema(implementation = IngestReport.class))
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "No collection supplied or invalid patch"
+    )
+    @Consumes({MergePatch.APPLICATION_MERGE_PATCH_JSON, MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.edit")
+    public Response patchObservations(@QueryParam("collectionId") String collection, @QueryParam("results") String results,
+                                      InputStream body, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType) {
+        if (collection == null || collection.isEmpty()) {
+            return Responses.errorResponse("'collectionId' must be supplied.");
+        }
+        try {
+            IngestReport report = IngestReport.forResults(results);
+            JsonNode patch = patcher.read(body, contentType != null ? MediaType.valueOf(contentType) : null);
+            return Response.ok(patcher.patchCollection(collection, patch, report)).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
+
     @GET
     @Path("/")
-    @Operation(summary = "Retrieve list(s) of observations", description = "Returns either all the Observations currently stored or a subset using pagination IF page AND size are supplied.")
+    @Operation(summary = "Retrieve list(s) of observations", description = "Returns either all the Observations currently stored or a subset using pagination IF page AND size are supplied. " +
+            "Alternatively supply cursor AND size for keyset pagination, where each response contains the cursor ('next') for the following page. " +
+            "Unpaginated results are streamed.")
     @Parameters({
             @Parameter(
                     name = "collectionId",
                     description = "Filter the results by a collection id if required.",
                     in = ParameterIn.QUERY,
                     schema = @Schema(type = SchemaType.STRING)
-            ),
-            @Parameter(
-                    name = "page",
-                    description = "The page number to retrieve, zero-indexed. If not provided, ALL results are returned.",
-                    in = ParameterIn.QUERY,
-                    schema = @Schema(type = SchemaType.INTEGER, minimum = "0")
-            ),
-            @Parameter(
-                    name = "size",
-                    description = "The number of observations per page. If not provided, ALL results are returned.",
-                    in = ParameterIn.QUERY,
-                    schema = @Schema(type = SchemaType.INTEGER, minimum = "1")
             )
     })
     @APIResponse(
@@ -278,28 +520,94 @@ public class ObservationResource {
     )
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     @ConditionalRolesAllowed("resource.roles.view")
-    public Response getAllObservations(@QueryParam("collectionId") String collection, @QueryParam("page") Integer page, @QueryParam("size") Integer size) {
-        //Both page and size need to be supplied OR neither
-        if ((page != null) ^ (size != null)) {
-            return Responses.errorResponse("Both 'page' and 'size' must be provided together or neither.");
-        } else if ((page != null && page < 0) || (size != null && size < 1)) {
-            return Responses.errorResponse("Page must be 0 or greater and size must be greater than 0.");
+    public Response getAllObservations(@QueryParam("collectionId") String collection, @BeanParam ListingParameters parameters,
+                                       @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        Listing listing;
+        try {
+            listing = parameters.parseListing();
+        } catch (IllegalArgumentException e) {
+            return Responses.errorResponse(e.getMessage());
         }
 
         try {
-            TypedQuery<Observation> query;
-            if (collection != null && !collection.isEmpty()) {
-                query = em.createQuery("SELECT o FROM Observation o WHERE o.collection = :collection", Observation.class);
-                query.setParameter("collection", collection);
-            } else {
-                query = em.createQuery("SELECT o FROM Observation o", Observation.class);
+            boolean filtered = collection != null && !collection.isEmpty();
+            String jpql = filtered
+                    ? "SELECT o FROM Observation o WHERE o.collection = :collection"
+                    : "SELECT o FROM Observation o";
+            String filter = filtered ? collection : null;
+            FieldProjection projection = listing.projection();
+            KeysetCursor after = listing.after();
+            MediaType type = Tools.preferredMediaType(accept);
+
+            if (listing.unpaged()) {
+                //Everything requested, stream rather than hold the whole archive in memory
+                StreamingOutput output = projection != null
+                        ? streamer.streamRows(() -> listingQuery(projection.apply(jpql, "o"), null, false, filter, Object[].class), projection, type)
+                        : streamer.stream(() -> listingQuery(jpql, null, false, filter, Observation.class), type, listing.fetchDepth());
+                return Response.ok(output, type).build();
             }
-            return Tools.performQuery(page, size, query);
+
+            Supplier<ResultCount> total = listing.countMode() != null ? () -> countObservations(listing.countMode(), filter) : null;
+            if (projection != null) {
+                TypedQuery<Object[]> query = listingQuery(projection.apply(jpql, "o"), after, true, filter, Object[].class);
+                return streamer.projectedPage(query, projection, listing.page(), listing.size(), listing.cursor() != null, type, total);
+            }
+
+            TypedQuery<Observation> query = listingQuery(jpql, after, true, filter, Observation.class);
+            return listing.cursor() != null
+                    ? Tools.performKeysetQuery(listing.size(), query, em, listing.fetchDepth(), total)
+                    : Tools.performQuery(listing.page(), listing.size(), query, em, listing.fetchDepth(), total);
         } catch (Exception e) {
             return Responses.errorResponse(e);
         }
     }
 
+    /**
+     * Creates the query for an observation listing (or a projection of it).
+     * @param jpql The base query
+     * @param after The decoded keyset cursor, if keyset pagination is being used and this isn't the first page
+     * @param paged True if the results need a stable order between requests
+     * @param collection The collection to filter by, if the base query contains :collection
+     */
+    private <T> TypedQuery<T> listingQuery(String jpql, KeysetCursor after, boolean paged, String collection, Class<T> resultClass) {
+        TypedQuery<T> query;
+        if (after != null) {
+            query = Tools.createKeysetQuery(em, jpql, collection != null, "o", after, resultClass);
+        } else if (paged) {
+            //Pages need a stable order between requests
+            query = em.createQuery(jpql + String.format(Tools.KEYSET_ORDER, "o"), resultClass);
+        } else {
+            query = em.createQuery(jpql, resultClass);
+        }
+
+        if (collection != null) {
+            query.setParameter("collection", collection);
+        }
+        return query;
+    }
+
+    /**
+     * Counts the observations (optionally of a single collection), an estimate comes from the planner
+     * statistics of the observation table rather than scanning it.
+     */
+    private ResultCount countObservations(ResultCount.Mode mode, String collection) {
+        if (mode == ResultCount.Mode.EXACT) {
+            TypedQuery<Long> query = em.createQuery(collection != null
+                    ? "SELECT COUNT(o) FROM Observation o WHERE o.collection = :collection"
+                    : "SELECT COUNT(o) FROM Observation o", Long.class);
+            if (collection != null) {
+                query.setParameter("collection", collection);
+            }
+            return ResultCount.exact(query);
+        }
+
+        String sql = "SELECT 1 FROM " + CaomTables.table(em, Observation.class);
+        if (collection != null) {
+            return ResultCount.estimated(em, sql + " WHERE " + CaomTables.column(em, Observation.class, "collection") + " = ?1", collection);
+        }
+        return ResultCount.estimated(em, sql);
+    }
+
     @GET
     @Path("/{id}")
     @Operation(summary = "Retrieve an observation", description = "Returns an observation with the supplied ID.")
@@ -309,6 +617,12 @@ public class ObservationResource {
                     description = "The id of the observation (UUID)",
                     required = true,
                     example = "c630c66f-b06b-4fed-bc16-1d7fd32161"
+            ),
+            @Parameter(
+                    name = "depth",
+                    description = "How much of each Observation to return, 'observation' (no planes), 'planes', 'artifacts' or 'full' (default).",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING, enumeration = {"observation", "planes", "artifacts", "full"})
             )
     })
     @APIResponse(
@@ -333,10 +647,12 @@ public class ObservationResource {
     )
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     @ConditionalRolesAllowed("resource.roles.view")
-    public Response getObservation(@PathParam("id") String id) {
+    public Response getObservation(@PathParam("id") String id, @QueryParam("depth") String depth) {
         try {
+            FetchDepth fetchDepth = FetchDepth.parse(depth);
             Observation observation = Tools.findObservation(em, id);
             if (observation != null) {
+                fetchDepth.apply(em, List.of(observation));
                 Object formattedObs = Tools.formatObservation(observation);
 
                 return Response.status(Response.Status.OK)
@@ -378,9 +694,7 @@ public class ObservationResource {
     @Transactional
     public Response deleteObservation(@PathParam("id") String id) {
         try {
-            Observation observation = Tools.findObservation(em, id);
-            if (observation != null) {
-                em.remove(observation);
+            if (deleter.delete(List.of(id)).getObservations() > 0) {
                 return Response.status(Response.Status.NO_CONTENT).build();
             } else {
                 return Response.status(Response.Status.NOT_FOUND)
@@ -392,4 +706,46 @@ public class ObservationResource {
             return Responses.errorResponse(e);
         }
     }
+
+    @DELETE
+    @Path("/")
+    @Operation(summary = "Delete many observations", description = "Deletes all the observations of a collection and/or with the supplied ids, " +
+            "including their planes, artifacts etc. The observations are deleted with set based statements, in chunks, each chunk in its own transaction. " +
+            "Should the request fail part way through the observations already deleted remain deleted, the request can be repeated.")
+    @Parameters({
+            @Parameter(
+                    name = "collectionId",
+                    description = "Delete the observations of this collection.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "id",
+                    description = "Delete the observations with these ids (repeat the parameter for each id), combined with collectionId if both are supplied.",
+                    in = ParameterIn.QUERY,
+                    schema = @Schema(type = SchemaType.ARRAY, implementation = String.class)
+            )
+    })
+    @APIResponse(
+            responseCode = "200",
+            description = "The number of observations, and rows in total, deleted.",
+            content = @Content(schema = @Schema(implementation = DeleteReport.class))
+    )
+    @APIResponse(
+            responseCode = "400",
+            description = "Neither collectionId nor id supplied, or internal error whilst deleting the observations."
+    )
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @ConditionalRolesAllowed("resource.roles.edit")
+    public Response deleteObservations(@QueryParam("collectionId") String collection, @QueryParam("id") List<String> ids) {
+        boolean filtered = collection != null && !collection.isEmpty();
+        if (!filtered && (ids == null || ids.isEmpty())) {
+            return Responses.errorResponse("Either 'collectionId' or 'id' must be supplied.");
+        }
+        try {
+            return Response.ok(deleter.deleteAll(filtered ? collection : null, ids)).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
 }
@@ -7,6 +7,7 @@ import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.jpa.HibernateHints;
 import org.ivoa.dm.caom2.Observation;
 import org.jboss.logging.Logger;
 import org.w3c.dom.Document;
@@ -80,6 +81,7 @@ public class VOTableGenerator {
                                 "LEFT JOIN ArtifactDescription ad ON ad.uri = a.descriptionID " +
                                 "WHERE o.id = :obsId", ArtifactDetails.class)
                 .setParameter("obsId", observationId)
+                .setHint(HibernateHints.HINT_CACHEABLE, true)
                 .getResultList();
     }
 
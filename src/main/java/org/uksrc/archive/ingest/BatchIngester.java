@@ -0,0 +1,334 @@
+package org.uksrc.archive.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.PropertyValueException;
+import org.ivoa.dm.caom2.Observation;
+import org.jboss.logging.Logger;
+import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.tools.Tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Adds many Observations in a single request.
+ * <p>
+ * Entries are persisted in chunks of {@code archive.ingest.batch-size}, each chunk in its own transaction with
+ * a single existence check and a single flush (so Hibernate can batch the INSERTs, see
+ * quarkus.hibernate-orm.jdbc.statement-batch-size). A bad entry never aborts the request, if a chunk fails to
+ * flush its entries are retried individually so that only the offending entries are reported as invalid.
+ * When upserting, existing Observations are updated rather than reported as duplicates, unless their content
+ * hasn't changed (see {@link ContentHash}) in which case they're reported as unchanged without being loaded.
+ * <p>
+ * The body is read one Observation at a time (see {@link ObservationReaders}) and each chunk is committed and
+ * cleared before the next is read, so arbitrarily large documents can be ingested in constant memory.
+ */
+@ApplicationScoped
+public class BatchIngester {
+
+    private static final Logger LOG = Logger.getLogger(BatchIngester.class);
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Inject
+    ObservationWrites writes;
+
+    @ConfigProperty(name = "archive.ingest.batch-size", defaultValue = "100")
+    int batchSize;
+
+    private volatile JAXBContext context;
+
+    /**
+     * Reads and adds all the Observations of the supplied request body.
+     * @param body An {@code <Observations>} document (XML/JSON, as returned by the listings) or one Observation per line (NDJSON).
+     * @param type The content type of the body
+     * @return The outcome of each entry.
+     * @throws IOException If the body cannot be read, or isn't a valid document (XML/JSON only, NDJSON lines are reported individually).
+     */
+    public IngestReport ingest(InputStream body, MediaType type) throws IOException {
+        return ingest(body, type, new IngestReport(), false, report -> {});
+    }
+
+    /**
+     * Reads and adds all the Observations of the supplied request body, one entry at a time, so that memory use
+     * doesn't depend on the size of the body.
+     * @param body An {@code <Observations>} document (XML/JSON, as returned by the listings) or one Observation per line (NDJSON).
+     * @param type The content type of the body
+     * @param report The report to add the outcome of each entry to
+     * @param upsert true to update existing Observations, rather than reporting them as duplicates
+     * @param progress Called with the report after each chunk has been committed
+     * @return The supplied report.
+     * @throws IOException If the body cannot be read, or isn't a valid document (XML/JSON only, NDJSON lines are reported individually).
+     */
+    public IngestReport ingest(InputStream body, MediaType type, IngestReport report, boolean upsert, Consumer<IngestReport> progress) throws IOException {
+        Iterator<IngestItem> items;
+        if (type != null && type.isCompatible(MediaType.valueOf(APPLICATION_NDJSON))) {
+            items = ObservationReaders.ndjson(body, mapper);
+        } else if (type != null && MediaType.APPLICATION_JSON_TYPE.isCompatible(type)) {
+            items = ObservationReaders.json(body, mapper);
+        } else {
+            try {
+                items = ObservationReaders.xml(body, context());
+            } catch (JAXBException e) {
+                throw new IOException("Unable to read the observations: " + e.getMessage(), e);
+            }
+        }
+
+        try {
+            return ingest(items, report, upsert, progress);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Adds the supplied entries, committing every {@code archive.ingest.batch-size} entries.
+     * @param items The entries, read lazily.
+     * @param report The report to add the outcome of each entry to
+     * @param upsert true to update existing Observations, rather than reporting them as duplicates
+     * @param progress Called with the report after each chunk has been committed
+     * @return The supplied report.
+     */
+    public IngestReport ingest(Iterator<IngestItem> items, IngestReport report, boolean upsert, Consumer<IngestReport> progress) {
+        List<IngestItem> chunk = new ArrayList<>(batchSize);
+        while (items.hasNext()) {
+            chunk.add(items.next());
+            if (chunk.size() >= batchSize) {
+                persistChunk(chunk, report, upsert);
+                LOG.debugf("Ingested %d observations (%d created, %d updated, %d duplicate, %d invalid)",
+                        report.getProcessed(), report.getCreated(), report.getUpdated(), report.getDuplicate(), report.getInvalid());
+                progress.accept(report);
+            }
+        }
+        persistChunk(chunk, report, upsert);
+        progress.accept(report);
+        return report;
+    }
+
+    /**
+     * Adds (or updates) a single Observation, relying on the primary key rather than checking for an existing
+     * Observation first, so two concurrent requests for the same id can't both insert it.
+     * @param observation The Observation to add or update
+     * @return CREATED, UPDATED or UNCHANGED, or INVALID with the reason.
+     */
+    public IngestResult upsert(Observation observation) {
+        return insert(0, observation, true);
+    }
+
+    private void persistChunk(List<IngestItem> chunk, IngestReport report, boolean upsert) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        // Repeats within the chunk, those in earlier chunks are found by the existence check (as they've been committed).
+        Set<String> seen = new HashSet<>();
+        IngestResult[] results = new IngestResult[chunk.size()];
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            IngestItem item = chunk.get(i);
+            String id = item.observation() != null ? item.observation().getId() : null;
+            if (item.error() != null) {
+                results[i] = new IngestResult(item.index(), null, IngestResult.Status.INVALID, item.error());
+            } else if (id == null || id.isBlank()) {
+                results[i] = new IngestResult(item.index(), null, IngestResult.Status.INVALID, "Observation.id must be supplied.");
+            } else if (!seen.add(id)) {
+                results[i] = new IngestResult(item.index(), id, IngestResult.Status.DUPLICATE, "Observation.id " + id + " is repeated within the request.");
+            } else {
+                candidates.add(i);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            report.addAll(results);
+            chunk.clear();
+            return;
+        }
+
+        try {
+            // The whole chunk at once, a single existence check and flush (a concurrent insert of the same id is
+            // caught by the primary key, and resolved by the individual retries below).
+            QuarkusTransaction.requiringNew().call(() -> {
+                Map<String, String> hashes = new HashMap<>();
+                candidates.forEach(i -> hashes.put(chunk.get(i).observation().getId(), ContentHash.of(chunk.get(i).observation())));
+
+                // Unchanged since they were last written, no need to load them.
+                Map<String, String> stored = upsert ? ContentHash.find(em, hashes.keySet()) : Map.of();
+                Set<String> ids = hashes.keySet().stream().filter(id -> !hashes.get(id).equals(stored.get(id))).collect(Collectors.toSet());
+                Map<String, Observation> existing = existing(ids, upsert);
+
+                ObservationWrites.Changes changes = ObservationWrites.changes();
+                for (int i : candidates) {
+                    IngestItem item = chunk.get(i);
+                    Observation observation = item.observation();
+                    String id = observation.getId();
+                    if (!ids.contains(id)) {
+                        results[i] = new IngestResult(item.index(), id, IngestResult.Status.UNCHANGED, null);
+                    } else if (!existing.containsKey(id)) {
+                        em.persist(observation);
+                        changes.add(observation, hashes.get(id));
+                        results[i] = new IngestResult(item.index(), id, IngestResult.Status.CREATED, null);
+                    } else if (upsert) {
+                        changes.replacing(existing.get(id));
+                        Tools.updateObservation(existing.get(id), observation);
+                        changes.add(existing.get(id), hashes.get(id));
+                        results[i] = new IngestResult(item.index(), id, IngestResult.Status.UPDATED, null);
+                    } else {
+                        results[i] = duplicate(item.index(), id);
+                    }
+                }
+                em.flush();
+                writes.written(em, changes);
+                return null;
+            });
+        } catch (Exception e) {
+            // At least one entry is bad, find it (them) by retrying each entry on its own.
+            LOG.debugf("Batch of %d observations failed (%s), retrying individually", candidates.size(), e.getMessage());
+            for (int i : candidates) {
+                IngestItem item = chunk.get(i);
+                try {
+                    // The failed attempt has left Hibernate's collection wrappers in the graph, start again from a clean copy.
+                    results[i] = insert(item.index(), copy(item.observation()), upsert);
+                } catch (IOException ex) {
+                    results[i] = new IngestResult(item.index(), item.observation().getId(), IngestResult.Status.INVALID, message(ex));
+                }
+            }
+        }
+
+        report.addAll(results);
+        chunk.clear();
+    }
+
+    /**
+     * @return The supplied ids that already exist, with the Observation (only loaded when it's going to be updated).
+     */
+    private Map<String, Observation> existing(Collection<String> ids, boolean upsert) {
+        Map<String, Observation> existing = new HashMap<>();
+        if (ids.isEmpty()) {
+            return existing;
+        }
+        if (upsert) {
+            em.createQuery("SELECT o FROM Observation o WHERE o.id IN :ids", Observation.class)
+                    .setParameter("ids", ids)
+                    .getResultList()
+                    .forEach(o -> existing.put(o.getId(), o));
+        } else {
+            em.createQuery("SELECT o.id FROM Observation o WHERE o.id IN :ids", String.class)
+                    .setParameter("ids", ids)
+                    .getResultList()
+                    .forEach(id -> existing.put(id, null));
+        }
+        return existing;
+    }
+
+    /**
+     * INSERTs the observation, an existing Observation is detected by the primary key (rather than checked for
+     * beforehand) and is then either updated or reported as a duplicate.
+     */
+    private IngestResult insert(int index, Observation observation, boolean upsert) {
+        String id = observation.getId();
+        String hash;
+        Observation values;
+        try {
+            hash = ContentHash.of(observation);
+            if (upsert && QuarkusTransaction.requiringNew().call(() -> ContentHash.matches(em, id, hash))) {
+                return new IngestResult(index, id, IngestResult.Status.UNCHANGED, null);
+            }
+            // Kept clean for the update, should the INSERT fail.
+            values = upsert ? copy(observation) : null;
+        } catch (Exception e) {
+            return new IngestResult(index, id, IngestResult.Status.INVALID, message(e));
+        }
+
+        try {
+            QuarkusTransaction.requiringNew().run(() -> writes.persist(em, observation));
+            return new IngestResult(index, id, IngestResult.Status.CREATED, null);
+        } catch (Exception e) {
+            if (!Tools.isUniqueViolation(e)) {
+                return new IngestResult(index, id, IngestResult.Status.INVALID, message(e));
+            }
+            if (!upsert) {
+                return duplicate(index, id);
+            }
+        }
+
+        try {
+            return QuarkusTransaction.requiringNew().call(() -> {
+                Observation existing = em.find(Observation.class, id);
+                IngestResult.Status status;
+                ObservationWrites.Changes changes = ObservationWrites.changes();
+                if (existing == null) {
+                    // Deleted since the INSERT failed
+                    em.persist(values);
+                    existing = values;
+                    status = IngestResult.Status.CREATED;
+                } else {
+                    changes.replacing(existing);
+                    Tools.updateObservation(existing, values);
+                    status = IngestResult.Status.UPDATED;
+                }
+                em.flush();
+                writes.written(em, changes.add(existing, hash));
+                return new IngestResult(index, id, status, null);
+            });
+        } catch (Exception e) {
+            return new IngestResult(index, id, IngestResult.Status.INVALID, message(e));
+        }
+    }
+
+    private Observation copy(Observation observation) throws IOException {
+        return mapper.readValue(mapper.writeValueAsBytes(observation), Observation.class);
+    }
+
+    private static IngestResult duplicate(int index, String id) {
+        return new IngestResult(index, id, IngestResult.Status.DUPLICATE, "Observation.id " + id + " already exists.");
+    }
+
+    /**
+     * The most specific message of the exception, including the property name if one is missing/invalid.
+     */
+    static String message(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof PropertyValueException pve) {
+                return pve.getMessage() + " " + pve.getPropertyName();
+            }
+        }
+        Throwable root = e;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getMessage() != null ? root.getMessage() : root.getClass().getSimpleName();
+    }
+
+    JAXBContext context() throws JAXBException {
+        if (context == null) {
+            context = JAXBContext.newInstance(ObservationListWrapper.class);
+        }
+        return context;
+    }
+}
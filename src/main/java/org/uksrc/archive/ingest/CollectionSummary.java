@@ -0,0 +1,236 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Id;
+import jakarta.persistence.Query;
+import jakarta.persistence.Table;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import org.ivoa.dm.caom2.Artifact;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.Plane;
+import org.uksrc.archive.utils.query.CaomTables;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The number of Observations and Artifacts, and the total size of the Artifacts, of a collection.
+ * <p>
+ * Maintained by every write (see {@link Changes}), in the same transaction, so that the collections can be listed
+ * without scanning the observation table. Each write adds its difference to the counts rather than recounting, a
+ * collection without any Observations is removed. Should the table ever be out of step with the Observations (such as
+ * after changes made directly in the database) it can be rebuilt from them, see {@link #rebuild}.
+ * <p>
+ * Updating a collection's row locks it until the writing transaction commits, so the transactions writing to the same
+ * collection are serialised from that point on (the rows are always locked in collection order, so writers of
+ * overlapping collections queue rather than deadlock). Keep the transactions that write large collections short, such
+ * as by the chunking of the batch ingest.
+ */
+@Entity
+@Table(name = "collection_summary", schema = "ingest")
+@XmlRootElement(name = "CollectionSummary")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class CollectionSummary {
+
+    @Id
+    @Column(name = "collection")
+    @XmlAttribute(name = "id")
+    private String collection;
+
+    @Column(name = "observations", nullable = false)
+    @XmlAttribute(name = "observations")
+    private long observations;
+
+    @Column(name = "artifacts", nullable = false)
+    @XmlAttribute(name = "artifacts")
+    private long artifacts;
+
+    @Column(name = "bytes", nullable = false)
+    @XmlAttribute(name = "bytes")
+    private long bytes;
+
+    @Column(name = "last_modified", nullable = false)
+    @XmlAttribute(name = "lastModified")
+    @XmlJavaTypeAdapter(IngestJob.InstantAdapter.class)
+    private Instant lastModified;
+
+    @SuppressWarnings("unused")
+    public CollectionSummary() {
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public long getObservations() {
+        return observations;
+    }
+
+    public long getArtifacts() {
+        return artifacts;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return The ids of all the collections (that contain at least one Observation), in order.
+     */
+    public static List<String> collections(EntityManager em) {
+        return em.createQuery("SELECT s.collection FROM CollectionSummary s ORDER BY s.collection", String.class)
+                .getResultList();
+    }
+
+    /**
+     * @return An empty set of changes, to record the Observations written by a transaction.
+     */
+    public static Changes changes() {
+        return new Changes();
+    }
+
+    /**
+     * The changes made by deleting Observations, read before they're deleted.
+     * @param em The entity manager to query with
+     * @param ids The ids of the Observations about to be deleted
+     */
+    public static Changes removed(EntityManager em, Collection<String> ids) {
+        Changes changes = new Changes();
+        totals(em, " WHERE o.id IN :ids", ids).forEach(row ->
+                changes.add((String) row[0], -((Number) row[1]).longValue(), -((Number) row[2]).longValue(), -((Number) row[3]).longValue()));
+        return changes;
+    }
+
+    /**
+     * Recounts every collection from the Observations.
+     * @param em The entity manager, within a transaction
+     * @return The number of collections.
+     */
+    public static int rebuild(EntityManager em) {
+        em.createQuery("DELETE FROM CollectionSummary").executeUpdate();
+        Instant now = Instant.now();
+        List<Object[]> rows = totals(em, "", null);
+        for (Object[] row : rows) {
+            CollectionSummary summary = new CollectionSummary();
+            summary.collection = (String) row[0];
+            summary.observations = ((Number) row[1]).longValue();
+            summary.artifacts = ((Number) row[2]).longValue();
+            summary.bytes = ((Number) row[3]).longValue();
+            summary.lastModified = now;
+            em.persist(summary);
+        }
+        return rows.size();
+    }
+
+    /**
+     * Collection, Observations, Artifacts, bytes, of the (filtered) Observations.
+     */
+    private static List<Object[]> totals(EntityManager em, String where, Collection<String> ids) {
+        Query query = em.createQuery("SELECT o.collection, COUNT(DISTINCT o.id), COUNT(a), COALESCE(SUM(a.contentLength), 0) " +
+                "FROM Observation o LEFT JOIN o.planes p LEFT JOIN p.artifacts a" + where + " GROUP BY o.collection");
+        if (ids != null) {
+            query.setParameter("ids", ids);
+        }
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.getResultList();
+        return rows;
+    }
+
+    /**
+     * The differences made to the collections by the Observations written in a transaction, stored with a single
+     * statement whatever the number of Observations.
+     */
+    public static final class Changes {
+
+        // Sorted, so that every transaction locks the rows in the same order
+        private final Map<String, long[]> deltas = new TreeMap<>();
+
+        private Changes() {
+        }
+
+        /**
+         * Records an Observation that has been added, or the new state of an updated Observation.
+         */
+        public Changes add(Observation observation) {
+            return count(observation, 1);
+        }
+
+        /**
+         * Records an Observation that is being deleted, or the previous state of an Observation that is about to be updated.
+         */
+        public Changes remove(Observation observation) {
+            return count(observation, -1);
+        }
+
+        private Changes count(Observation observation, int sign) {
+            long artifacts = 0;
+            long bytes = 0;
+            for (Plane plane : observation.getPlanes()) {
+                for (Artifact artifact : plane.getArtifacts()) {
+                    artifacts++;
+                    Number length = artifact.getContentLength();
+                    bytes += length != null ? length.longValue() : 0;
+                }
+            }
+            add(observation.getCollection(), sign, sign * artifacts, sign * bytes);
+            return this;
+        }
+
+        private void add(String collection, long observations, long artifacts, long bytes) {
+            long[] delta = deltas.computeIfAbsent(collection, c -> new long[3]);
+            delta[0] += observations;
+            delta[1] += artifacts;
+            delta[2] += bytes;
+        }
+
+        /**
+         * Applies the changes, must be called within the transaction that writes the Observations.
+         * @param em The entity manager to write with
+         */
+        public void store(EntityManager em) {
+            if (deltas.isEmpty()) {
+                return;
+            }
+
+            String table = CaomTables.table(em, CollectionSummary.class);
+            String collection = CaomTables.idColumn(em, CollectionSummary.class);
+            String observations = CaomTables.column(em, CollectionSummary.class, "observations");
+            String artifacts = CaomTables.column(em, CollectionSummary.class, "artifacts");
+            String bytes = CaomTables.column(em, CollectionSummary.class, "bytes");
+            String lastModified = CaomTables.column(em, CollectionSummary.class, "lastModified");
+
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" AS s (")
+                    .append(collection).append(", ").append(observations).append(", ").append(artifacts).append(", ")
+                    .append(bytes).append(", ").append(lastModified).append(") VALUES ")
+                    .append(CaomTables.values(deltas.size(), 4, "now()"))
+                    .append(" ON CONFLICT (").append(collection).append(") DO UPDATE SET ");
+            for (String column : List.of(observations, artifacts, bytes)) {
+                sql.append(column).append(" = s.").append(column).append(" + EXCLUDED.").append(column).append(", ");
+            }
+            sql.append(lastModified).append(" = EXCLUDED.").append(lastModified);
+
+            List<Object> parameters = new ArrayList<>();
+            deltas.forEach((id, delta) -> parameters.addAll(List.of(id, delta[0], delta[1], delta[2])));
+            CaomTables.nativeUpdate(em, CollectionSummary.class, sql.toString(), parameters);
+
+            // Collections that no longer have any Observations
+            em.createQuery("DELETE FROM CollectionSummary s WHERE s.collection IN :collections AND s.observations <= 0")
+                    .setParameter("collections", deltas.keySet())
+                    .executeUpdate();
+        }
+    }
+}
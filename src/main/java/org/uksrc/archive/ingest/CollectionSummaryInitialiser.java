@@ -0,0 +1,42 @@
+package org.uksrc.archive.ingest;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.jboss.logging.Logger;
+
+/**
+ * Builds the collection summary on startup when it's empty but there are Observations (the first start after the
+ * summary was introduced, or after the table has been truncated). Otherwise it's left as maintained by the writes,
+ * see {@link CollectionSummary}.
+ */
+@ApplicationScoped
+public class CollectionSummaryInitialiser {
+
+    private static final Logger LOG = Logger.getLogger(CollectionSummaryInitialiser.class);
+
+    @Inject
+    EntityManager entityManager;
+
+    @Transactional
+    void onStart(@Observes StartupEvent ev) {
+        try {
+            boolean summarised = !entityManager.createQuery("SELECT s.collection FROM CollectionSummary s", String.class)
+                    .setMaxResults(1)
+                    .getResultList()
+                    .isEmpty();
+            boolean observations = !entityManager.createQuery("SELECT o.id FROM Observation o", String.class)
+                    .setMaxResults(1)
+                    .getResultList()
+                    .isEmpty();
+            if (!summarised && observations) {
+                LOG.infof("Built the summary of %d collections", CollectionSummary.rebuild(entityManager));
+            }
+        } catch (Exception e) {
+            LOG.error("Unable to build the collection summary", e);
+        }
+    }
+}
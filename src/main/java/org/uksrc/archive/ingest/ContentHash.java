@@ -0,0 +1,139 @@
+package org.uksrc.archive.ingest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import org.ivoa.dm.caom2.Caom2Model;
+import org.ivoa.dm.caom2.Observation;
+import org.uksrc.archive.utils.query.CaomTables;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A digest of the content of an Observation (the whole tree), recorded whenever the Observation is written so that
+ * re-submitting an Observation that hasn't changed can be detected without loading (or dirty checking) it.
+ * <p>
+ * The CAOM classes are generated from the model so the digest is held alongside, in its own table, keyed by
+ * Observation.id. The digest is a SHA-256 of the canonical JSON of the Observation (properties and map entries
+ * sorted), comparisons are always made against an existing Observation so an orphaned digest is never matched.
+ */
+@Entity
+@Table(name = "observation_hashes", schema = "ingest")
+public class ContentHash {
+
+    private static final ObjectMapper CANONICAL = Caom2Model.jsonMapper()
+            .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    @Id
+    @Column(name = "observation_id")
+    private String observationId;
+
+    @Column(name = "hash", nullable = false, length = 64)
+    private String hash;
+
+    @Column(name = "updated", nullable = false)
+    private Instant updated;
+
+    @SuppressWarnings("unused")
+    public ContentHash() {
+    }
+
+    public String getObservationId() {
+        return observationId;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @param observation The observation, as supplied by the caller
+     * @return The hex encoded digest of its content.
+     */
+    public static String of(Observation observation) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(CANONICAL.writeValueAsBytes(observation));
+            return HexFormat.of().formatHex(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to hash observation " + observation.getId(), e);
+        }
+    }
+
+    /**
+     * @param em The entity manager to query with
+     * @param ids Observation ids
+     * @return The digests of those ids that exist, by id.
+     */
+    public static Map<String, String> find(EntityManager em, Collection<String> ids) {
+        Map<String, String> hashes = new HashMap<>();
+        if (!ids.isEmpty()) {
+            em.createQuery("SELECT h.observationId, h.hash FROM ContentHash h JOIN Observation o ON o.id = h.observationId " +
+                            "WHERE h.observationId IN :ids", Object[].class)
+                    .setParameter("ids", ids)
+                    .getResultList()
+                    .forEach(row -> hashes.put((String) row[0], (String) row[1]));
+        }
+        return hashes;
+    }
+
+    /**
+     * @return true if the Observation exists and its content has the supplied digest.
+     */
+    public static boolean matches(EntityManager em, String id, String hash) {
+        return hash.equals(find(em, List.of(id)).get(id));
+    }
+
+    /**
+     * Records (or replaces) the digests of the supplied observations, a single statement whatever the number.
+     * Must be called within the transaction that writes the observations.
+     * @param em The entity manager to write with
+     * @param hashes The digests, by Observation.id
+     */
+    static void store(EntityManager em, Map<String, String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+
+        String id = CaomTables.idColumn(em, ContentHash.class);
+        String hash = CaomTables.column(em, ContentHash.class, "hash");
+        String updated = CaomTables.column(em, ContentHash.class, "updated");
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(CaomTables.table(em, ContentHash.class))
+                .append(" (").append(id).append(", ").append(hash).append(", ").append(updated).append(") VALUES ")
+                .append(CaomTables.values(hashes.size(), 2, "now()"))
+                .append(" ON CONFLICT (").append(id).append(") DO UPDATE SET ")
+                .append(hash).append(" = EXCLUDED.").append(hash).append(", ")
+                .append(updated).append(" = EXCLUDED.").append(updated);
+
+        List<Object> parameters = new ArrayList<>();
+        hashes.forEach((observation, digest) -> {
+            parameters.add(observation);
+            parameters.add(digest);
+        });
+        CaomTables.nativeUpdate(em, ContentHash.class, sql.toString(), parameters);
+    }
+
+    /**
+     * Removes the digests of deleted Observations.
+     */
+    static void remove(EntityManager em, Collection<String> ids) {
+        em.createQuery("DELETE FROM ContentHash h WHERE h.observationId IN :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,34 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The response to a bulk delete request, the number of Observations deleted and the total number of rows
+ * (Observations, Planes, Artifacts...) removed with them.
+ */
+@XmlRootElement(name = "DeleteReport")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class DeleteReport {
+
+    @XmlAttribute(name = "observations")
+    private int observations;
+
+    @XmlAttribute(name = "rows")
+    private long rows;
+
+    public void add(int observations, long rows) {
+        this.observations += observations;
+        this.rows += rows;
+    }
+
+    public int getObservations() {
+        return observations;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+}
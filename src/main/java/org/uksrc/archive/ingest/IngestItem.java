@@ -0,0 +1,20 @@
+package org.uksrc.archive.ingest;
+
+import org.ivoa.dm.caom2.Observation;
+
+/**
+ * A single entry of a batch ingest request, either a parsed Observation or the reason it couldn't be read.
+ * @param index Zero-indexed position of the entry within the request
+ * @param observation The Observation, null if it couldn't be read
+ * @param error Why the entry couldn't be read, null if it was read successfully
+ */
+public record IngestItem(int index, Observation observation, String error) {
+
+    public static IngestItem of(int index, Observation observation) {
+        return new IngestItem(index, observation, null);
+    }
+
+    public static IngestItem invalid(int index, String error) {
+        return new IngestItem(index, null, error);
+    }
+}
@@ -0,0 +1,219 @@
+package org.uksrc.archive.ingest;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.OrderColumn;
+import jakarta.persistence.Table;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlEnum;
+import jakarta.xml.bind.annotation.XmlEnumValue;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlTransient;
+import jakarta.xml.bind.annotation.adapters.XmlAdapter;
+import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ingest request that is processed in the background, see {@link IngestJobManager}.
+ * <p>
+ * The state of each job (and the entries that weren't created) is held in the "ingest" schema, so that it
+ * can be queried after the request has been accepted and outlives a restart of the service.
+ */
+@Entity
+@Table(name = "ingest_jobs", schema = "ingest")
+@XmlRootElement(name = "IngestJob")
+@XmlAccessorType(XmlAccessType.FIELD)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestJob {
+
+    @XmlEnum
+    public enum Status {
+        @XmlEnumValue("queued") @JsonProperty("queued")
+        QUEUED,
+        @XmlEnumValue("running") @JsonProperty("running")
+        RUNNING,
+        @XmlEnumValue("completed") @JsonProperty("completed")
+        COMPLETED,
+        @XmlEnumValue("failed") @JsonProperty("failed")
+        FAILED
+    }
+
+    @Id
+    @XmlAttribute(name = "id")
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    @XmlAttribute(name = "status")
+    private Status status;
+
+    @Column(name = "submitted_by")
+    @XmlAttribute(name = "submittedBy")
+    private String submittedBy;
+
+    @Column(name = "content_type")
+    @XmlTransient
+    @JsonIgnore
+    private String contentType;     // Of the spooled body
+
+    @Column(name = "submitted", nullable = false)
+    @XmlAttribute(name = "submitted")
+    @XmlJavaTypeAdapter(InstantAdapter.class)
+    private Instant submitted;
+
+    @Column(name = "started")
+    @XmlAttribute(name = "started")
+    @XmlJavaTypeAdapter(InstantAdapter.class)
+    private Instant started;
+
+    @Column(name = "finished")
+    @XmlAttribute(name = "finished")
+    @XmlJavaTypeAdapter(InstantAdapter.class)
+    private Instant finished;
+
+    @Column(name = "created")
+    @XmlAttribute(name = "created")
+    private int created;
+
+    @Column(name = "duplicate")
+    @XmlAttribute(name = "duplicate")
+    private int duplicate;
+
+    @Column(name = "invalid")
+    @XmlAttribute(name = "invalid")
+    private int invalid;
+
+    @Column(name = "message", columnDefinition = "text")
+    @XmlAttribute(name = "message")
+    private String message;         // Reason for a failed job
+
+    // The entries that weren't created, created entries are only counted.
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "ingest_job_errors", schema = "ingest", joinColumns = @JoinColumn(name = "job_id"))
+    @OrderColumn(name = "position")
+    @XmlElement(name = "Result")
+    @JsonProperty("errors")
+    private List<IngestResult> errors = new ArrayList<>();
+
+    @SuppressWarnings("unused")
+    public IngestJob() {
+    }
+
+    public IngestJob(String id, String submittedBy, String contentType) {
+        this.id = id;
+        this.submittedBy = submittedBy;
+        this.contentType = contentType;
+        this.status = Status.QUEUED;
+        this.submitted = Instant.now();
+    }
+
+    /**
+     * Marks the job as being processed.
+     */
+    public void start() {
+        status = Status.RUNNING;
+        started = Instant.now();
+    }
+
+    /**
+     * Copies the totals (and the entries not listed yet) of the supplied report.
+     */
+    public void update(IngestReport report) {
+        created = report.getCreated();
+        duplicate = report.getDuplicate();
+        invalid = report.getInvalid();
+        List<IngestResult> results = report.getResults();
+        for (int i = errors.size(); i < results.size(); i++) {
+            errors.add(results.get(i));
+        }
+    }
+
+    /**
+     * Marks the job as finished.
+     * @param failure The reason the job couldn't be completed, null if it was.
+     */
+    public void finish(String failure) {
+        status = failure == null ? Status.COMPLETED : Status.FAILED;
+        message = failure;
+        finished = Instant.now();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getSubmittedBy() {
+        return submittedBy;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Instant getSubmitted() {
+        return submitted;
+    }
+
+    public Instant getStarted() {
+        return started;
+    }
+
+    public Instant getFinished() {
+        return finished;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getDuplicate() {
+        return duplicate;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public List<IngestResult> getErrors() {
+        return errors;
+    }
+
+    /**
+     * ISO-8601 timestamps in XML responses.
+     */
+    public static class InstantAdapter extends XmlAdapter<String, Instant> {
+        @Override
+        public Instant unmarshal(String value) {
+            return value != null ? Instant.parse(value) : null;
+        }
+
+        @Override
+        public String marshal(Instant value) {
+            return value != null ? value.toString() : null;
+        }
+    }
+}
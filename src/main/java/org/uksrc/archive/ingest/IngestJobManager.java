@@ -0,0 +1,203 @@
+package org.uksrc.archive.ingest;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.ws.rs.core.MediaType;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs ingest requests in the background, so that the caller doesn't have to hold a connection open whilst
+ * the observations are persisted.
+ * <p>
+ * The request body is spooled to disk ({@code archive.ingest.jobs.spool-dir}) and queued to a fixed pool of
+ * {@code archive.ingest.jobs.workers} threads. The queue holds at most {@code archive.ingest.jobs.queue-size}
+ * jobs, further requests are rejected (rather than queued without limit) until there is space.
+ * Each job is processed by {@link BatchIngester} and its state is updated after every committed chunk.
+ */
+@ApplicationScoped
+public class IngestJobManager {
+
+    private static final Logger LOG = Logger.getLogger(IngestJobManager.class);
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    BatchIngester ingester;
+
+    @ConfigProperty(name = "archive.ingest.jobs.workers", defaultValue = "2")
+    int workers;
+
+    @ConfigProperty(name = "archive.ingest.jobs.queue-size", defaultValue = "10")
+    int queueSize;
+
+    @ConfigProperty(name = "archive.ingest.jobs.spool-dir")
+    Optional<String> spoolDir;
+
+    private ThreadPoolExecutor executor;
+
+    void onStart(@Observes StartupEvent ev) throws IOException {
+        Files.createDirectories(spoolDirectory());
+
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new Thread(r, "ingest-job-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        // All workers waiting on the queue, so a full queue always means no capacity.
+        executor.prestartAllCoreThreads();
+
+        recover();
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues an ingest request.
+     * @param body An {@code <Observations>} document (XML/JSON) or one Observation per line (NDJSON).
+     * @param type The content type of the body
+     * @param submittedBy The name of the caller, if known
+     * @return The queued job
+     * @throws RejectedExecutionException If the queue is full.
+     * @throws IOException If the body can't be spooled.
+     */
+    public IngestJob submit(InputStream body, MediaType type, String submittedBy) throws IOException {
+        if (executor.getQueue().remainingCapacity() == 0) {
+            // Fail before reading what may be a very large body.
+            throw new RejectedExecutionException("Too many ingest jobs queued, try again later.");
+        }
+
+        IngestJob job = new IngestJob(UUID.randomUUID().toString(), submittedBy, type != null ? type.toString() : MediaType.APPLICATION_XML);
+        Path spool = spoolFile(job.getId());
+        Files.copy(body, spool);
+        QuarkusTransaction.requiringNew().run(() -> em.persist(job));
+
+        try {
+            executor.execute(() -> run(job.getId()));
+        } catch (RejectedExecutionException e) {
+            QuarkusTransaction.requiringNew().run(() -> em.remove(em.find(IngestJob.class, job.getId())));
+            Files.deleteIfExists(spool);
+            throw new RejectedExecutionException("Too many ingest jobs queued, try again later.", e);
+        }
+        return job;
+    }
+
+    /**
+     * @param id The id of the job
+     * @return The current state of the job, or null if not found.
+     */
+    public IngestJob find(String id) {
+        return em.find(IngestJob.class, id);
+    }
+
+    private void run(String id) {
+        IngestJob job = QuarkusTransaction.requiringNew().call(() -> {
+            IngestJob j = em.find(IngestJob.class, id);
+            if (j != null) {
+                j.start();
+            }
+            return j;
+        });
+        if (job == null) {
+            return;
+        }
+
+        IngestReport report = IngestReport.errorsOnly();
+        String failure = null;
+        Path spool = spoolFile(id);
+        try (InputStream body = Files.newInputStream(spool)) {
+            ingester.ingest(body, MediaType.valueOf(job.getContentType()), report, false, r -> update(id, r));
+        } catch (Exception e) {
+            LOG.warnf("Ingest job %s failed: %s", id, e.getMessage());
+            failure = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+
+        try {
+            finish(id, report, failure);
+            Files.deleteIfExists(spool);
+        } catch (Exception e) {
+            LOG.errorf(e, "Unable to record the outcome of ingest job %s", id);
+        }
+    }
+
+    private void update(String id, IngestReport report) {
+        QuarkusTransaction.requiringNew().run(() -> em.find(IngestJob.class, id).update(report));
+    }
+
+    /**
+     * @param failure The reason the job couldn't be completed, null if it was.
+     */
+    private void finish(String id, IngestReport report, String failure) {
+        QuarkusTransaction.requiringNew().run(() -> {
+            IngestJob job = em.find(IngestJob.class, id);
+            job.update(report);
+            job.finish(failure);
+        });
+    }
+
+    /**
+     * Requeues the jobs that were waiting when the service stopped, jobs that were running are marked as failed
+     * as the entries committed before the restart can't be told apart from genuine duplicates.
+     */
+    private void recover() {
+        List<String> queued = QuarkusTransaction.requiringNew().call(() -> {
+            em.createQuery("SELECT j FROM IngestJob j WHERE j.status = :status", IngestJob.class)
+                    .setParameter("status", IngestJob.Status.RUNNING)
+                    .getResultList()
+                    .forEach(j -> j.finish("Interrupted by a restart of the service, resubmit to add the remaining entries " +
+                            "(entries already added will be reported as duplicates)."));
+
+            return em.createQuery("SELECT j.id FROM IngestJob j WHERE j.status = :status ORDER BY j.submitted", String.class)
+                    .setParameter("status", IngestJob.Status.QUEUED)
+                    .getResultList();
+        });
+
+        for (String id : queued) {
+            try {
+                if (!Files.exists(spoolFile(id))) {
+                    throw new RejectedExecutionException("The request body is no longer available, resubmit the request.");
+                }
+                executor.execute(() -> run(id));
+            } catch (RejectedExecutionException e) {
+                finish(id, IngestReport.errorsOnly(), e.getMessage());
+            }
+        }
+        if (!queued.isEmpty()) {
+            LOG.infof("Requeued %d ingest job(s)", queued.size());
+        }
+    }
+
+    private Path spoolDirectory() {
+        return spoolDir.map(Path::of).orElseGet(() -> Path.of(System.getProperty("java.io.tmpdir"), "archive-ingest"));
+    }
+
+    private Path spoolFile(String id) {
+        return spoolDirectory().resolve(id);
+    }
+}
@@ -0,0 +1,120 @@
+package org.uksrc.archive.ingest;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlTransient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The response to a batch ingest request, one result per entry (in request order) plus totals.
+ * <p>
+ * For very large requests the results of the created entries can be omitted ({@link #errorsOnly()}), so that
+ * only the totals and the entries needing attention (duplicate or invalid) are held.
+ */
+@XmlRootElement(name = "IngestReport")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class IngestReport {
+
+    @XmlAttribute(name = "created")
+    private int created;
+
+    @XmlAttribute(name = "updated")
+    private int updated;        // Only when upserting
+
+    @XmlAttribute(name = "unchanged")
+    private int unchanged;      // Only when upserting, the same content as the existing Observation
+
+    @XmlAttribute(name = "duplicate")
+    private int duplicate;
+
+    @XmlAttribute(name = "invalid")
+    private int invalid;
+
+    @XmlElement(name = "Result")
+    private List<IngestResult> results = new ArrayList<>();
+
+    @XmlTransient
+    @JsonIgnore
+    private boolean errorsOnly;
+
+    /**
+     * @return A report that counts, but doesn't list, the entries that were created/updated/unchanged.
+     */
+    public static IngestReport errorsOnly() {
+        IngestReport report = new IngestReport();
+        report.errorsOnly = true;
+        return report;
+    }
+
+    /**
+     * @param results The value of the 'results' query parameter, 'all' (the default) or 'errors' (case-insensitive)
+     * @return An empty report, listing the results requested.
+     * @throws IllegalArgumentException if the value is not valid.
+     */
+    public static IngestReport forResults(String results) {
+        if (results == null || results.isBlank() || results.trim().equalsIgnoreCase("all")) {
+            return new IngestReport();
+        }
+        if (results.trim().equalsIgnoreCase("errors")) {
+            return errorsOnly();
+        }
+        throw new IllegalArgumentException("'results' must be either 'all' or 'errors'.");
+    }
+
+    public void add(IngestResult result) {
+        switch (result.getStatus()) {
+            case CREATED -> created++;
+            case UPDATED -> updated++;
+            case UNCHANGED -> unchanged++;
+            case DUPLICATE -> duplicate++;
+            case INVALID -> invalid++;
+        }
+        if (!errorsOnly || result.getStatus() == IngestResult.Status.DUPLICATE || result.getStatus() == IngestResult.Status.INVALID) {
+            results.add(result);
+        }
+    }
+
+    public void addAll(IngestResult... results) {
+        for (IngestResult result : results) {
+            add(result);
+        }
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public int getDuplicate() {
+        return duplicate;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    /**
+     * @return The number of entries processed so far.
+     */
+    @JsonIgnore
+    public int getProcessed() {
+        return created + updated + unchanged + duplicate + invalid;
+    }
+
+    public List<IngestResult> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,80 @@
+package org.uksrc.archive.ingest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlEnum;
+import jakarta.xml.bind.annotation.XmlEnumValue;
+
+/**
+ * The outcome of a single entry of a batch ingest request (also held against an {@link IngestJob}).
+ */
+@Embeddable
+@XmlAccessorType(XmlAccessType.FIELD)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestResult {
+
+    @XmlEnum
+    public enum Status {
+        @XmlEnumValue("created") @JsonProperty("created")
+        CREATED,
+        @XmlEnumValue("updated") @JsonProperty("updated")
+        UPDATED,
+        @XmlEnumValue("unchanged") @JsonProperty("unchanged")
+        UNCHANGED,
+        @XmlEnumValue("duplicate") @JsonProperty("duplicate")
+        DUPLICATE,
+        @XmlEnumValue("invalid") @JsonProperty("invalid")
+        INVALID
+    }
+
+    @Column(name = "entry_index")
+    @XmlAttribute(name = "index")
+    private int index;          // Position of the entry within the request, zero-indexed
+
+    @Column(name = "observation_id")
+    @XmlAttribute(name = "id")
+    private String id;          // Observation.id, if it could be read
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    @XmlAttribute(name = "status")
+    private Status status;
+
+    @Column(name = "message", columnDefinition = "text")
+    @XmlAttribute(name = "message")
+    private String message;     // Reason for a duplicate/invalid status
+
+    @SuppressWarnings("unused")
+    public IngestResult() {
+    }
+
+    public IngestResult(int index, String id, Status status, String message) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,374 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.ivoa.dm.caom2.CalibrationLevel;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.Plane;
+import org.ivoa.dm.caom2.TargetPosition;
+import org.ivoa.dm.caom2.types.Circle;
+import org.ivoa.dm.caom2.types.Interval;
+import org.ivoa.dm.caom2.types.Point;
+import org.ivoa.dm.caom2.types.Polygon;
+import org.ivoa.dm.caom2.types.Shape;
+import org.uksrc.archive.utils.query.CaomTables;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * A row of the IVOA ObsCore table ({@code ivoa.obscore}) for each Plane, so that TAP discovery queries are made against
+ * a single indexed table rather than joining Observation, Plane and its position, time and energy.
+ * <p>
+ * Maintained by every write path (see {@link PlaneIndex}) in the transaction that writes the Observations, the rows of
+ * the written Observations are replaced, never the whole table. Registered in TAP_SCHEMA on startup (see
+ * {@code TapSchemaPopulator}) with the metadata of {@link #COLUMNS}. Columns that aren't written (such as
+ * {@code access_url}, which depends on the artifacts' storage) are left null.
+ */
+@Entity
+@Table(name = "obscore", schema = "ivoa", indexes = {
+        @Index(name = "obscore_observation_idx", columnList = "observation_id"),
+        @Index(name = "obscore_collection_idx", columnList = "obs_collection"),
+        @Index(name = "obscore_obs_id_idx", columnList = "obs_id"),
+        @Index(name = "obscore_publisher_did_idx", columnList = "obs_publisher_did"),
+        @Index(name = "obscore_dataproduct_type_idx", columnList = "dataproduct_type, calib_level"),
+        @Index(name = "obscore_t_min_idx", columnList = "t_min"),
+        @Index(name = "obscore_t_max_idx", columnList = "t_max"),
+        @Index(name = "obscore_em_min_idx", columnList = "em_min"),
+        @Index(name = "obscore_em_max_idx", columnList = "em_max")
+})
+@SuppressWarnings("unused")
+public class ObsCore {
+
+    public static final String SCHEMA = "ivoa";
+    public static final String TABLE = "ivoa.obscore";
+
+    /**
+     * The TAP_SCHEMA metadata of a column.
+     * @param datatype The TAP (ADQL) datatype
+     * @param indexed True if the column is indexed (see the indexes above, and IndexInitialiser for s_ra/s_dec)
+     */
+    public record TapColumn(String name, String datatype, String unit, String ucd, String utype, String description, boolean indexed) {
+    }
+
+    /**
+     * The ObsCore (1.1) columns, as registered in TAP_SCHEMA.
+     */
+    public static final List<TapColumn> COLUMNS = List.of(
+            new TapColumn("dataproduct_type", "VARCHAR", null, "meta.code.class", "obscore:ObsDataset.dataProductType", "Data product (file content) primary type", true),
+            new TapColumn("calib_level", "INTEGER", null, "meta.code;obs.calib", "obscore:ObsDataset.calibLevel", "Calibration level of the observation: in {0, 1, 2, 3, 4}", true),
+            new TapColumn("obs_collection", "VARCHAR", null, "meta.id", "obscore:DataID.Collection", "Name of the data collection", true),
+            new TapColumn("obs_id", "VARCHAR", null, "meta.id", "obscore:DataID.observationID", "Observation ID", true),
+            new TapColumn("obs_publisher_did", "VARCHAR", null, "meta.ref.ivoid", "obscore:Curation.PublisherDID", "Dataset identifier given by the publisher", true),
+            new TapColumn("access_url", "VARCHAR", null, "meta.ref.url", "obscore:Access.Reference", "URL used to access (download) dataset", false),
+            new TapColumn("access_format", "VARCHAR", null, "meta.code.mime", "obscore:Access.Format", "File content format", false),
+            new TapColumn("access_estsize", "BIGINT", "kbyte", "phys.size;meta.file", "obscore:Access.Size", "Estimated size of dataset in kilo bytes", false),
+            new TapColumn("target_name", "VARCHAR", null, "meta.id;src", "obscore:Target.Name", "Astronomical object observed, if any", false),
+            new TapColumn("s_ra", "DOUBLE", "deg", "pos.eq.ra", "obscore:Char.SpatialAxis.Coverage.Location.Coord.Position2D.Value2.C1", "Central right ascension, ICRS", true),
+            new TapColumn("s_dec", "DOUBLE", "deg", "pos.eq.dec", "obscore:Char.SpatialAxis.Coverage.Location.Coord.Position2D.Value2.C2", "Central declination, ICRS", true),
+            new TapColumn("s_fov", "DOUBLE", "deg", "phys.angSize;instr.fov", "obscore:Char.SpatialAxis.Coverage.Bounds.Extent.diameter", "Diameter (bounds) of the covered region", false),
+            new TapColumn("s_region", "VARCHAR", null, "pos.outline;obs.field", "obscore:Char.SpatialAxis.Coverage.Support.Area", "Sky region covered by the data product (STC-S)", false),
+            new TapColumn("s_resolution", "DOUBLE", "arcsec", "pos.angResolution", "obscore:Char.SpatialAxis.Resolution.Refval.value", "Spatial resolution of data as FWHM", false),
+            new TapColumn("s_xel1", "BIGINT", null, "meta.number", "obscore:Char.SpatialAxis.numBins1", "Number of elements along the first spatial axis", false),
+            new TapColumn("s_xel2", "BIGINT", null, "meta.number", "obscore:Char.SpatialAxis.numBins2", "Number of elements along the second spatial axis", false),
+            new TapColumn("t_min", "DOUBLE", "d", "time.start;obs.exposure", "obscore:Char.TimeAxis.Coverage.Bounds.Limits.StartTime", "Start time in MJD", true),
+            new TapColumn("t_max", "DOUBLE", "d", "time.end;obs.exposure", "obscore:Char.TimeAxis.Coverage.Bounds.Limits.StopTime", "Stop time in MJD", true),
+            new TapColumn("t_exptime", "DOUBLE", "s", "time.duration;obs.exposure", "obscore:Char.TimeAxis.Coverage.Support.Extent", "Total exposure time", false),
+            new TapColumn("t_resolution", "DOUBLE", "s", "time.resolution", "obscore:Char.TimeAxis.Resolution.Refval.value", "Temporal resolution FWHM", false),
+            new TapColumn("t_xel", "BIGINT", null, "meta.number", "obscore:Char.TimeAxis.numBins", "Number of elements along the time axis", false),
+            new TapColumn("em_min", "DOUBLE", "m", "em.wl;stat.min", "obscore:Char.SpectralAxis.Coverage.Bounds.Limits.LoLimit", "Start in spectral coordinates", true),
+            new TapColumn("em_max", "DOUBLE", "m", "em.wl;stat.max", "obscore:Char.SpectralAxis.Coverage.Bounds.Limits.HiLimit", "Stop in spectral coordinates", true),
+            new TapColumn("em_res_power", "DOUBLE", null, "spect.resolution", "obscore:Char.SpectralAxis.Resolution.ResolPower.refVal", "Spectral resolving power", false),
+            new TapColumn("em_xel", "BIGINT", null, "meta.number", "obscore:Char.SpectralAxis.numBins", "Number of elements along the spectral axis", false),
+            new TapColumn("o_ucd", "VARCHAR", null, "meta.ucd", "obscore:Char.ObservableAxis.ucd", "UCD of observable (e.g. phot.flux.density, phot.count, etc.)", false),
+            new TapColumn("pol_states", "VARCHAR", null, "meta.code;phys.polarization", "obscore:Char.PolarizationAxis.stateList", "List of polarization states or NULL if not applicable", false),
+            new TapColumn("pol_xel", "BIGINT", null, "meta.number", "obscore:Char.PolarizationAxis.numBins", "Number of polarization samples", false),
+            new TapColumn("facility_name", "VARCHAR", null, "meta.id;instr.tel", "obscore:Provenance.ObsConfig.Facility.name", "Name of the facility used for this observation", false),
+            new TapColumn("instrument_name", "VARCHAR", null, "meta.id;instr", "obscore:Provenance.ObsConfig.Instrument.name", "Name of the instrument used for this observation", false),
+            new TapColumn("obs_release_date", "TIMESTAMP", null, "time.release", "obscore:Curation.releaseDate", "Observation release date", false)
+    );
+
+    // The properties written (the id first), in the order of each row, their columns are resolved from the mapping
+    private static final String[] WRITTEN = {"planeId", "observationId", "dataproductType", "calibLevel", "obsCollection",
+            "obsId", "obsPublisherDid", "sRa", "sDec", "sFov", "sRegion", "tMin", "tMax", "emMin", "emMax", "obsReleaseDate",
+            "targetName", "facilityName", "instrumentName"};
+
+    @Id
+    @Column(name = "plane_id")
+    private String planeId;
+
+    @Column(name = "observation_id", nullable = false)
+    private String observationId;
+
+    @Column(name = "dataproduct_type")
+    private String dataproductType;
+
+    @Column(name = "calib_level")
+    private Integer calibLevel;
+
+    @Column(name = "obs_collection", nullable = false)
+    private String obsCollection;
+
+    @Column(name = "obs_id")
+    private String obsId;
+
+    @Column(name = "obs_publisher_did")
+    private String obsPublisherDid;
+
+    @Column(name = "access_url", columnDefinition = "text")
+    private String accessUrl;
+
+    @Column(name = "access_format")
+    private String accessFormat;
+
+    @Column(name = "access_estsize")
+    private Long accessEstsize;
+
+    @Column(name = "target_name")
+    private String targetName;
+
+    @Column(name = "s_ra")
+    private Double sRa;
+
+    @Column(name = "s_dec")
+    private Double sDec;
+
+    @Column(name = "s_fov")
+    private Double sFov;
+
+    @Column(name = "s_region", columnDefinition = "text")
+    private String sRegion;
+
+    @Column(name = "s_resolution")
+    private Double sResolution;
+
+    @Column(name = "s_xel1")
+    private Long sXel1;
+
+    @Column(name = "s_xel2")
+    private Long sXel2;
+
+    @Column(name = "t_min")
+    private Double tMin;
+
+    @Column(name = "t_max")
+    private Double tMax;
+
+    @Column(name = "t_exptime")
+    private Double tExptime;
+
+    @Column(name = "t_resolution")
+    private Double tResolution;
+
+    @Column(name = "t_xel")
+    private Long tXel;
+
+    @Column(name = "em_min")
+    private Double emMin;
+
+    @Column(name = "em_max")
+    private Double emMax;
+
+    @Column(name = "em_res_power")
+    private Double emResPower;
+
+    @Column(name = "em_xel")
+    private Long emXel;
+
+    @Column(name = "o_ucd")
+    private String oUcd;
+
+    @Column(name = "pol_states")
+    private String polStates;
+
+    @Column(name = "pol_xel")
+    private Long polXel;
+
+    @Column(name = "facility_name")
+    private String facilityName;
+
+    @Column(name = "instrument_name")
+    private String instrumentName;
+
+    @Column(name = "obs_release_date")
+    private Timestamp obsReleaseDate;
+
+    public ObsCore() {
+    }
+
+    /**
+     * Replaces the rows of the planes of the supplied observations. Must be called within the transaction that writes
+     * the observations, after they have been flushed.
+     * @param em The entity manager to write with
+     * @param observations The observations written
+     */
+    public static void store(EntityManager em, Collection<Observation> observations) {
+        if (observations.isEmpty()) {
+            return;
+        }
+
+        List<String> ids = observations.stream().map(Observation::getId).toList();
+        remove(em, ids);
+
+        List<Object[]> rows = new ArrayList<>();
+        for (Observation observation : observations) {
+            for (Plane plane : observation.getPlanes()) {
+                Object[] row = new Object[WRITTEN.length];
+                row[0] = plane.getId();
+                row[1] = observation.getId();
+                row[2] = plane.getDataProductType() != null ? plane.getDataProductType().value() : null;
+                row[3] = level(plane.getCalibrationLevel());
+                row[4] = observation.getCollection();
+                row[5] = observation.getUri();
+                row[6] = plane.getUri();
+                spatial(plane.getPosition() != null ? plane.getPosition().getBounds() : null, observation.getTargetPosition(), row);
+                interval(plane.getTime() != null ? plane.getTime().getBounds() : null, row, 11);
+                interval(plane.getEnergy() != null ? plane.getEnergy().getBounds() : null, row, 13);
+                row[15] = plane.getDataRelease() != null ? new Timestamp(plane.getDataRelease().getTime()) : null;
+                row[16] = observation.getTarget() != null ? observation.getTarget().getName() : null;
+                row[17] = observation.getTelescope() != null ? observation.getTelescope().getName() : null;
+                row[18] = observation.getInstrument() != null ? observation.getInstrument().getName() : null;
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        StringJoiner columns = new StringJoiner(", ", " (", ")");
+        columns.add(CaomTables.idColumn(em, ObsCore.class));
+        for (int i = 1; i < WRITTEN.length; i++) {
+            columns.add(CaomTables.column(em, ObsCore.class, WRITTEN[i]));
+        }
+        String into = "INSERT INTO " + CaomTables.table(em, ObsCore.class) + columns + " VALUES ";
+        // Each row binds at most a parameter per column, so a statement of this many rows is always within the limit
+        int perStatement = CaomTables.MAX_PARAMETERS / WRITTEN.length;
+        for (int from = 0; from < rows.size(); from += perStatement) {
+            insert(em, into, rows.subList(from, Math.min(rows.size(), from + perStatement)));
+        }
+    }
+
+    /**
+     * Inserts the rows in a single statement.
+     * @param into The statement up to its VALUES list
+     */
+    private static void insert(EntityManager em, String into, List<Object[]> rows) {
+        StringBuilder sql = new StringBuilder(into);
+        List<Object> parameters = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            StringJoiner values = new StringJoiner(", ", "(", ")");
+            for (Object value : rows.get(i)) {
+                // Nulls are written literally, an untyped null parameter can't always be bound
+                if (value == null) {
+                    values.add("NULL");
+                } else {
+                    parameters.add(value);
+                    values.add("?" + parameters.size());
+                }
+            }
+            sql.append(i > 0 ? ", " : "").append(values);
+        }
+
+        CaomTables.nativeUpdate(em, ObsCore.class, sql.toString(), parameters);
+    }
+
+    /**
+     * Removes the rows of the planes of deleted Observations.
+     */
+    public static void remove(EntityManager em, Collection<String> ids) {
+        em.createQuery("DELETE FROM ObsCore c WHERE c.observationId IN :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * Sets s_ra, s_dec, s_fov and s_region of the row from the bounds of the plane, the centre of a polygon is the
+     * (normalised) mean of its vertices. Without bounds the centre is the target position of the Observation.
+     */
+    private static void spatial(Shape bounds, TargetPosition target, Object[] row) {
+        if (bounds instanceof Circle circle && valid(circle.getCenter()) && circle.getRadius() != null) {
+            row[7] = circle.getCenter().getCval1();
+            row[8] = circle.getCenter().getCval2();
+            row[9] = 2 * circle.getRadius();
+            row[10] = "CIRCLE ICRS " + circle.getCenter().getCval1() + " " + circle.getCenter().getCval2() + " " + circle.getRadius();
+            return;
+        }
+
+        if (bounds instanceof Polygon polygon && polygon.getPoints() != null && polygon.getPoints().size() >= 3
+                && polygon.getPoints().stream().allMatch(ObsCore::valid)) {
+            double[] sum = new double[3];
+            StringJoiner region = new StringJoiner(" ", "POLYGON ICRS ", "");
+            for (Point point : polygon.getPoints()) {
+                double[] v = vector(point.getCval1(), point.getCval2());
+                for (int i = 0; i < 3; i++) {
+                    sum[i] += v[i];
+                }
+                region.add(point.getCval1() + " " + point.getCval2());
+            }
+            double norm = Math.sqrt(sum[0] * sum[0] + sum[1] * sum[1] + sum[2] * sum[2]);
+            if (norm > 0) {
+                double ra = Math.toDegrees(Math.atan2(sum[1], sum[0]));
+                double dec = Math.toDegrees(Math.asin(sum[2] / norm));
+                double[] centre = vector(ra, dec);
+                double radius = 0;
+                for (Point point : polygon.getPoints()) {
+                    double[] v = vector(point.getCval1(), point.getCval2());
+                    double cos = v[0] * centre[0] + v[1] * centre[1] + v[2] * centre[2];
+                    radius = Math.max(radius, Math.toDegrees(Math.acos(Math.min(1.0, Math.max(-1.0, cos)))));
+                }
+                row[7] = ra < 0 ? ra + 360 : ra;
+                row[8] = dec;
+                row[9] = 2 * radius;
+            }
+            row[10] = region.toString();
+            return;
+        }
+
+        Point point = target != null ? target.getCoordinates() : null;
+        if (valid(point)) {
+            row[7] = point.getCval1();
+            row[8] = point.getCval2();
+        }
+    }
+
+    private static void interval(Interval bounds, Object[] row, int index) {
+        if (bounds != null && PlaneInterval.valid(bounds.getLower(), bounds.getUpper())) {
+            row[index] = bounds.getLower();
+            row[index + 1] = bounds.getUpper();
+        }
+    }
+
+    private static boolean valid(Point point) {
+        return point != null && point.getCval1() != null && point.getCval2() != null;
+    }
+
+    private static double[] vector(double ra, double dec) {
+        double a = Math.toRadians(ra);
+        double d = Math.toRadians(dec);
+        return new double[]{Math.cos(d) * Math.cos(a), Math.cos(d) * Math.sin(a), Math.sin(d)};
+    }
+
+    /**
+     * @return The ObsCore calib_level of the CAOM calibration level.
+     */
+    private static Integer level(CalibrationLevel level) {
+        if (level == null) {
+            return null;
+        }
+        return switch (level) {
+            case PLANNED -> -1;
+            case RAW_INSTRUMENTAL -> 0;
+            case RAW_STANDARD -> 1;
+            case CALIBRATED -> 2;
+            case PRODUCT -> 3;
+            case ANALYSIS_PRODUCT -> 4;
+        };
+    }
+}
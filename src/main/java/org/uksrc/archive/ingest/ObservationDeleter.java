@@ -0,0 +1,166 @@
+package org.uksrc.archive.ingest;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.PluralAttribute;
+import jakarta.persistence.metamodel.SingularAttribute;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.ivoa.dm.caom2.Observation;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Deletes Observations, and everything they own, with set-based DELETE statements rather than loading each
+ * Observation and letting Hibernate cascade the removal one row at a time.
+ * <p>
+ * The composition tree (Observation, Planes, Artifacts, Parts, Chunks...) is read from the entity metamodel, so
+ * nothing is hard-coded against the generated CAOM classes. For a set of Observation ids each level is deleted with
+ * a single statement, children first (the generated one-to-many compositions hold the foreign key in the child
+ * table), and one-to-one values after their owner. Element collections are removed by Hibernate along with the
+ * entities that own them. Large deletions are made {@code archive.ingest.batch-size} Observations per transaction.
+ */
+@ApplicationScoped
+public class ObservationDeleter {
+
+    private static final Logger LOG = Logger.getLogger(ObservationDeleter.class);
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    ObservationWrites writes;
+
+    @ConfigProperty(name = "archive.ingest.batch-size", defaultValue = "100")
+    int batchSize;
+
+    /**
+     * Deletes the supplied Observations within the caller's transaction.
+     * @param ids Observation ids, those that don't exist are ignored
+     * @return The number of Observations, and rows in total, deleted.
+     */
+    public DeleteReport delete(Collection<String> ids) {
+        DeleteReport report = new DeleteReport();
+        if (ids.isEmpty()) {
+            return report;
+        }
+
+        writes.removed(em, ids);
+        EntityType<Observation> type = em.getMetamodel().entity(Observation.class);
+        String where = " WHERE x0." + idName(type) + " IN :ids";
+        long[] deleted = deleteTree(type, "FROM " + type.getName() + " x0", "x0", where, ids, 1);
+
+        report.add((int) deleted[0], deleted[1]);
+        return report;
+    }
+
+    /**
+     * Deletes all the Observations that match the filter, committing every {@code archive.ingest.batch-size}
+     * Observations. Should a chunk fail, the Observations of the previous chunks remain deleted and the request
+     * can simply be repeated.
+     * @param collection Only delete the Observations of this collection, if supplied
+     * @param ids Only delete these Observations, if supplied
+     * @return The number of Observations, and rows in total, deleted.
+     */
+    public DeleteReport deleteAll(String collection, Collection<String> ids) {
+        StringBuilder jpql = new StringBuilder("SELECT o.id FROM Observation o WHERE o.id > :after");
+        if (collection != null) {
+            jpql.append(" AND o.collection = :collection");
+        }
+        if (ids != null && !ids.isEmpty()) {
+            jpql.append(" AND o.id IN :ids");
+        }
+        jpql.append(" ORDER BY o.id");
+
+        DeleteReport report = new DeleteReport();
+        String after = "";
+        while (true) {
+            String from = after;
+            List<String> chunk = new ArrayList<>();
+            DeleteReport deleted = QuarkusTransaction.requiringNew().call(() -> {
+                TypedQuery<String> query = em.createQuery(jpql.toString(), String.class)
+                        .setParameter("after", from)
+                        .setMaxResults(batchSize);
+                if (collection != null) {
+                    query.setParameter("collection", collection);
+                }
+                if (ids != null && !ids.isEmpty()) {
+                    query.setParameter("ids", ids);
+                }
+                chunk.addAll(query.getResultList());
+                return delete(chunk);
+            });
+            report.add(deleted.getObservations(), deleted.getRows());
+            LOG.infof("Deleted %d observations (%d rows)%s", report.getObservations(), report.getRows(),
+                    collection != null ? " of collection " + collection : "");
+
+            if (chunk.size() < batchSize) {
+                return report;
+            }
+            after = chunk.get(chunk.size() - 1);
+        }
+    }
+
+    /**
+     * Deletes the entities selected by the query (with its owned entities).
+     * @param type The type of the entities to delete
+     * @param from The FROM clause (and joins) of the query selecting them
+     * @param alias The alias of the entities to delete in the query
+     * @param where The WHERE clause of the query, restricted by :ids
+     * @param ids The ids of the root of the query
+     * @param depth The number of aliases used by the query
+     * @return The number of rows of this type deleted, the number of rows deleted in total.
+     */
+    private long[] deleteTree(EntityType<?> type, String from, String alias, String where, Collection<?> ids, int depth) {
+        long total = 0;
+        for (PluralAttribute<?, ?, ?> attribute : type.getPluralAttributes()) {
+            if (attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.ONE_TO_MANY
+                    && attribute.getElementType() instanceof EntityType<?> child) {
+                String childAlias = "x" + depth;
+                total += deleteTree(child, from + " JOIN " + alias + "." + attribute.getName() + " " + childAlias,
+                        childAlias, where, ids, depth + 1)[1];
+            }
+        }
+
+        // The owner holds the foreign key of a one-to-one, find the values before the owner is deleted.
+        List<EntityType<?>> valueTypes = new ArrayList<>();
+        List<List<Object>> valueIds = new ArrayList<>();
+        for (SingularAttribute<?, ?> attribute : type.getSingularAttributes()) {
+            if (attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.ONE_TO_ONE
+                    && attribute.getType() instanceof EntityType<?> value) {
+                String valueAlias = "x" + depth;
+                valueTypes.add(value);
+                valueIds.add(em.createQuery("SELECT " + valueAlias + "." + idName(value) + " " + from + " JOIN " + alias + "."
+                                + attribute.getName() + " " + valueAlias + where, Object.class)
+                        .setParameter("ids", ids)
+                        .getResultList());
+            }
+        }
+
+        int deleted = em.createQuery("DELETE FROM " + type.getName() + " d WHERE d IN (SELECT " + alias + " " + from + where + ")")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        total += deleted;
+
+        for (int i = 0; i < valueTypes.size(); i++) {
+            EntityType<?> value = valueTypes.get(i);
+            if (!valueIds.get(i).isEmpty()) {
+                total += deleteTree(value, "FROM " + value.getName() + " x0", "x0", " WHERE x0." + idName(value) + " IN :ids",
+                        valueIds.get(i), 1)[1];
+            }
+        }
+        return new long[]{deleted, total};
+    }
+
+    private static String idName(EntityType<?> type) {
+        return type.getId(type.getIdType().getJavaType()).getName();
+    }
+}
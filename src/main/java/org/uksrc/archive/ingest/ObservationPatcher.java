@@ -0,0 +1,184 @@
+package org.uksrc.archive.ingest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.Hibernate;
+import org.ivoa.dm.caom2.Observation;
+import org.jboss.logging.Logger;
+import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.tools.MergePatch;
+import org.uksrc.archive.utils.tools.Tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Partial updates of Observations (see {@link MergePatch}), of a single Observation or of every Observation of a
+ * collection.
+ * <p>
+ * The patch is applied to the JSON of the existing Observation and the result merged back into it (as a PUT would
+ * be), so only the values that actually change are written. An Observation the patch makes no difference to isn't
+ * written at all.
+ */
+@ApplicationScoped
+public class ObservationPatcher {
+
+    private static final Logger LOG = Logger.getLogger(ObservationPatcher.class);
+
+    private static final String ID = "id";
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Inject
+    ObservationWrites writes;
+
+    @ConfigProperty(name = "archive.ingest.batch-size", defaultValue = "100")
+    int batchSize;
+
+    private volatile JAXBContext context;
+
+    /**
+     * Reads a patch from a request body.
+     * @param body A JSON Merge Patch or a partial Observation (XML), in which case only the elements present are patched.
+     * @param type The content type of the body
+     * @return The patch, always a JSON object.
+     * @throws IOException If the body isn't a JSON object or an Observation.
+     */
+    public JsonNode read(InputStream body, MediaType type) throws IOException {
+        JsonNode patch;
+        if (type != null && MediaType.APPLICATION_XML_TYPE.isCompatible(type)) {
+            try {
+                patch = MergePatch.prune(mapper.valueToTree(ObservationReaders.xmlObservation(body, context())));
+            } catch (JAXBException e) {
+                throw new IOException("Unable to read the observation: " + e.getMessage(), e);
+            }
+        } else {
+            patch = mapper.readTree(body);
+        }
+
+        if (patch == null || !patch.isObject()) {
+            throw new IOException("The patch must be a JSON object.");
+        }
+        return patch;
+    }
+
+    /**
+     * Applies the patch to a single Observation, within the caller's transaction.
+     * @param existing The (managed) Observation to patch
+     * @param patch The patch
+     * @return UPDATED, or UNCHANGED if the patch makes no difference to the Observation.
+     * @throws IOException If the patched Observation isn't a valid Observation.
+     * @throws IllegalArgumentException If the patch would change Observation.id
+     */
+    public IngestResult.Status patch(Observation existing, JsonNode patch) throws IOException {
+        String id = existing.getId();
+        JsonNode current = mapper.valueToTree(Hibernate.unproxy(existing));
+        JsonNode patched = MergePatch.apply(current, patch);
+        if (patched.equals(current)) {
+            return IngestResult.Status.UNCHANGED;
+        }
+
+        Observation values = mapper.treeToValue(patched, Observation.class);
+        if (!id.equals(values.getId())) {
+            throw new IllegalArgumentException("Observation.id cannot be changed.");
+        }
+
+        String hash = ContentHash.of(values);
+        ObservationWrites.Changes changes = ObservationWrites.changes().replacing(existing);
+        Tools.updateObservation(existing, values);
+        em.flush();
+        writes.written(em, changes.add(existing, hash));
+        return IngestResult.Status.UPDATED;
+    }
+
+    /**
+     * Applies the patch to every Observation of a collection, {@code archive.ingest.batch-size} Observations per
+     * transaction. As with a batch ingest, an Observation that can't be patched doesn't prevent the others from
+     * being patched, it's reported as invalid.
+     * @param collection The collection to patch
+     * @param patch The patch, which can't contain Observation.id
+     * @param report The report to add the outcome of each Observation to
+     * @return The supplied report.
+     */
+    public IngestReport patchCollection(String collection, JsonNode patch, IngestReport report) {
+        if (patch.has(ID)) {
+            throw new IllegalArgumentException("A patch of many observations cannot contain 'id'.");
+        }
+
+        int index = 0;
+        String after = "";
+        while (true) {
+            String from = after;
+            List<String> ids = QuarkusTransaction.requiringNew().call(() ->
+                    em.createQuery("SELECT o.id FROM Observation o WHERE o.collection = :collection AND o.id > :after ORDER BY o.id", String.class)
+                            .setParameter("collection", collection)
+                            .setParameter("after", from)
+                            .setMaxResults(batchSize)
+                            .getResultList());
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            IngestResult[] results = new IngestResult[ids.size()];
+            int first = index;
+            try {
+                QuarkusTransaction.requiringNew().call(() -> {
+                    for (int i = 0; i < ids.size(); i++) {
+                        results[i] = patch(first + i, ids.get(i), patch);
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                // Find the offending Observation(s) by patching each on its own.
+                LOG.debugf("Patch of %d observations failed (%s), retrying individually", ids.size(), e.getMessage());
+                for (int i = 0; i < ids.size(); i++) {
+                    int position = first + i;
+                    String id = ids.get(i);
+                    try {
+                        results[i] = QuarkusTransaction.requiringNew().call(() -> patch(position, id, patch));
+                    } catch (Exception ex) {
+                        results[i] = new IngestResult(position, id, IngestResult.Status.INVALID, BatchIngester.message(ex));
+                    }
+                }
+            }
+            report.addAll(results);
+
+            index += ids.size();
+            after = ids.get(ids.size() - 1);
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        return report;
+    }
+
+    private IngestResult patch(int index, String id, JsonNode patch) throws IOException {
+        Observation existing = em.find(Observation.class, id);
+        if (existing == null) {
+            // Deleted since the ids were read
+            return new IngestResult(index, id, IngestResult.Status.INVALID, "Observation with ID " + id + " not found");
+        }
+        return new IngestResult(index, id, patch(existing, patch), null);
+    }
+
+    private JAXBContext context() throws JAXBException {
+        if (context == null) {
+            context = JAXBContext.newInstance(ObservationListWrapper.class);
+        }
+        return context;
+    }
+}
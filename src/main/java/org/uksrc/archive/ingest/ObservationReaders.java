@@ -0,0 +1,233 @@
+package org.uksrc.archive.ingest;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Unmarshaller;
+import org.ivoa.dm.caom2.Observation;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the Observations of a batch ingest request one at a time, so that only the current entry
+ * (rather than the whole document) is ever held in memory.
+ * <p>
+ * A single unreadable entry of an NDJSON request is reported as an invalid entry and reading continues with the
+ * next line. For XML/JSON documents the reader can't reliably resynchronise after an error, so the error is
+ * reported against the entry and no further entries are read.
+ */
+final class ObservationReaders {
+
+    private static final String OBSERVATION = "Observation";
+
+    private static final XMLInputFactory XML_INPUT = createInputFactory();
+
+    private ObservationReaders() {
+    }
+
+    /**
+     * One Observation per (non-blank) line.
+     */
+    static Iterator<IngestItem> ndjson(InputStream body, ObjectMapper mapper) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        return new EntryReader() {
+            @Override
+            IngestItem read(int index) throws IOException {
+                String line;
+                do {
+                    line = reader.readLine();
+                    if (line == null) {
+                        return null;
+                    }
+                } while (line.isBlank());
+
+                try {
+                    return IngestItem.of(index, mapper.readValue(line, Observation.class));
+                } catch (IOException e) {
+                    return IngestItem.invalid(index, "Unable to read line: " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * The {@code <caom2:Observation>} children of the root element of an {@code <Observations>} document,
+     * pulled through an XMLStreamReader and unmarshalled individually.
+     */
+    static Iterator<IngestItem> xml(InputStream body, JAXBContext context) throws IOException {
+        try {
+            XMLStreamReader xml = XML_INPUT.createXMLStreamReader(body);
+            Unmarshaller unmarshaller = context.createUnmarshaller();
+            xml.nextTag();  // Root element
+            xml.next();
+
+            return new EntryReader() {
+                @Override
+                IngestItem read(int index) throws IOException {
+                    try {
+                        if (!nextObservation(xml)) {
+                            xml.close();
+                            return null;
+                        }
+                        // Leaves the reader on the event following the Observation's end tag, xsi:type selects the subclass.
+                        return IngestItem.of(index, unmarshaller.unmarshal(xml, Observation.class).getValue());
+                    } catch (Exception e) {
+                        finished = true;
+                        return IngestItem.invalid(index, "Unable to read the observation, no further entries read: " + e.getMessage());
+                    }
+                }
+            };
+        } catch (XMLStreamException | jakarta.xml.bind.JAXBException e) {
+            throw new IOException("Unable to read the observations: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A single {@code <caom2:Observation>} document, xsi:type selects the subclass.
+     */
+    static Observation xmlObservation(InputStream body, JAXBContext context) throws IOException {
+        try {
+            XMLStreamReader xml = XML_INPUT.createXMLStreamReader(body);
+            try {
+                return context.createUnmarshaller().unmarshal(xml, Observation.class).getValue();
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException | jakarta.xml.bind.JAXBException e) {
+            throw new IOException("Unable to read the observation: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The elements of the (only) array property of an {@code {"observations": [...]}} document.
+     */
+    static Iterator<IngestItem> json(InputStream body, ObjectMapper mapper) throws IOException {
+        JsonParser json = mapper.getFactory().createParser(body);
+        if (json.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Unable to read the observations: expected a JSON object");
+        }
+        // Skip to the array of observations, any other properties (such as 'next') are ignored.
+        JsonToken token;
+        while ((token = json.nextToken()) != JsonToken.START_ARRAY) {
+            if (token == null || token == JsonToken.END_OBJECT) {
+                throw new IOException("Unable to read the observations: no array of observations found");
+            }
+            if (token == JsonToken.START_OBJECT) {
+                json.skipChildren();
+            }
+        }
+
+        return new EntryReader() {
+            @Override
+            IngestItem read(int index) throws IOException {
+                if (json.nextToken() != JsonToken.START_OBJECT) {
+                    json.close();
+                    return null;
+                }
+                try {
+                    return IngestItem.of(index, mapper.readValue(json, Observation.class));
+                } catch (IOException e) {
+                    finished = true;
+                    return IngestItem.invalid(index, "Unable to read the observation, no further entries read: " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * Positions the reader on the start tag of the next Observation child of the root element.
+     * @return false once the end of the root element has been reached.
+     */
+    private static boolean nextObservation(XMLStreamReader xml) throws XMLStreamException {
+        while (xml.hasNext()) {
+            switch (xml.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    if (OBSERVATION.equals(xml.getLocalName())) {
+                        return true;
+                    }
+                    skipElement(xml);
+                }
+                case XMLStreamConstants.END_ELEMENT, XMLStreamConstants.END_DOCUMENT -> {
+                    return false;
+                }
+                default -> xml.next();
+            }
+        }
+        return false;
+    }
+
+    private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        xml.next();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // No DTDs or external entities in request bodies
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Iterator over entries read on demand (one entry of look-ahead).
+     */
+    private abstract static class EntryReader implements Iterator<IngestItem> {
+        private IngestItem next;
+        private int index;
+        boolean finished;
+
+        /**
+         * @param index The index of the entry to read
+         * @return The entry, or null if there are no more entries.
+         */
+        abstract IngestItem read(int index) throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished) {
+                try {
+                    next = read(index);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (next == null) {
+                    finished = true;
+                } else {
+                    index++;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public IngestItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            IngestItem current = next;
+            next = null;
+            return current;
+        }
+    }
+}
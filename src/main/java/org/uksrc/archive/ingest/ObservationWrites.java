@@ -0,0 +1,124 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.ivoa.dm.caom2.Observation;
+import org.uksrc.archive.utils.query.SkyIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maintains everything derived from the Observations (the {@link ContentHash}, {@link TargetPixel}, {@link PlaneIndex}
+ * (including {@link ObsCore}) and {@link CollectionSummary} tables, and the {@link SkyIndex}). Every path that writes or
+ * deletes Observations reports them here, {@link #written} once the Observations have been flushed and {@link #removed}
+ * before they're deleted, within the transaction that makes the change.
+ */
+@ApplicationScoped
+public class ObservationWrites {
+
+    @Inject
+    SkyIndex skyIndex;
+
+    /**
+     * @return An empty set of changes, to add the Observations written within a transaction to.
+     */
+    public static Changes changes() {
+        return new Changes();
+    }
+
+    /**
+     * Persists a new Observation (as supplied by the caller) and records it.
+     * @param em The entity manager, within a transaction
+     * @param observation The Observation to add
+     */
+    public void persist(EntityManager em, Observation observation) {
+        String hash = ContentHash.of(observation);
+        em.persist(observation);
+        em.flush();
+        written(em, changes().add(observation, hash));
+    }
+
+    /**
+     * Records the Observations written, once they have been flushed.
+     * @param em The entity manager, within the transaction that wrote them
+     * @param changes The Observations written
+     */
+    public void written(EntityManager em, Changes changes) {
+        if (changes.observations.isEmpty()) {
+            return;
+        }
+        ContentHash.store(em, changes.hashes);
+        TargetPixel.store(em, changes.observations);
+        PlaneIndex.storeAll(em, changes.observations);
+        changes.summary.store(em);
+
+        Map<String, double[]> positions = new LinkedHashMap<>();
+        List<String> unpositioned = new ArrayList<>();
+        for (Observation observation : changes.observations) {
+            double[] position = TargetPixel.position(observation);
+            if (position != null) {
+                positions.put(observation.getId(), position);
+            } else {
+                unpositioned.add(observation.getId());
+            }
+        }
+        skyIndex.written(positions, unpositioned);
+    }
+
+    /**
+     * Records the Observations about to be deleted, must be called before they are (the collection summary is
+     * decremented by their current content).
+     * @param em The entity manager, within the transaction that deletes them
+     * @param ids Observation ids, those that don't exist are ignored
+     */
+    public void removed(EntityManager em, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        CollectionSummary.Changes summary = CollectionSummary.removed(em, ids);
+        ContentHash.remove(em, ids);
+        TargetPixel.remove(em, ids);
+        PlaneIndex.removeAll(em, ids);
+        summary.store(em);
+        skyIndex.written(Map.of(), ids);
+    }
+
+    /**
+     * The Observations written within a transaction, with the digest of each as supplied by the caller.
+     */
+    public static final class Changes {
+
+        private final CollectionSummary.Changes summary = CollectionSummary.changes();
+        private final Map<String, String> hashes = new TreeMap<>();
+        private final List<Observation> observations = new ArrayList<>();
+
+        private Changes() {
+        }
+
+        /**
+         * Must be called with an existing Observation before it's updated, so its current content is taken out of the
+         * collection summary.
+         */
+        public Changes replacing(Observation existing) {
+            summary.remove(existing);
+            return this;
+        }
+
+        /**
+         * @param observation The (managed) Observation written, with its new content
+         * @param hash The {@link ContentHash} of the content supplied
+         */
+        public Changes add(Observation observation, String hash) {
+            summary.add(observation);
+            hashes.put(observation.getId(), hash);
+            observations.add(observation);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.ivoa.dm.caom2.Observation;
+
+import java.util.Collection;
+
+/**
+ * The {@code energy.bounds} of a Plane (wavelength, metres), see {@link PlaneInterval}.
+ */
+@Entity
+@Table(name = "plane_energy_bounds", schema = "ingest", indexes = @Index(name = "plane_energy_bounds_observation_idx", columnList = "observation_id"))
+public class PlaneEnergyBounds extends PlaneInterval {
+
+    @SuppressWarnings("unused")
+    public PlaneEnergyBounds() {
+    }
+
+    /**
+     * Replaces the energy bounds of the planes of the supplied observations, see {@link PlaneInterval#store}.
+     */
+    public static void store(EntityManager em, Collection<Observation> observations) {
+        store(em, PlaneEnergyBounds.class, observations, plane -> plane.getEnergy() != null ? plane.getEnergy().getBounds() : null);
+    }
+
+    /**
+     * Removes the energy bounds of the planes of deleted Observations.
+     */
+    public static void remove(EntityManager em, Collection<String> ids) {
+        remove(em, PlaneEnergyBounds.class, ids);
+    }
+}
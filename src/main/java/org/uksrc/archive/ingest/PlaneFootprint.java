@@ -0,0 +1,261 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.Plane;
+import org.ivoa.dm.caom2.types.Circle;
+import org.ivoa.dm.caom2.types.Point;
+import org.ivoa.dm.caom2.types.Polygon;
+import org.ivoa.dm.caom2.types.Shape;
+import org.uksrc.archive.utils.query.CaomTables;
+import org.uksrc.archive.utils.query.Region;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * The footprint ({@code position.bounds}) of a Plane, as a pgSphere polygon, recorded whenever its Observation is
+ * written so that region searches can be served by a GiST index (see {@code IndexInitialiser}).
+ * <p>
+ * Keyed by Plane.id. The polygon is stored as pgSphere's text representation ({@code {(ra d, dec d), ...}}) rather than as an spoly, so that the schema
+ * doesn't require pgSphere, and indexed as {@code (polygon::spoly)}. Circular bounds are stored as the circumscribed
+ * polygon of {@link #CIRCLE_VERTICES} sides, which contains the whole circle. Bounds pgSphere wouldn't accept as a
+ * polygon (such as one whose edges cross) aren't stored, as the cast would otherwise fail the write of the Observation.
+ */
+@Entity
+@Table(name = "plane_footprints", schema = "ingest", indexes = @Index(name = "plane_footprints_observation_idx", columnList = "observation_id"))
+public class PlaneFootprint {
+
+    static final int CIRCLE_VERTICES = 16;
+
+    // Vertices closer than this (radians) are the same vertex, as per pgSphere
+    private static final double EPSILON = 1e-9;
+
+    @Id
+    @Column(name = "plane_id")
+    private String planeId;
+
+    @Column(name = "observation_id", nullable = false)
+    private String observationId;
+
+    @Column(name = "polygon", nullable = false, columnDefinition = "text")
+    private String polygon;
+
+    @SuppressWarnings("unused")
+    public PlaneFootprint() {
+    }
+
+    public String getPlaneId() {
+        return planeId;
+    }
+
+    public String getObservationId() {
+        return observationId;
+    }
+
+    public String getPolygon() {
+        return polygon;
+    }
+
+    /**
+     * Replaces the footprints of the planes of the supplied observations. Must be called within the transaction that
+     * writes the observations.
+     * @param em The entity manager to write with
+     * @param observations The observations written
+     */
+    public static void store(EntityManager em, Collection<Observation> observations) {
+        if (observations.isEmpty()) {
+            return;
+        }
+
+        List<Object> rows = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (Observation observation : observations) {
+            ids.add(observation.getId());
+            for (Plane plane : observation.getPlanes()) {
+                String polygon = plane.getPosition() != null ? polygon(plane.getPosition().getBounds()) : null;
+                if (polygon != null) {
+                    rows.addAll(List.of(plane.getId(), observation.getId(), polygon));
+                }
+            }
+        }
+        // Planes may have been removed (or lost their bounds) by an update
+        remove(em, ids);
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        String sql = "INSERT INTO " + CaomTables.table(em, PlaneFootprint.class) +
+                " (" + CaomTables.idColumn(em, PlaneFootprint.class) +
+                ", " + CaomTables.column(em, PlaneFootprint.class, "observationId") +
+                ", " + CaomTables.column(em, PlaneFootprint.class, "polygon") + ") VALUES " +
+                CaomTables.values(rows.size() / 3, 3);
+        CaomTables.nativeUpdate(em, PlaneFootprint.class, sql, rows);
+    }
+
+    /**
+     * Removes the footprints of the planes of deleted Observations.
+     */
+    public static void remove(EntityManager em, Collection<String> ids) {
+        em.createQuery("DELETE FROM PlaneFootprint f WHERE f.observationId IN :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * @param bounds The bounds of a Plane
+     * @return pgSphere's representation of the bounds as a polygon, null if there are none (or they can't be represented).
+     */
+    static String polygon(Shape bounds) {
+        List<double[]> vertices = new ArrayList<>();
+        if (bounds instanceof Polygon polygon && polygon.getPoints() != null) {
+            for (Point point : polygon.getPoints()) {
+                if (point.getCval1() == null || point.getCval2() == null) {
+                    return null;
+                }
+                // Repeated vertices (including a closing vertex) are dropped, as pgSphere does
+                double[] vertex = {point.getCval1(), point.getCval2()};
+                if (vertices.isEmpty() || !same(vertices.get(vertices.size() - 1), vertex)) {
+                    vertices.add(vertex);
+                }
+            }
+            if (vertices.size() > 1 && same(vertices.get(0), vertices.get(vertices.size() - 1))) {
+                vertices.remove(vertices.size() - 1);
+            }
+        } else if (bounds instanceof Circle circle && circle.getCenter() != null && circle.getRadius() != null) {
+            Point centre = circle.getCenter();
+            if (centre.getCval1() == null || centre.getCval2() == null) {
+                return null;
+            }
+            vertices = circumscribe(centre.getCval1(), centre.getCval2(), circle.getRadius());
+        }
+        if (vertices == null || !valid(vertices)) {
+            return null;
+        }
+
+        StringJoiner literal = new StringJoiner(",", "{", "}");
+        for (double[] vertex : vertices) {
+            literal.add(Region.point(vertex[0], vertex[1]));
+        }
+        return literal.toString();
+    }
+
+    /**
+     * @param vertices {ra, dec} of each vertex, in degrees, without repeats
+     * @return Whether pgSphere accepts the vertices as a polygon: at least three vertices on the sphere, no edge between
+     * opposite points and no two edges crossing (or touching).
+     */
+    static boolean valid(List<double[]> vertices) {
+        int n = vertices.size();
+        if (n < 3) {
+            return false;
+        }
+        double[][] points = new double[n][];
+        for (int i = 0; i < n; i++) {
+            double[] vertex = vertices.get(i);
+            if (!Double.isFinite(vertex[0]) || !Double.isFinite(vertex[1]) || Math.abs(vertex[1]) > 90) {
+                return false;
+            }
+            points[i] = vector(vertex);
+        }
+        for (int i = 0; i < n; i++) {
+            double[] a = points[i];
+            double[] b = points[(i + 1) % n];
+            if (length(cross(a, b)) < EPSILON) {
+                // Repeated (already removed) or opposite, the edge isn't defined
+                return false;
+            }
+            // Adjacent edges share a vertex, so only the others are compared
+            for (int j = i + 2; j < n && !(i == 0 && j == n - 1); j++) {
+                if (crosses(a, b, points[j], points[(j + 1) % n])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean same(double[] a, double[] b) {
+        return length(subtract(vector(a), vector(b))) < EPSILON;
+    }
+
+    /**
+     * @return Whether the great circle arcs (each less than 180 degrees) a-b and c-d cross or touch.
+     */
+    private static boolean crosses(double[] a, double[] b, double[] c, double[] d) {
+        double[] n1 = unit(cross(a, b));
+        double[] n2 = unit(cross(c, d));
+        double[] p = cross(n1, n2);
+        if (length(p) < EPSILON) {
+            // On the same great circle, they overlap if either has an end on the other
+            return onArc(c, a, b, n1) || onArc(d, a, b, n1) || onArc(a, c, d, n2) || onArc(b, c, d, n2);
+        }
+        p = unit(p);
+        double[] q = {-p[0], -p[1], -p[2]};
+        return (onArc(p, a, b, n1) && onArc(p, c, d, n2)) || (onArc(q, a, b, n1) && onArc(q, c, d, n2));
+    }
+
+    // Whether p (on the great circle of a-b, with pole n) lies between a and b
+    private static boolean onArc(double[] p, double[] a, double[] b, double[] n) {
+        return dot(cross(a, p), n) >= 0 && dot(cross(p, b), n) >= 0;
+    }
+
+    private static double[] vector(double[] vertex) {
+        double ra = Math.toRadians(vertex[0]);
+        double dec = Math.toRadians(vertex[1]);
+        return new double[]{Math.cos(dec) * Math.cos(ra), Math.cos(dec) * Math.sin(ra), Math.sin(dec)};
+    }
+
+    private static double[] cross(double[] a, double[] b) {
+        return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+    private static double[] subtract(double[] a, double[] b) {
+        return new double[]{a[0] - b[0], a[1] - b[1], a[2] - b[2]};
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static double length(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    private static double[] unit(double[] a) {
+        double length = length(a);
+        return new double[]{a[0] / length, a[1] / length, a[2] / length};
+    }
+
+    /**
+     * The vertices of the regular polygon (with great circle sides) that circumscribes the circle, null if the circle
+     * is too large to be bounded by one.
+     */
+    static List<double[]> circumscribe(double ra, double dec, double radius) {
+        // Distance from the centre to each vertex, the sides are tangent to the circle
+        double r = Math.atan(Math.tan(Math.toRadians(radius)) / Math.cos(Math.PI / CIRCLE_VERTICES));
+        if (radius <= 0 || radius >= 90 || r >= Math.PI / 2) {
+            return null;
+        }
+
+        double lat = Math.toRadians(dec);
+        double lon = Math.toRadians(ra);
+        List<double[]> vertices = new ArrayList<>(CIRCLE_VERTICES);
+        for (int i = 0; i < CIRCLE_VERTICES; i++) {
+            double bearing = 2 * Math.PI * i / CIRCLE_VERTICES;
+            double vertexLat = Math.asin(Math.sin(lat) * Math.cos(r) + Math.cos(lat) * Math.sin(r) * Math.cos(bearing));
+            double vertexLon = lon + Math.atan2(Math.sin(bearing) * Math.sin(r) * Math.cos(lat),
+                    Math.cos(r) - Math.sin(lat) * Math.sin(vertexLat));
+            double degrees = Math.toDegrees(vertexLon) % 360;
+            vertices.add(new double[]{degrees < 0 ? degrees + 360 : degrees, Math.toDegrees(vertexLat)});
+        }
+        return vertices;
+    }
+}
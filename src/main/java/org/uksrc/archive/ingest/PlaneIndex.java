@@ -0,0 +1,83 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.ivoa.dm.caom2.Observation;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The tables recorded from the Planes of every Observation written, so that the searches of Plane properties can be
+ * served by indexes that can't be declared on the (generated) CAOM entities. Every write path maintains them all
+ * through {@link #storeAll} and {@link #removeAll}, in the transaction that writes the Observations.
+ */
+public enum PlaneIndex {
+    FOOTPRINT(PlaneFootprint.class, PlaneFootprint::store, PlaneFootprint::remove),
+    TIME(PlaneTimeBounds.class, PlaneTimeBounds::store, PlaneTimeBounds::remove),
+    ENERGY(PlaneEnergyBounds.class, PlaneEnergyBounds::store, PlaneEnergyBounds::remove),
+    OBSCORE(ObsCore.class, ObsCore::store, ObsCore::remove);
+
+    private final Class<?> entity;
+    private final BiConsumer<EntityManager, Collection<Observation>> store;
+    private final BiConsumer<EntityManager, Collection<String>> remove;
+
+    PlaneIndex(Class<?> entity, BiConsumer<EntityManager, Collection<Observation>> store,
+               BiConsumer<EntityManager, Collection<String>> remove) {
+        this.entity = entity;
+        this.store = store;
+        this.remove = remove;
+    }
+
+    /**
+     * Records (or replaces) the Plane tables of the supplied observations.
+     * @param em The entity manager to write with
+     * @param observations The observations written, after they have been flushed
+     */
+    static void storeAll(EntityManager em, Collection<Observation> observations) {
+        for (PlaneIndex index : values()) {
+            index.store.accept(em, observations);
+        }
+    }
+
+    /**
+     * Removes the Plane table rows of deleted Observations.
+     */
+    static void removeAll(EntityManager em, Collection<String> ids) {
+        for (PlaneIndex index : values()) {
+            index.remove.accept(em, ids);
+        }
+    }
+
+    /**
+     * @return True if nothing has been recorded in this table.
+     */
+    boolean isEmpty(EntityManager em) {
+        return em.createQuery("SELECT 1 FROM " + entity.getSimpleName() + " x", Integer.class)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+    }
+
+    /**
+     * Records the tables of Observations, in order of id, for those written before the tables were introduced.
+     * @param em The entity manager, within a transaction
+     * @param indexes The tables to record
+     * @param after The id of the last Observation indexed by the previous call, null for the first
+     * @param limit The maximum number of Observations to index
+     * @return The id of the last Observation indexed, null when there are none left.
+     */
+    static String index(EntityManager em, Collection<PlaneIndex> indexes, String after, int limit) {
+        TypedQuery<Observation> query = em.createQuery("SELECT o FROM Observation o" + (after != null ? " WHERE o.id > :after" : "") +
+                " ORDER BY o.id", Observation.class);
+        if (after != null) {
+            query.setParameter("after", after);
+        }
+        List<Observation> observations = query.setMaxResults(limit).getResultList();
+        for (PlaneIndex index : indexes) {
+            index.store.accept(em, observations);
+        }
+        return observations.isEmpty() ? null : observations.get(observations.size() - 1).getId();
+    }
+}
@@ -0,0 +1,58 @@
+package org.uksrc.archive.ingest;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the Plane tables (see {@link PlaneIndex}) of every Observation on startup, for each table that is empty
+ * whilst there are Observations (the first start after the table was introduced, or after it has been truncated).
+ * {@code archive.ingest.batch-size} Observations per transaction.
+ */
+@ApplicationScoped
+public class PlaneIndexInitialiser {
+
+    private static final Logger LOG = Logger.getLogger(PlaneIndexInitialiser.class);
+
+    @Inject
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "archive.ingest.batch-size", defaultValue = "100")
+    int batchSize;
+
+    void onStart(@Observes StartupEvent ev) {
+        try {
+            List<PlaneIndex> empty = new ArrayList<>();
+            for (PlaneIndex index : PlaneIndex.values()) {
+                if (QuarkusTransaction.requiringNew().call(() -> index.isEmpty(entityManager))) {
+                    empty.add(index);
+                }
+            }
+            if (empty.isEmpty()) {
+                return;
+            }
+
+            String last = null;
+            int batches = 0;
+            do {
+                String after = last;
+                last = QuarkusTransaction.requiringNew().call(() -> PlaneIndex.index(entityManager, empty, after, batchSize));
+                batches += last != null ? 1 : 0;
+            } while (last != null);
+
+            if (batches > 0) {
+                LOG.infof("Recorded the plane tables %s of %d batches of observations", empty, batches);
+            }
+        } catch (Exception e) {
+            LOG.error("Unable to record the plane tables", e);
+        }
+    }
+}
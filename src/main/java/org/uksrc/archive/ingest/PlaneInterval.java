@@ -0,0 +1,107 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Id;
+import jakarta.persistence.MappedSuperclass;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.Plane;
+import org.ivoa.dm.caom2.types.Interval;
+import org.uksrc.archive.utils.query.CaomTables;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The bounds of a Plane along one axis (such as {@code time.bounds}), recorded whenever its Observation is written so
+ * that interval searches can be served by a GiST index of {@code numrange(lower, upper)} (see {@code IndexInitialiser}).
+ * <p>
+ * A table per axis, keyed by Plane.id. Bounds that aren't a valid range (missing, not finite or lower > upper) aren't recorded, they would fail the index.
+ */
+@MappedSuperclass
+public abstract class PlaneInterval {
+
+    @Id
+    @Column(name = "plane_id")
+    private String planeId;
+
+    @Column(name = "observation_id", nullable = false)
+    private String observationId;
+
+    @Column(name = "lower_bound", nullable = false)
+    private double lower;
+
+    @Column(name = "upper_bound", nullable = false)
+    private double upper;
+
+    public String getPlaneId() {
+        return planeId;
+    }
+
+    public String getObservationId() {
+        return observationId;
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    public double getUpper() {
+        return upper;
+    }
+
+    /**
+     * Replaces the bounds of the planes of the supplied observations. Must be called within the transaction that
+     * writes the observations.
+     * @param em The entity manager to write with
+     * @param entity The entity of the axis, such as PlaneTimeBounds.class
+     * @param observations The observations written
+     * @param bounds The bounds of the axis of a Plane (null if it has none)
+     */
+    static void store(EntityManager em, Class<? extends PlaneInterval> entity, Collection<Observation> observations,
+                      Function<Plane, Interval> bounds) {
+        if (observations.isEmpty()) {
+            return;
+        }
+
+        List<Object> rows = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (Observation observation : observations) {
+            ids.add(observation.getId());
+            for (Plane plane : observation.getPlanes()) {
+                Interval interval = bounds.apply(plane);
+                if (interval != null && valid(interval.getLower(), interval.getUpper())) {
+                    rows.addAll(List.of(plane.getId(), observation.getId(), interval.getLower(), interval.getUpper()));
+                }
+            }
+        }
+        // Planes may have been removed (or lost their bounds) by an update
+        remove(em, entity, ids);
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        String sql = "INSERT INTO " + CaomTables.table(em, entity) +
+                " (" + CaomTables.idColumn(em, entity) +
+                ", " + CaomTables.column(em, entity, "observationId") +
+                ", " + CaomTables.column(em, entity, "lower") +
+                ", " + CaomTables.column(em, entity, "upper") + ") VALUES " +
+                CaomTables.values(rows.size() / 4, 4);
+        CaomTables.nativeUpdate(em, entity, sql, rows);
+    }
+
+    /**
+     * Removes the bounds of the planes of deleted Observations.
+     */
+    static void remove(EntityManager em, Class<? extends PlaneInterval> entity, Collection<String> ids) {
+        em.createQuery("DELETE FROM " + entity.getSimpleName() + " b WHERE b.observationId IN :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    static boolean valid(Double lower, Double upper) {
+        return lower != null && upper != null && Double.isFinite(lower) && Double.isFinite(upper) && lower <= upper;
+    }
+}
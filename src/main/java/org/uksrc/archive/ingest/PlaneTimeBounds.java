@@ -0,0 +1,35 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.ivoa.dm.caom2.Observation;
+
+import java.util.Collection;
+
+/**
+ * The {@code time.bounds} of a Plane (MJD), see {@link PlaneInterval}.
+ */
+@Entity
+@Table(name = "plane_time_bounds", schema = "ingest", indexes = @Index(name = "plane_time_bounds_observation_idx", columnList = "observation_id"))
+public class PlaneTimeBounds extends PlaneInterval {
+
+    @SuppressWarnings("unused")
+    public PlaneTimeBounds() {
+    }
+
+    /**
+     * Replaces the time bounds of the planes of the supplied observations, see {@link PlaneInterval#store}.
+     */
+    public static void store(EntityManager em, Collection<Observation> observations) {
+        store(em, PlaneTimeBounds.class, observations, plane -> plane.getTime() != null ? plane.getTime().getBounds() : null);
+    }
+
+    /**
+     * Removes the time bounds of the planes of deleted Observations.
+     */
+    public static void remove(EntityManager em, Collection<String> ids) {
+        remove(em, PlaneTimeBounds.class, ids);
+    }
+}
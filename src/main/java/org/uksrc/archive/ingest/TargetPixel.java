@@ -0,0 +1,166 @@
+package org.uksrc.archive.ingest;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.TargetPosition;
+import org.ivoa.dm.caom2.types.Point;
+import org.uksrc.archive.utils.query.CaomTables;
+import org.uksrc.archive.utils.query.Healpix;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HEALPix (nested) pixel of the target position of an Observation, at order {@code archive.healpix.order},
+ * recorded whenever the Observation is written so that cone searches can be made with indexed range predicates
+ * without pgSphere (see {@link Healpix}).
+ * <p>
+ * Keyed by Observation.id. The order is stored with each pixel so that pixels computed at a previous order can be found
+ * and recomputed, see {@link #index}. Maintained by {@link ObservationWrites}.
+ */
+@Entity
+@Table(name = "target_pixels", schema = "ingest", indexes = @Index(name = "target_pixels_pixel_idx", columnList = "pixel"))
+public class TargetPixel {
+
+    public static final String ORDER_PROPERTY = "archive.healpix.order";
+    public static final int DEFAULT_ORDER = 12;
+
+    @Id
+    @Column(name = "observation_id")
+    private String observationId;
+
+    @Column(name = "pixel", nullable = false)
+    private long pixel;
+
+    @Column(name = "healpix_order", nullable = false)
+    private int healpixOrder;
+
+    @SuppressWarnings("unused")
+    public TargetPixel() {
+    }
+
+    public String getObservationId() {
+        return observationId;
+    }
+
+    public long getPixel() {
+        return pixel;
+    }
+
+    public int getHealpixOrder() {
+        return healpixOrder;
+    }
+
+    /**
+     * @return The order pixels are stored at, {@code archive.healpix.order}.
+     */
+    public static int order() {
+        return ConfigProvider.getConfig().getOptionalValue(ORDER_PROPERTY, Integer.class).orElse(DEFAULT_ORDER);
+    }
+
+    /**
+     * @return The {ra, dec} of the target position of the observation, or null if it hasn't one.
+     */
+    static double[] position(Observation observation) {
+        TargetPosition position = observation.getTargetPosition();
+        Point point = position != null ? position.getCoordinates() : null;
+        if (point == null || point.getCval1() == null || point.getCval2() == null) {
+            return null;
+        }
+        return new double[]{point.getCval1(), point.getCval2()};
+    }
+
+    /**
+     * Records (or replaces) the pixels of the supplied observations, removing that of any without a target position.
+     * Must be called within the transaction that writes the observations.
+     * @param em The entity manager to write with
+     * @param observations The observations written
+     */
+    static void store(EntityManager em, Collection<Observation> observations) {
+        int order = order();
+        Map<String, Long> pixels = new LinkedHashMap<>();
+        List<String> unpositioned = new ArrayList<>();
+        for (Observation observation : observations) {
+            double[] position = position(observation);
+            if (position != null) {
+                pixels.put(observation.getId(), Healpix.pixel(order, position[0], position[1]));
+            } else {
+                unpositioned.add(observation.getId());
+            }
+        }
+        if (!unpositioned.isEmpty()) {
+            delete(em, unpositioned);
+        }
+        store(em, pixels, order);
+    }
+
+    /**
+     * Removes the pixels of deleted Observations.
+     */
+    static void remove(EntityManager em, Collection<String> ids) {
+        delete(em, ids);
+    }
+
+    /**
+     * Computes the pixels of Observations that have a target position but no pixel at the current order (those written
+     * before the pixels were introduced, or whilst a different order was configured).
+     * @param em The entity manager, within a transaction
+     * @param limit The maximum number of Observations to index
+     * @return The number of Observations indexed, less than limit when there are none left.
+     */
+    public static int index(EntityManager em, int limit) {
+        int order = order();
+        List<Object[]> rows = em.createQuery("SELECT o.id, p.cval1, p.cval2 FROM Observation o JOIN o.targetPosition tp JOIN tp.coordinates p " +
+                        "WHERE p.cval1 IS NOT NULL AND p.cval2 IS NOT NULL AND NOT EXISTS " +
+                        "(SELECT t FROM TargetPixel t WHERE t.observationId = o.id AND t.healpixOrder = :order)", Object[].class)
+                .setParameter("order", order)
+                .setMaxResults(limit)
+                .getResultList();
+
+        Map<String, Long> pixels = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            pixels.put((String) row[0], Healpix.pixel(order, ((Number) row[1]).doubleValue(), ((Number) row[2]).doubleValue()));
+        }
+        store(em, pixels, order);
+        return rows.size();
+    }
+
+    private static void delete(EntityManager em, Collection<String> ids) {
+        em.createQuery("DELETE FROM TargetPixel t WHERE t.observationId IN :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    private static void store(EntityManager em, Map<String, Long> pixels, int order) {
+        if (pixels.isEmpty()) {
+            return;
+        }
+
+        String id = CaomTables.idColumn(em, TargetPixel.class);
+        String pixel = CaomTables.column(em, TargetPixel.class, "pixel");
+        String healpixOrder = CaomTables.column(em, TargetPixel.class, "healpixOrder");
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(CaomTables.table(em, TargetPixel.class))
+                .append(" (").append(id).append(", ").append(pixel).append(", ").append(healpixOrder).append(") VALUES ")
+                .append(CaomTables.values(pixels.size(), 2, Integer.toString(order)))
+                .append(" ON CONFLICT (").append(id).append(") DO UPDATE SET ")
+                .append(pixel).append(" = EXCLUDED.").append(pixel).append(", ")
+                .append(healpixOrder).append(" = EXCLUDED.").append(healpixOrder);
+
+        List<Object> parameters = new ArrayList<>();
+        pixels.forEach((observation, value) -> {
+            parameters.add(observation);
+            parameters.add(value);
+        });
+        CaomTables.nativeUpdate(em, TargetPixel.class, sql.toString(), parameters);
+    }
+}
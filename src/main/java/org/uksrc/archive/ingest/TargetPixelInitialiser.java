@@ -0,0 +1,44 @@
+package org.uksrc.archive.ingest;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Computes the HEALPix pixels of any Observations that don't have one at the configured order (those written before
+ * the pixels were introduced, or after {@code archive.healpix.order} has been changed), see {@link TargetPixel}.
+ * {@code archive.ingest.batch-size} Observations per transaction.
+ */
+@ApplicationScoped
+public class TargetPixelInitialiser {
+
+    private static final Logger LOG = Logger.getLogger(TargetPixelInitialiser.class);
+
+    @Inject
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "archive.ingest.batch-size", defaultValue = "100")
+    int batchSize;
+
+    void onStart(@Observes StartupEvent ev) {
+        try {
+            long total = 0;
+            int indexed;
+            do {
+                indexed = QuarkusTransaction.requiringNew().call(() -> TargetPixel.index(entityManager, batchSize));
+                total += indexed;
+            } while (indexed == batchSize);
+
+            if (total > 0) {
+                LOG.infof("Computed the HEALPix (order %d) pixels of %d observations", TargetPixel.order(), total);
+            }
+        } catch (Exception e) {
+            LOG.error("Unable to compute the HEALPix pixels of the observations", e);
+        }
+    }
+}
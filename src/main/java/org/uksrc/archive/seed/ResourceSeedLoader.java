@@ -13,6 +13,7 @@ import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.ivoa.dm.caom2.Observation;
+import org.uksrc.archive.ingest.ObservationWrites;
 import org.uksrc.archive.utils.tools.Tools;
 
 import java.io.InputStream;
@@ -34,6 +35,9 @@ public class ResourceSeedLoader {
     @Inject
     EntityManager entityManager;
 
+    @Inject
+    ObservationWrites writes;
+
     @ConfigProperty(name = "testdata.seed.enabled", defaultValue = "false")
     boolean enabled;
 
@@ -63,7 +67,7 @@ public class ResourceSeedLoader {
 
                         // Check if the ID already exists in the DB
                         if (entityManager.find(Observation.class, obs.getId()) == null) {
-                            entityManager.persist(obs);
+                            writes.persist(entityManager, obs);
                         } else {
                             System.out.println("Skipping duplicate: " + obs.getId());
                         }
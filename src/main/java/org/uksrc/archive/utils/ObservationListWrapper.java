@@ -18,6 +18,9 @@ public class ObservationListWrapper {
     @XmlElement(name = "Observation", namespace = "http://www.opencadc.org/caom2/xml/v2.5")
     private List<Observation> observations = new ArrayList<>();
 
+    @XmlAttribute(name = "next")
+    private String next;    // Cursor for the next page when using keyset pagination, null if this is the last page.
+
     @SuppressWarnings("unused")
     public ObservationListWrapper() {
     }
@@ -35,5 +38,13 @@ public class ObservationListWrapper {
     public void setObservations(List<Observation> observations) {
         this.observations = observations;
     }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
 }
 
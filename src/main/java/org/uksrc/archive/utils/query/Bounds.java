@@ -0,0 +1,211 @@
+package org.uksrc.archive.utils.query;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * An interval to match the bounds of Planes along one axis against (see {@code PlaneInterval}), in the units the
+ * bounds are stored in (MJD for time, wavelength in metres for energy). Either end may be open, matching every value
+ * beyond the other, except when the bounds are to contain the interval (see {@link #validate}).
+ * <p>
+ * Matched with the interval functions registered by {@link PgSphereDialect}, which render the expression of the GiST
+ * range index of the bounds.
+ */
+public final class Bounds {
+
+    // MJD of 1970-01-01T00:00:00Z
+    public static final double MJD_UNIX_EPOCH = 40587.0;
+
+    private static final double SECONDS_PER_DAY = 86400.0;
+
+    // Speed of light (m/s), and Planck's constant times it (eV m)
+    private static final double C = 299792458.0;
+    private static final double HC = 1.23984198e-6;
+
+    /**
+     * The units energy intervals can be supplied in, CAOM's energy bounds are wavelengths in metres.
+     */
+    public enum EnergyUnit {
+        M("m", 1, false),
+        CM("cm", 1e-2, false),
+        MM("mm", 1e-3, false),
+        UM("um", 1e-6, false),
+        NM("nm", 1e-9, false),
+        ANGSTROM("Angstrom", 1e-10, false),
+        HZ("Hz", C, true),
+        KHZ("kHz", C / 1e3, true),
+        MHZ("MHz", C / 1e6, true),
+        GHZ("GHz", C / 1e9, true),
+        EV("eV", HC, true),
+        KEV("keV", HC / 1e3, true);
+
+        private final String symbol;
+        private final double factor;
+        private final boolean inverse;
+
+        /**
+         * @param factor Metres per unit, or for inverse (frequency and energy) units, the product of the wavelength in
+         *               metres and the value in the unit
+         */
+        EnergyUnit(String symbol, double factor, boolean inverse) {
+            this.symbol = symbol;
+            this.factor = factor;
+            this.inverse = inverse;
+        }
+
+        /**
+         * @param value A wavelength, frequency or energy in this unit
+         * @return The wavelength in metres.
+         */
+        public double metres(double value) {
+            return inverse ? factor / value : value * factor;
+        }
+
+        /**
+         * @param value The value of the 'unit' query parameter (case-sensitive, 'mm' and 'Mm' differ), 'm' if not supplied
+         * @throws IllegalArgumentException if the unit isn't supported.
+         */
+        public static EnergyUnit parse(String value) {
+            if (isBlank(value)) {
+                return M;
+            }
+            for (EnergyUnit unit : values()) {
+                if (unit.symbol.equals(value.trim())) {
+                    return unit;
+                }
+            }
+            throw new IllegalArgumentException("Unknown unit '" + value + "', supported units are: " +
+                    String.join(", ", Arrays.stream(values()).map(u -> u.symbol).toList()));
+        }
+    }
+
+    private final double lower;
+    private final double upper;
+    // True if either end was left open, the bounds of no plane contain such an interval
+    private final boolean open;
+
+    private Bounds(double lower, double upper, boolean open) {
+        this.lower = lower;
+        this.upper = upper;
+        this.open = open;
+    }
+
+    public double lower() {
+        return lower;
+    }
+
+    public double upper() {
+        return upper;
+    }
+
+    /**
+     * @param predicate How the bounds are to relate to the interval
+     * @throws IllegalArgumentException if the bounds are to contain the interval and either end is open.
+     */
+    public void validate(Region.Predicate predicate) {
+        if (open && predicate == Region.Predicate.CONTAINS) {
+            throw new IllegalArgumentException("'predicate=contains' requires both ends of the interval.");
+        }
+    }
+
+    /**
+     * @param predicate How the bounds must relate to the interval
+     * @return The name of the JPQL function, taking (lower, upper) of the bounds and then of the interval.
+     */
+    public static String function(Region.Predicate predicate) {
+        return "interval_" + predicate.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param start The start of the time interval, MJD or ISO 8601 (UTC if no offset is supplied), null if open
+     * @param end The end of the time interval, as start
+     * @return The interval in MJD.
+     * @throws IllegalArgumentException if neither is supplied, either is invalid, or start is after end.
+     */
+    public static Bounds time(String start, String end) {
+        if (isBlank(start) && isBlank(end)) {
+            throw new IllegalArgumentException("At least one of 'start' and 'end' must be supplied, as MJD or ISO 8601.");
+        }
+        return of(isBlank(start) ? -Double.MAX_VALUE : mjd("start", start.trim()),
+                isBlank(end) ? Double.MAX_VALUE : mjd("end", end.trim()), isBlank(start) || isBlank(end),
+                "'start' must not be after 'end'.");
+    }
+
+    /**
+     * @param min The minimum of the interval, in the supplied unit, null if open
+     * @param max The maximum of the interval, null if open
+     * @param unit The unit of min and max, a wavelength, frequency or energy (see {@link EnergyUnit})
+     * @return The interval of wavelengths in metres (a minimum frequency or energy is the maximum wavelength).
+     * @throws IllegalArgumentException if neither is supplied, either is invalid, or min is greater than max.
+     */
+    public static Bounds energy(Double min, Double max, String unit) {
+        EnergyUnit energyUnit = EnergyUnit.parse(unit);
+        if (min == null && max == null) {
+            throw new IllegalArgumentException("At least one of 'min' and 'max' must be supplied.");
+        }
+        for (Double value : new Double[]{min, max}) {
+            if (value != null && (!Double.isFinite(value) || value < 0 || (energyUnit.inverse && value == 0))) {
+                throw new IllegalArgumentException("'min' and 'max' must be " + (energyUnit.inverse ? "greater than 0." : "0 or greater."));
+            }
+        }
+        if (min != null && max != null && min > max) {
+            throw new IllegalArgumentException("'min' must not be greater than 'max'.");
+        }
+
+        double lower = energyUnit.inverse
+                ? (max != null ? energyUnit.metres(max) : 0)
+                : (min != null ? energyUnit.metres(min) : 0);
+        double upper = energyUnit.inverse
+                ? (min != null ? energyUnit.metres(min) : Double.MAX_VALUE)
+                : (max != null ? energyUnit.metres(max) : Double.MAX_VALUE);
+        return new Bounds(lower, upper, min == null || max == null);
+    }
+
+    /**
+     * @param instant A point in time
+     * @return The Modified Julian Date of the instant.
+     */
+    public static double mjd(Instant instant) {
+        return MJD_UNIX_EPOCH + (instant.getEpochSecond() + instant.getNano() / 1e9) / SECONDS_PER_DAY;
+    }
+
+    private static double mjd(String name, String value) {
+        try {
+            double mjd = Double.parseDouble(value);
+            if (Double.isFinite(mjd)) {
+                return mjd;
+            }
+        } catch (NumberFormatException e) {
+            // Not MJD, try ISO 8601
+        }
+
+        try {
+            if (value.length() <= 10) {
+                return mjd(LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant());
+            }
+            if (value.endsWith("Z") || value.matches(".*[+-]\\d{2}:\\d{2}$")) {
+                return mjd(OffsetDateTime.parse(value).toInstant());
+            }
+            return mjd(LocalDateTime.parse(value).toInstant(ZoneOffset.UTC));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("'" + name + "' must be an MJD or an ISO 8601 date/time, such as 2024-01-31T12:00:00Z.");
+        }
+    }
+
+    private static Bounds of(double lower, double upper, boolean open, String reversed) {
+        if (lower > upper) {
+            throw new IllegalArgumentException(reversed);
+        }
+        return new Bounds(lower, upper, open);
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,123 @@
+package org.uksrc.archive.utils.query;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
+
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Resolves the physical table and column names of (CAOM) entities from the Hibernate mapping.
+ * <p>
+ * The CAOM entities are generated externally, so any native SQL (index creation, statistics lookups)
+ * asks Hibernate for the names rather than hard-coding them. Names are returned as Hibernate renders them,
+ * i.e. already quoted when quote-identifiers is enabled.
+ */
+public final class CaomTables {
+
+    // The most bind parameters of a single statement, the PostgreSQL protocol counts them in 16 bits
+    public static final int MAX_PARAMETERS = 65535;
+
+    private CaomTables() {
+    }
+
+    /**
+     * The (root) table of the supplied entity.
+     * @param em Any EntityManager of the persistence unit
+     * @param entity The mapped entity class, such as Observation.class
+     * @return Table name, schema qualified if applicable.
+     */
+    public static String table(EntityManager em, Class<?> entity) {
+        return persister(em, entity).getTableName();
+    }
+
+    /**
+     * The column that stores the supplied (basic) property.
+     * @param em Any EntityManager of the persistence unit
+     * @param entity The mapped entity class, such as Observation.class
+     * @param property The name of the property, such as "collection"
+     * @return Column name
+     */
+    public static String column(EntityManager em, Class<?> entity, String property) {
+        return persister(em, entity).getPropertyColumnNames(property)[0];
+    }
+
+    /**
+     * The identifier (primary key) column of the supplied entity.
+     * @param em Any EntityManager of the persistence unit
+     * @param entity The mapped entity class, such as Observation.class
+     * @return Column name
+     */
+    public static String idColumn(EntityManager em, Class<?> entity) {
+        return persister(em, entity).getIdentifierColumnNames()[0];
+    }
+
+    /**
+     * Executes a native INSERT/UPDATE/DELETE of the table of the supplied entity.
+     * <p>
+     * Hibernate can't tell which tables native SQL writes, so unless told otherwise it invalidates every second-level
+     * cache region (the cached CAOM entities included) whenever one is executed. Declaring the entity written limits
+     * the invalidation to its own region.
+     * @param em The entity manager to write with, within a transaction
+     * @param entity The mapped entity class of the only table written
+     * @param sql The statement, using positional parameters (?1, ?2...)
+     * @param parameters The values of the positional parameters, in order
+     * @return The number of rows written.
+     */
+    public static int nativeUpdate(EntityManager em, Class<?> entity, String sql, List<?> parameters) {
+        Query query = em.createNativeQuery(sql)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(entity);
+        for (int i = 0; i < parameters.size(); i++) {
+            query.setParameter(i + 1, parameters.get(i));
+        }
+        return query.executeUpdate();
+    }
+
+    /**
+     * The rows of a multi-row VALUES list of positional parameters, "(?1, ?2, now()), (?3, ?4, now())" for 2 rows of
+     * width 2 and the literal "now()".
+     * @param rows The number of rows
+     * @param width The number of parameters of each row
+     * @param literals Appended to each row, after its parameters
+     */
+    public static String values(int rows, int width, String... literals) {
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < rows; i++) {
+            StringJoiner row = new StringJoiner(", ", "(", ")");
+            for (int j = 1; j <= width; j++) {
+                row.add("?" + (i * width + j));
+            }
+            for (String literal : literals) {
+                row.add(literal);
+            }
+            values.add(row.toString());
+        }
+        return values.toString();
+    }
+
+    /**
+     * Removes identifier quoting, for use when comparing against the system catalogues.
+     * @param name A (possibly quoted) identifier
+     * @return The identifier without quotes
+     */
+    public static String unquote(String name) {
+        return name.replace("\"", "");
+    }
+
+    private static AbstractEntityPersister persister(EntityManager em, Class<?> entity) {
+        EntityPersister persister = em.getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getMappingMetamodel()
+                .getEntityDescriptor(entity);
+
+        if (persister instanceof AbstractEntityPersister aep) {
+            return aep;
+        }
+        throw new IllegalStateException("Unable to determine the table mapping of " + entity.getName());
+    }
+}
@@ -0,0 +1,548 @@
+package org.uksrc.archive.utils.query;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.jpa.HibernateHints;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.TargetPosition;
+import org.uksrc.archive.ingest.TargetPixel;
+import uk.ac.starlink.table.ColumnInfo;
+import uk.ac.starlink.table.RowSequence;
+import uk.ac.starlink.table.StarTable;
+import uk.ac.starlink.table.StarTableFactory;
+import uk.ac.starlink.votable.VOTableBuilder;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Matches a list of positions (cones) against the target positions of the Observations, with a single query per block
+ * of positions rather than a cone search per position.
+ * <p>
+ * Each block of positions is supplied to the database as a VALUES list and joined to the spatial index, pgSphere's
+ * point-in-circle operator (see {@link PgSphereDialect}) or the HEALPix pixel ranges of each cone (see {@link Healpix})
+ * as per {@code archive.search.cone-backend}. Matches are streamed grouped by position (in the order supplied), nearest
+ * first, with the distance between the position and the target.
+ */
+@ApplicationScoped
+public class Crossmatch {
+
+    public static final String TEXT_CSV = "text/csv";
+    public static final String APPLICATION_VOTABLE = "application/x-votable+xml";
+
+    private static final Set<String> RA_NAMES = Set.of("ra", "ra_deg", "raj2000", "s_ra");
+    private static final Set<String> DEC_NAMES = Set.of("dec", "dec_deg", "dej2000", "decj2000", "s_dec");
+    private static final Set<String> RADIUS_NAMES = Set.of("radius", "r", "sr");
+
+    // Rows of the VALUES list per statement, well within the limit on the number of bind parameters.
+    private static final int BLOCK_ROWS = 1000;
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "archive.search.cone-backend", defaultValue = "pgsphere")
+    String coneBackend;
+
+    @ConfigProperty(name = "archive.search.crossmatch.max-positions", defaultValue = "10000")
+    int maxPositions;
+
+    @ConfigProperty(name = "archive.stream.fetch-size", defaultValue = "100")
+    int fetchSize;
+
+    /**
+     * A cone to match, all values in degrees.
+     */
+    public record Position(double ra, double dec, double radius) {
+    }
+
+    /**
+     * Reads the positions from the request body.
+     * @param body JSON array of {"ra", "dec", "radius"} objects, CSV with a header line (RFC 4180 quoting), or a VOTable
+     * @param type The content type of the body
+     * @param radius The radius of positions that don't have their own, null if every position must have one
+     * @return The positions, in the order supplied.
+     * @throws IllegalArgumentException If the body can't be read, or contains too many positions.
+     */
+    public List<Position> read(InputStream body, MediaType type, Double radius) throws IOException {
+        List<Position> positions;
+        if (type != null && type.isCompatible(MediaType.valueOf(TEXT_CSV))) {
+            positions = readCsv(body, radius);
+        } else if (type != null && (type.isCompatible(MediaType.valueOf(APPLICATION_VOTABLE))
+                || type.isCompatible(MediaType.APPLICATION_XML_TYPE) || type.isCompatible(MediaType.TEXT_XML_TYPE))) {
+            positions = readVOTable(body, radius);
+        } else {
+            positions = readJson(body, radius);
+        }
+
+        if (positions.isEmpty()) {
+            throw new IllegalArgumentException("No positions supplied.");
+        }
+        if (positions.size() > maxPositions) {
+            throw new IllegalArgumentException("At most " + maxPositions + " positions can be matched per request.");
+        }
+        return positions;
+    }
+
+    /**
+     * Creates the output for the supplied positions, the queries are only executed once the response is written.
+     * @param positions The positions to match
+     * @param type Either APPLICATION_XML or APPLICATION_JSON
+     * @return StreamingOutput that writes the matches of every position.
+     */
+    public StreamingOutput stream(List<Position> positions, MediaType type) {
+        return output -> {
+            try {
+                QuarkusTransaction.joiningExisting().run(() -> {
+                    try {
+                        writeAll(positions, MediaType.APPLICATION_JSON_TYPE.isCompatible(type) ? new JsonWriter(output) : new XmlWriter(output));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    private void writeAll(List<Position> positions, MatchWriter writer) throws IOException {
+        boolean healpix = "healpix".equalsIgnoreCase(coneBackend);
+        int order = TargetPixel.order();
+
+        writer.start();
+        int first = 0;
+        while (first < positions.size()) {
+            // A block of positions, limited by the number of VALUES rows (a cone has a row per pixel range with HEALPix).
+            List<Object[]> values = new ArrayList<>();
+            int last = first;
+            while (last < positions.size() && values.size() < BLOCK_ROWS) {
+                Position position = positions.get(last);
+                if (healpix) {
+                    for (long[] range : Healpix.cone(order, position.ra(), position.dec(), position.radius())) {
+                        values.add(new Object[]{last, position.ra(), position.dec(), position.radius(), range[0], range[1]});
+                    }
+                } else {
+                    values.add(new Object[]{last, position.ra(), position.dec(), position.radius()});
+                }
+                last++;
+            }
+
+            Query query = em.createNativeQuery(healpix ? healpixSql(values.size()) : pgSphereSql(values.size()));
+            int parameter = 1;
+            for (Object[] row : values) {
+                for (Object value : row) {
+                    query.setParameter(parameter++, value);
+                }
+            }
+            query.setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize);
+
+            @SuppressWarnings("unchecked")
+            Stream<Object[]> results = query.getResultStream();
+            try (results) {
+                Iterator<Object[]> matches = results.iterator();
+                Object[] match = matches.hasNext() ? matches.next() : null;
+                for (int index = first; index < last; index++) {
+                    writer.startPosition(index, positions.get(index));
+                    while (match != null && ((Number) match[0]).intValue() == index) {
+                        writer.match(match);
+                        match = matches.hasNext() ? matches.next() : null;
+                    }
+                    writer.endPosition();
+                }
+            }
+            writer.flush();
+            first = last;
+        }
+        writer.end();
+    }
+
+    /**
+     * (index, ra, dec, radius) per position, matched with pgSphere's point-in-circle operator. Renders the target
+     * position as the GiST index (see IndexInitialiser) so that each position is an index scan.
+     */
+    private String pgSphereSql(int rows) {
+        String point = "spoint(radians(tp." + cval(1) + "), radians(tp." + cval(2) + "))";
+        return select("degrees(" + point + " <-> spoint(radians(c.ra), radians(c.dec)))") +
+                " FROM (VALUES " + values(rows, 4) + ") AS c(idx, ra, dec, radius)" +
+                " JOIN " + CaomTables.table(em, TargetPosition.class) + " tp ON " + point +
+                " @ scircle(spoint(radians(c.ra), radians(c.dec)), radians(c.radius))" +
+                " JOIN " + CaomTables.table(em, Observation.class) + " o ON o." + targetPositionColumn() + " = tp." + CaomTables.idColumn(em, TargetPosition.class) +
+                " ORDER BY c.idx, distance, o." + CaomTables.idColumn(em, Observation.class);
+    }
+
+    /**
+     * (index, ra, dec, radius, first pixel, last pixel) per pixel range of each position, then refined by the exact
+     * distance. The ranges of a position don't overlap so each target is matched (at most) once.
+     */
+    private String healpixSql(int rows) {
+        String cosine = "sin(radians(tp." + cval(2) + ")) * sin(radians(c.dec)) + cos(radians(tp." + cval(2) + ")) * cos(radians(c.dec))" +
+                " * cos(radians(tp." + cval(1) + " - c.ra))";
+        return select("degrees(acos(least(1.0, greatest(-1.0, " + cosine + "))))") +
+                " FROM (VALUES " + values(rows, 6) + ") AS c(idx, ra, dec, radius, first_pixel, last_pixel)" +
+                " JOIN " + CaomTables.table(em, TargetPixel.class) + " t ON t." + CaomTables.column(em, TargetPixel.class, "pixel") +
+                " BETWEEN c.first_pixel AND c.last_pixel" +
+                " JOIN " + CaomTables.table(em, Observation.class) + " o ON o." + CaomTables.idColumn(em, Observation.class) +
+                " = t." + CaomTables.idColumn(em, TargetPixel.class) +
+                " JOIN " + CaomTables.table(em, TargetPosition.class) + " tp ON tp." + CaomTables.idColumn(em, TargetPosition.class) +
+                " = o." + targetPositionColumn() +
+                " WHERE " + cosine + " >= cos(radians(c.radius))" +
+                " ORDER BY c.idx, distance, o." + CaomTables.idColumn(em, Observation.class);
+    }
+
+    private String select(String distance) {
+        return "SELECT c.idx, o." + CaomTables.idColumn(em, Observation.class) + ", o." + CaomTables.column(em, Observation.class, "collection") +
+                ", tp." + cval(1) + ", tp." + cval(2) + ", " + distance + " AS distance";
+    }
+
+    private String cval(int axis) {
+        return CaomTables.column(em, TargetPosition.class, "coordinates.cval" + axis);
+    }
+
+    private String targetPositionColumn() {
+        return CaomTables.column(em, Observation.class, "targetPosition");
+    }
+
+    private static String values(int rows, int columns) {
+        StringBuilder sb = new StringBuilder();
+        int parameter = 1;
+        for (int row = 0; row < rows; row++) {
+            sb.append(row > 0 ? ", (" : "(");
+            for (int column = 0; column < columns; column++) {
+                sb.append(column > 0 ? ", ?" : "?").append(parameter++);
+            }
+            sb.append(")");
+        }
+        return sb.toString();
+    }
+
+    private List<Position> readJson(InputStream body, Double radius) throws IOException {
+        JsonNode root = mapper.readTree(body);
+        if (root == null || !root.isArray()) {
+            throw new IllegalArgumentException("Expected a JSON array of {\"ra\", \"dec\", \"radius\"} objects.");
+        }
+        List<Position> positions = new ArrayList<>();
+        for (JsonNode node : root) {
+            positions.add(position(positions.size(), number(node.get("ra")), number(node.get("dec")), number(node.get("radius")), radius));
+        }
+        return positions;
+    }
+
+    private static Double number(JsonNode node) {
+        return node != null && node.isNumber() ? node.asDouble() : null;
+    }
+
+    private static List<Position> readCsv(InputStream body, Double radius) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        while (line != null && (line.isBlank() || line.startsWith("#"))) {
+            line = reader.readLine();
+        }
+        if (line == null) {
+            return List.of();
+        }
+
+        List<String> names = new ArrayList<>();
+        for (String name : cells(line)) {
+            names.add(name.trim());
+        }
+        int[] columns = columns(names, List.of());
+
+        List<Position> positions = new ArrayList<>();
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> cells = cells(line);
+            try {
+                positions.add(position(positions.size(), cell(cells, columns[0]), cell(cells, columns[1]), cell(cells, columns[2]), radius));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Position " + positions.size() + " is not a number: " + line);
+            }
+        }
+        return positions;
+    }
+
+    private static Double cell(List<String> cells, int column) {
+        if (column < 0 || column >= cells.size() || cells.get(column).isBlank()) {
+            return null;
+        }
+        return Double.valueOf(cells.get(column).trim());
+    }
+
+    /**
+     * Splits a line of CSV into its cells, as per RFC 4180: a cell may be quoted, in which case it can contain commas
+     * and (doubled) quotes. A quoted cell can't span lines.
+     * @throws IllegalArgumentException If a quote isn't closed.
+     */
+    static List<String> cells(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    cell.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value (values cannot span lines): " + line);
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    private static List<Position> readVOTable(InputStream body, Double radius) throws IOException {
+        StarTable table = new StarTableFactory(false).makeStarTable(body, new VOTableBuilder());
+        List<String> names = new ArrayList<>();
+        List<String> ucds = new ArrayList<>();
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            ColumnInfo info = table.getColumnInfo(i);
+            names.add(info.getName());
+            ucds.add(info.getUCD());
+        }
+        int[] columns = columns(names, ucds);
+
+        List<Position> positions = new ArrayList<>();
+        RowSequence rows = table.getRowSequence();
+        try {
+            while (rows.next()) {
+                positions.add(position(positions.size(), cell(rows, columns[0]), cell(rows, columns[1]), cell(rows, columns[2]), radius));
+            }
+        } finally {
+            rows.close();
+        }
+        return positions;
+    }
+
+    private static Double cell(RowSequence rows, int column) throws IOException {
+        return column >= 0 && rows.getCell(column) instanceof Number value ? value.doubleValue() : null;
+    }
+
+    /**
+     * @return The indices of the ra, dec and radius (-1 if none) columns, by name or by UCD.
+     */
+    private static int[] columns(List<String> names, List<String> ucds) {
+        int[] columns = {-1, -1, -1};
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i) != null ? names.get(i).toLowerCase(Locale.ROOT) : "";
+            String ucd = i < ucds.size() && ucds.get(i) != null ? ucds.get(i).toLowerCase(Locale.ROOT) : "";
+            if (columns[0] < 0 && (RA_NAMES.contains(name) || ucd.startsWith("pos.eq.ra"))) {
+                columns[0] = i;
+            } else if (columns[1] < 0 && (DEC_NAMES.contains(name) || ucd.startsWith("pos.eq.dec"))) {
+                columns[1] = i;
+            } else if (columns[2] < 0 && RADIUS_NAMES.contains(name)) {
+                columns[2] = i;
+            }
+        }
+        if (columns[0] < 0 || columns[1] < 0) {
+            throw new IllegalArgumentException("The positions must have 'ra' and 'dec' columns.");
+        }
+        return columns;
+    }
+
+    private static Position position(int index, Double ra, Double dec, Double radius, Double defaultRadius) {
+        if (ra == null || dec == null) {
+            throw new IllegalArgumentException("Position " + index + " must have both 'ra' and 'dec'.");
+        }
+        Double r = radius != null ? radius : defaultRadius;
+        if (r == null || r <= 0) {
+            throw new IllegalArgumentException("Position " + index + " must have a 'radius' greater than 0 (or supply the 'radius' parameter).");
+        }
+        if (dec < -90 || dec > 90) {
+            throw new IllegalArgumentException("Position " + index + " has a 'dec' outside -90 to 90.");
+        }
+        return new Position(ra, dec, r);
+    }
+
+    /**
+     * Incremental writer of the matches, grouped by position.
+     */
+    private interface MatchWriter {
+        void start() throws IOException;
+        void startPosition(int index, Position position) throws IOException;
+        void match(Object[] row) throws IOException;
+        void endPosition() throws IOException;
+        void flush() throws IOException;
+        void end() throws IOException;
+    }
+
+    /**
+     * Writes {@code <Crossmatch><Position index ra dec radius><Match id collection ra dec distance/>...</Position>...</Crossmatch>}
+     */
+    private static class XmlWriter implements MatchWriter {
+        private final XMLStreamWriter xml;
+
+        XmlWriter(OutputStream output) throws IOException {
+            try {
+                xml = XMLOutputFactory.newInstance().createXMLStreamWriter(output, StandardCharsets.UTF_8.name());
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void start() throws IOException {
+            try {
+                xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+                xml.writeStartElement("Crossmatch");
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void startPosition(int index, Position position) throws IOException {
+            try {
+                xml.writeStartElement("Position");
+                xml.writeAttribute("index", String.valueOf(index));
+                xml.writeAttribute("ra", String.valueOf(position.ra()));
+                xml.writeAttribute("dec", String.valueOf(position.dec()));
+                xml.writeAttribute("radius", String.valueOf(position.radius()));
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void match(Object[] row) throws IOException {
+            try {
+                xml.writeEmptyElement("Match");
+                xml.writeAttribute("id", String.valueOf(row[1]));
+                xml.writeAttribute("collection", String.valueOf(row[2]));
+                xml.writeAttribute("ra", String.valueOf(row[3]));
+                xml.writeAttribute("dec", String.valueOf(row[4]));
+                xml.writeAttribute("distance", String.valueOf(row[5]));
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void endPosition() throws IOException {
+            try {
+                xml.writeEndElement();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                xml.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            try {
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                xml.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code {"positions": [{"index", "ra", "dec", "radius", "matches": [{"id", "collection", "ra", "dec", "distance"}]}]}}
+     */
+    private class JsonWriter implements MatchWriter {
+        private final JsonGenerator json;
+
+        JsonWriter(OutputStream output) throws IOException {
+            json = mapper.getFactory().createGenerator(output);
+        }
+
+        @Override
+        public void start() throws IOException {
+            json.writeStartObject();
+            json.writeFieldName("positions");
+            json.writeStartArray();
+        }
+
+        @Override
+        public void startPosition(int index, Position position) throws IOException {
+            json.writeStartObject();
+            json.writeNumberField("index", index);
+            json.writeNumberField("ra", position.ra());
+            json.writeNumberField("dec", position.dec());
+            json.writeNumberField("radius", position.radius());
+            json.writeFieldName("matches");
+            json.writeStartArray();
+        }
+
+        @Override
+        public void match(Object[] row) throws IOException {
+            json.writeStartObject();
+            json.writeStringField("id", String.valueOf(row[1]));
+            json.writeStringField("collection", String.valueOf(row[2]));
+            json.writeNumberField("ra", ((Number) row[3]).doubleValue());
+            json.writeNumberField("dec", ((Number) row[4]).doubleValue());
+            json.writeNumberField("distance", ((Number) row[5]).doubleValue());
+            json.writeEndObject();
+        }
+
+        @Override
+        public void endPosition() throws IOException {
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            json.flush();
+        }
+
+        @Override
+        public void end() throws IOException {
+            json.writeEndArray();
+            json.writeEndObject();
+            json.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.uksrc.archive.utils.query;
+
+import jakarta.persistence.EntityManager;
+import org.ivoa.dm.caom2.Artifact;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.Part;
+import org.ivoa.dm.caom2.Plane;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * How much of each Observation tree (Observation → Plane → Artifact → Part → Chunk) to return.
+ * <p>
+ * Rather than letting the marshaller lazily load the children of each row (one SELECT per collection),
+ * {@link #apply} loads each requested level for all the supplied observations with a single JOIN FETCH query,
+ * so a page costs a constant number of queries whatever its size. Levels below the requested depth are
+ * returned empty, the observations are detached from the persistence context first so that this is never
+ * written back.
+ */
+public enum FetchDepth {
+    OBSERVATION,
+    PLANES,
+    ARTIFACTS,
+    FULL;
+
+    /**
+     * @param value The value of the 'depth' query parameter (case-insensitive)
+     * @return The requested depth, FULL if not supplied.
+     * @throws IllegalArgumentException if the value is not a valid depth.
+     */
+    public static FetchDepth parse(String value) {
+        if (value == null || value.isBlank()) {
+            return FULL;
+        }
+        for (FetchDepth depth : values()) {
+            if (depth.name().equalsIgnoreCase(value.trim())) {
+                return depth;
+            }
+        }
+        throw new IllegalArgumentException("'depth' must be one of 'observation', 'planes', 'artifacts' or 'full'.");
+    }
+
+    /**
+     * Loads (or empties) the children of the supplied observations, to this depth.
+     * @param em The entity manager the observations were loaded with
+     * @param observations Observations that are about to be returned to the caller
+     */
+    public void apply(EntityManager em, List<Observation> observations) {
+        if (observations.isEmpty()) {
+            return;
+        }
+
+        if (this == OBSERVATION) {
+            detach(em, observations);
+            observations.forEach(o -> o.setPlanes(new ArrayList<>()));
+            return;
+        }
+
+        fetch(em, "SELECT DISTINCT o FROM Observation o LEFT JOIN FETCH o.planes WHERE o IN :parents", observations);
+        List<Plane> planes = new ArrayList<>();
+        observations.forEach(o -> planes.addAll(o.getPlanes()));
+
+        if (this == PLANES) {
+            detach(em, observations, planes);
+            planes.forEach(p -> p.setArtifacts(new ArrayList<>()));
+            return;
+        }
+
+        fetch(em, "SELECT DISTINCT p FROM Plane p LEFT JOIN FETCH p.artifacts WHERE p IN :parents", planes);
+        List<Artifact> artifacts = new ArrayList<>();
+        planes.forEach(p -> artifacts.addAll(p.getArtifacts()));
+
+        if (this == ARTIFACTS) {
+            detach(em, observations, planes, artifacts);
+            artifacts.forEach(a -> a.setParts(new ArrayList<>()));
+            return;
+        }
+
+        fetch(em, "SELECT DISTINCT a FROM Artifact a LEFT JOIN FETCH a.parts WHERE a IN :parents", artifacts);
+        List<Part> parts = new ArrayList<>();
+        artifacts.forEach(a -> parts.addAll(a.getParts()));
+
+        fetch(em, "SELECT DISTINCT pt FROM Part pt LEFT JOIN FETCH pt.chunks WHERE pt IN :parents", parts);
+    }
+
+    /**
+     * Initialises a single child collection of all the parents in one query, the parents are already
+     * managed so Hibernate populates their collections in place (one collection per query avoids the
+     * cartesian product of fetching several lists at once).
+     */
+    private static void fetch(EntityManager em, String jpql, Collection<?> parents) {
+        if (!parents.isEmpty()) {
+            em.createQuery(jpql).setParameter("parents", parents).getResultList();
+        }
+    }
+
+    @SafeVarargs
+    private static void detach(EntityManager em, Collection<?>... levels) {
+        for (Collection<?> level : levels) {
+            level.forEach(em::detach);
+        }
+    }
+}
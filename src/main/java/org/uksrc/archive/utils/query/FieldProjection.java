@@ -0,0 +1,148 @@
+package org.uksrc.archive.utils.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A subset of Observation properties requested by the caller ({@code ?fields=id,uri,collection}).
+ * <p>
+ * The projection replaces the SELECT clause of an Observation query, so that only the requested columns
+ * are read and no entities are instantiated. Each row is an {@code Object[]} of
+ * {@code [collection, id, <requested fields...>]}, the leading pair is always present so that keyset
+ * cursors can be created regardless of the fields requested.
+ *
+ * @param fields The requested fields, in the order they were requested.
+ */
+public record FieldProjection(List<Field> fields) {
+
+    // Number of (internal) values at the start of each row before the requested fields.
+    public static final int KEY_COLUMNS = 2;
+
+    /**
+     * The supported fields and the JPQL they select, %1$s is the alias of the Observation and %2$s the distance
+     * expression of a cone search.
+     */
+    public enum Field {
+        ID("id", "%1$s.id"),
+        URI("uri", "%1$s.uri"),
+        URI_BUCKET("uriBucket", "%1$s.uriBucket"),
+        COLLECTION("collection", "%1$s.collection"),
+        INTENT("intent", "%1$s.intent"),
+        RA("ra", "%1$s_pos.cval1"),
+        DEC("dec", "%1$s_pos.cval2"),
+        DISTANCE("distance", "%2$s");
+
+        private final String fieldName;
+        private final String expression;
+
+        Field(String fieldName, String expression) {
+            this.fieldName = fieldName;
+            this.expression = expression;
+        }
+
+        public String fieldName() {
+            return fieldName;
+        }
+
+        boolean isPosition() {
+            return this == RA || this == DEC;
+        }
+    }
+
+    // Shorthand for the target position (ra & dec)
+    private static final String TARGET_POSITION = "targetPosition";
+
+    /**
+     * @param value The value of the 'fields' query parameter, a comma separated list of field names.
+     * @return The projection, or null if the full Observations have been requested.
+     * @throws IllegalArgumentException if any of the fields are not supported.
+     */
+    public static FieldProjection parse(String value) {
+        return parse(value, false);
+    }
+
+    /**
+     * @param value The value of the 'fields' query parameter, a comma separated list of field names.
+     * @param spatial True for cone searches, which can also return the distance of each Observation from the centre
+     * @return The projection, or null if the full Observations have been requested.
+     * @throws IllegalArgumentException if any of the fields are not supported.
+     */
+    public static FieldProjection parse(String value, boolean spatial) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+
+        Set<Field> fields = new LinkedHashSet<>();
+        for (String name : value.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (TARGET_POSITION.equalsIgnoreCase(trimmed)) {
+                fields.add(Field.RA);
+                fields.add(Field.DEC);
+                continue;
+            }
+            fields.add(Arrays.stream(Field.values())
+                    .filter(f -> f.fieldName.equalsIgnoreCase(trimmed) && (spatial || f != Field.DISTANCE))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown field '" + trimmed + "', supported fields are: " + supportedFields(spatial))));
+        }
+
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("'fields' must contain at least one of: " + supportedFields(spatial));
+        }
+        return new FieldProjection(new ArrayList<>(fields));
+    }
+
+    /**
+     * Rewrites an Observation query to select only the projected columns.
+     * @param jpql The query, which must start with {@code SELECT <alias> FROM Observation <alias>}
+     * @param alias The alias of the Observation in the supplied query, "o" in "SELECT o FROM Observation o"
+     * @return The rewritten query, with the same parameters as the original.
+     */
+    public String apply(String jpql, String alias) {
+        return apply(jpql, alias, null);
+    }
+
+    /**
+     * Rewrites an Observation query to select only the projected columns.
+     * @param jpql The query, which must start with {@code SELECT <alias> FROM Observation <alias>}
+     * @param alias The alias of the Observation in the supplied query, "o" in "SELECT o FROM Observation o"
+     * @param distance The JPQL of the distance of the Observation from the centre of a cone search, in degrees
+     * @return The rewritten query, with the same parameters as the original.
+     */
+    public String apply(String jpql, String alias, String distance) {
+        if (distance == null && fields.contains(Field.DISTANCE)) {
+            throw new IllegalStateException("'distance' is only available to cone searches");
+        }
+        String from = "SELECT " + alias + " FROM Observation " + alias;
+        if (!jpql.startsWith(from)) {
+            throw new IllegalStateException("Unable to project query: " + jpql);
+        }
+
+        StringBuilder sb = new StringBuilder("SELECT ")
+                .append(alias).append(".collection, ").append(alias).append(".id");
+        for (Field field : fields) {
+            sb.append(", ").append(String.format(field.expression, alias, distance));
+        }
+        sb.append(" FROM Observation ").append(alias);
+
+        if (fields.stream().anyMatch(Field::isPosition)) {
+            // Outer joins so that observations without a target position are still returned
+            sb.append(" LEFT JOIN ").append(alias).append(".targetPosition ").append(alias).append("_tp")
+                    .append(" LEFT JOIN ").append(alias).append("_tp.coordinates ").append(alias).append("_pos");
+        }
+        return sb.append(jpql.substring(from.length())).toString();
+    }
+
+    private static String supportedFields(boolean spatial) {
+        return Arrays.stream(Field.values())
+                .filter(f -> spatial || f != Field.DISTANCE)
+                .map(Field::fieldName).collect(Collectors.joining(", ")) + ", " + TARGET_POSITION;
+    }
+}
@@ -0,0 +1,212 @@
+package org.uksrc.archive.utils.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HEALPix (nested scheme) pixel indices of positions, and the ranges of pixels covering a cone, so that spatial
+ * searches can be made with ordinary (B-tree) range predicates on plain Postgres.
+ * <p>
+ * In the nested scheme the 4 children of a pixel at order N are the consecutive pixels 4p..4p+3 at order N+1, so every
+ * pixel at a coarser order is a contiguous range of pixels at the stored order. A cone is covered by descending the
+ * pixel hierarchy, a pixel wholly inside the cone is a single range. The cover is conservative (it may include pixels
+ * just outside the cone), matches must be refined with the exact distance.
+ */
+public final class Healpix {
+
+    public static final int MAX_ORDER = 29;
+
+    private static final double TWO_THIRDS = 2.0 / 3.0;
+    private static final double HALF_PI = Math.PI / 2;
+
+    // Ring and longitude offsets of the 12 base pixels
+    private static final int[] JRLL = {2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4};
+    private static final int[] JPLL = {1, 3, 5, 7, 0, 2, 4, 6, 1, 3, 5, 7};
+
+    // Upper bound of the angular distance from the centre of a pixel to any point within it at order 0, halved for each
+    // order. 1.5 times the square root of the area of a base pixel, at least 20% more than the true maximum at any order.
+    private static final double BASE_RADIUS = 1.5 * Math.sqrt(4 * Math.PI / 12);
+
+    private Healpix() {
+    }
+
+    /**
+     * @param order The order (0 to 29), nside = 2^order
+     * @param ra Right ascension in degrees
+     * @param dec Declination in degrees
+     * @return The nested pixel index of the position.
+     */
+    public static long pixel(int order, double ra, double dec) {
+        check(order);
+        long nside = 1L << order;
+        double z = Math.sin(Math.toRadians(dec));
+        double za = Math.abs(z);
+        double tt = (Math.toRadians(ra) / HALF_PI) % 4.0;
+        if (tt < 0) {
+            tt += 4.0;
+        }
+        if (tt >= 4.0) {
+            tt = 0;
+        }
+
+        if (za <= TWO_THIRDS) {
+            // Equatorial region
+            double temp1 = nside * (0.5 + tt);
+            double temp2 = nside * (z * 0.75);
+            long jp = (long) (temp1 - temp2);  // ascending edge line
+            long jm = (long) (temp1 + temp2);  // descending edge line
+            long ifp = jp >> order;
+            long ifm = jm >> order;
+            int face = (int) (ifp == ifm ? (ifp | 4) : (ifp < ifm ? ifp : ifm + 8));
+            long ix = jm & (nside - 1);
+            long iy = nside - (jp & (nside - 1)) - 1;
+            return nest(order, face, ix, iy);
+        }
+
+        // Polar caps
+        int ntt = Math.min(3, (int) tt);
+        double tp = tt - ntt;
+        double tmp = nside * Math.sqrt(3 * (1 - za));
+        long jp = Math.min((long) (tp * tmp), nside - 1);
+        long jm = Math.min((long) ((1.0 - tp) * tmp), nside - 1);
+        return z >= 0
+                ? nest(order, ntt, nside - jm - 1, nside - jp - 1)
+                : nest(order, ntt + 8, jp, jm);
+    }
+
+    /**
+     * The pixels that cover the cone, as ranges of the pixels at the supplied order. The pixel hierarchy is only
+     * descended until pixels are about a quarter of the radius, limiting the number of ranges (at the cost of a
+     * slightly larger cover).
+     * @param order The order of the pixels to return
+     * @param ra Right ascension of the centre in degrees
+     * @param dec Declination of the centre in degrees
+     * @param radius Radius in degrees
+     * @return Ranges of pixels {first, last} (inclusive), ascending and not adjacent.
+     */
+    public static List<long[]> cone(int order, double ra, double dec, double radius) {
+        check(order);
+        double r = Math.toRadians(radius);
+        List<long[]> ranges = new ArrayList<>();
+        if (r >= Math.PI) {
+            ranges.add(new long[]{0, (12L << (2 * order)) - 1});
+            return ranges;
+        }
+
+        int depth = 0;
+        while (depth < order && BASE_RADIUS / (1L << depth) > r / 4) {
+            depth++;
+        }
+
+        double[] centre = vector(Math.toRadians(ra), Math.sin(Math.toRadians(dec)));
+        for (int face = 0; face < 12; face++) {
+            cover(face, 0, depth, order, centre, r, ranges);
+        }
+        return ranges;
+    }
+
+    private static void cover(long pixel, int level, int depth, int order, double[] centre, double r, List<long[]> ranges) {
+        double[] zPhi = centre(level, pixel);
+        double distance = distance(centre, vector(zPhi[1], zPhi[0]));
+        double pixelRadius = BASE_RADIUS / (1L << level);
+        if (distance > r + pixelRadius) {
+            return;
+        }
+
+        if (level == depth || distance + pixelRadius <= r) {
+            int shift = 2 * (order - level);
+            long first = pixel << shift;
+            long last = ((pixel + 1) << shift) - 1;
+            long[] previous = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (previous != null && previous[1] + 1 == first) {
+                previous[1] = last;
+            } else {
+                ranges.add(new long[]{first, last});
+            }
+            return;
+        }
+
+        for (int child = 0; child < 4; child++) {
+            cover(4 * pixel + child, level + 1, depth, order, centre, r, ranges);
+        }
+    }
+
+    /**
+     * @return {z, phi} of the centre of the nested pixel.
+     */
+    private static double[] centre(int order, long pixel) {
+        long nside = 1L << order;
+        int face = (int) (pixel >> (2 * order));
+        long ipf = pixel & (nside * nside - 1);
+        long ix = compress(ipf);
+        long iy = compress(ipf >>> 1);
+
+        double fact2 = 4.0 / (12.0 * nside * nside);
+        long jr = JRLL[face] * nside - ix - iy - 1;
+        long nr;
+        double z;
+        int kshift;
+        if (jr < nside) {
+            nr = jr;
+            z = 1 - (double) nr * nr * fact2;
+            kshift = 0;
+        } else if (jr > 3 * nside) {
+            nr = 4 * nside - jr;
+            z = (double) nr * nr * fact2 - 1;
+            kshift = 0;
+        } else {
+            nr = nside;
+            z = (2 * nside - jr) * (2 * nside * fact2);
+            kshift = (int) ((jr - nside) & 1);
+        }
+
+        long jp = (JPLL[face] * nr + ix - iy + 1 + kshift) / 2;
+        if (jp > 4 * nside) {
+            jp -= 4 * nside;
+        }
+        if (jp < 1) {
+            jp += 4 * nside;
+        }
+        return new double[]{z, (jp - (kshift + 1) * 0.5) * (HALF_PI / nr)};
+    }
+
+    private static double[] vector(double phi, double z) {
+        double sinTheta = Math.sqrt(Math.max(0, 1 - z * z));
+        return new double[]{sinTheta * Math.cos(phi), sinTheta * Math.sin(phi), z};
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double dot = a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+        return Math.acos(Math.max(-1, Math.min(1, dot)));
+    }
+
+    private static long nest(int order, int face, long ix, long iy) {
+        return ((long) face << (2 * order)) + spread(ix) + (spread(iy) << 1);
+    }
+
+    // Interleaves the bits of v with zeros
+    private static long spread(long v) {
+        v &= 0xffffffffL;
+        v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+        v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        return (v | (v << 1)) & 0x5555555555555555L;
+    }
+
+    // The inverse of spread, the even bits of v
+    private static long compress(long v) {
+        v &= 0x5555555555555555L;
+        v = (v | (v >>> 1)) & 0x3333333333333333L;
+        v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+        return (v | (v >>> 16)) & 0x00000000ffffffffL;
+    }
+
+    private static void check(int order) {
+        if (order < 0 || order > MAX_ORDER) {
+            throw new IllegalArgumentException("HEALPix order must be between 0 and " + MAX_ORDER + ".");
+        }
+    }
+}
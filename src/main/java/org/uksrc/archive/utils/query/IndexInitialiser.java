@@ -0,0 +1,95 @@
+package org.uksrc.archive.utils.query;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.TargetPosition;
+import org.uksrc.archive.ingest.ObsCore;
+import org.uksrc.archive.ingest.PlaneEnergyBounds;
+import org.uksrc.archive.ingest.PlaneFootprint;
+import org.uksrc.archive.ingest.PlaneInterval;
+import org.uksrc.archive.ingest.PlaneTimeBounds;
+import org.jboss.logging.Logger;
+
+import java.util.function.Supplier;
+
+/**
+ * Creates the supporting indexes required by the query endpoints, that can't be declared on the
+ * (externally generated) CAOM entities themselves.
+ * <p>
+ * Runs after Hibernate's schema generation, every statement is idempotent so is safe to run on each startup.
+ */
+@ApplicationScoped
+public class IndexInitialiser {
+
+    private static final Logger LOG = Logger.getLogger(IndexInitialiser.class);
+
+    // Keyset pagination of observation listings, ORDER BY/seek on (collection, id).
+    static final String OBSERVATION_KEYSET_INDEX_SQL = "CREATE INDEX IF NOT EXISTS observation_collection_id_idx ON %s (%s, %s)";
+
+    // Cone search, a GiST index of the target positions (requires pgSphere). The expression must match that rendered by
+    // the pgsphere_in_cone function (see PgSphereDialect) for the planner to use it.
+    static final String TARGET_POSITION_SPOINT_INDEX_SQL = "CREATE INDEX IF NOT EXISTS target_position_spoint_idx ON %s USING GIST (spoint(radians(%s), radians(%s)))";
+
+    // Region search, a GiST index of the plane footprints (requires pgSphere). As above, the expression must match that
+    // rendered by the pgsphere_footprint_* functions.
+    static final String PLANE_FOOTPRINT_SPOLY_INDEX_SQL = "CREATE INDEX IF NOT EXISTS plane_footprint_spoly_idx ON %s USING GIST ((%s::spoly))";
+
+    // Time and energy searches, GiST indexes of the plane bounds as ranges (plain Postgres). The expression must match
+    // that rendered by the interval_* functions.
+    static final String PLANE_TIME_RANGE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS plane_time_range_idx ON %s USING GIST (%s)";
+    static final String PLANE_ENERGY_RANGE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS plane_energy_range_idx ON %s USING GIST (%s)";
+
+    // ADQL CONTAINS(POINT(s_ra, s_dec), CIRCLE(...)) against ivoa.obscore, translated to pgSphere by the TAP service.
+    static final String OBSCORE_SPOINT_INDEX_SQL = "CREATE INDEX IF NOT EXISTS obscore_spoint_idx ON %s USING GIST (spoint(radians(s_ra), radians(s_dec)))";
+
+    @Inject
+    EntityManager entityManager;
+
+    void onStart(@Observes StartupEvent ev) {
+        // Each index in its own transaction, a failure (such as pgSphere not being installed) mustn't prevent the others.
+        create("observation keyset", () -> String.format(OBSERVATION_KEYSET_INDEX_SQL,
+                CaomTables.table(entityManager, Observation.class),
+                CaomTables.column(entityManager, Observation.class, "collection"),
+                CaomTables.idColumn(entityManager, Observation.class)));
+
+        create("target position (pgSphere)", () -> String.format(TARGET_POSITION_SPOINT_INDEX_SQL,
+                CaomTables.table(entityManager, TargetPosition.class),
+                CaomTables.column(entityManager, TargetPosition.class, "coordinates.cval1"),
+                CaomTables.column(entityManager, TargetPosition.class, "coordinates.cval2")));
+
+        create("plane footprint (pgSphere)", () -> String.format(PLANE_FOOTPRINT_SPOLY_INDEX_SQL,
+                CaomTables.table(entityManager, PlaneFootprint.class),
+                CaomTables.column(entityManager, PlaneFootprint.class, "polygon")));
+
+        create("plane time bounds", () -> String.format(PLANE_TIME_RANGE_INDEX_SQL,
+                CaomTables.table(entityManager, PlaneTimeBounds.class), range(PlaneTimeBounds.class)));
+
+        create("plane energy bounds", () -> String.format(PLANE_ENERGY_RANGE_INDEX_SQL,
+                CaomTables.table(entityManager, PlaneEnergyBounds.class), range(PlaneEnergyBounds.class)));
+
+        create("ObsCore position (pgSphere)", () -> String.format(OBSCORE_SPOINT_INDEX_SQL,
+                CaomTables.table(entityManager, ObsCore.class)));
+    }
+
+    /**
+     * @return The bounds of the entity as a range, as rendered by the interval_* functions.
+     */
+    private String range(Class<? extends PlaneInterval> entity) {
+        return String.format(PgSphereDialect.INTERVAL_RANGE,
+                CaomTables.column(entityManager, entity, "lower"),
+                CaomTables.column(entityManager, entity, "upper"));
+    }
+
+    private void create(String name, Supplier<String> sql) {
+        try {
+            QuarkusTransaction.requiringNew().run(() -> entityManager.createNativeQuery(sql.get()).executeUpdate());
+        } catch (Exception e) {
+            LOG.error("Unable to create the " + name + " index", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.uksrc.archive.utils.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque position marker for keyset (cursor) pagination.
+ * <p>
+ * Holds the sort key and id of the last row returned on a page, the next page is then
+ * retrieved with {@code WHERE (key, id) > (lastKey, lastId)} rather than an OFFSET, so every page
+ * costs the same regardless of how deep into the results it is.
+ * <p>
+ * The encoded form is URL-safe base64 and callers should treat it as opaque.
+ *
+ * @param lastKey The sort key (Observation.collection) of the last row on the previous page
+ * @param lastId The id of the last row on the previous page (tie-breaker, unique)
+ */
+public record KeysetCursor(String lastKey, String lastId) {
+
+    /**
+     * Encodes this cursor into a token suitable for returning to the caller.
+     * Length-prefixed so that neither value needs escaping.
+     * @return URL-safe base64 token
+     */
+    public String encode() {
+        String raw = lastKey.length() + ":" + lastKey + lastId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a token previously generated by {@link #encode()}.
+     * @param token The token supplied by the caller, an empty token signifies the first page.
+     * @return The cursor, or null if the first page has been requested.
+     * @throws IllegalArgumentException if the token is not a valid cursor.
+     */
+    public static KeysetCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            int keyLength = Integer.parseInt(raw.substring(0, separator));
+            int idStart = separator + 1 + keyLength;
+            if (keyLength < 0 || idStart >= raw.length()) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new KeysetCursor(raw.substring(separator + 1, idStart), raw.substring(idStart));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor, supply the 'next' value from a previous response.");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.uksrc.archive.utils.query;
+
+/**
+ * The paging and output parameters common to the listing and the searches, as validated from {@link ListingParameters}.
+ *
+ * @param page The page number, null unless paged by number
+ * @param size The page size, null if all the matches are requested
+ * @param cursor The supplied keyset cursor (empty for the first page), null unless paged by keyset
+ * @param after The decoded keyset cursor, null for the first (or only) page
+ * @param countMode How the total is to be counted, null if it isn't requested
+ * @param fetchDepth How much of each Observation to return
+ * @param projection The fields to return instead of the Observations, null for the Observations
+ */
+public record Listing(Integer page, Integer size, String cursor, KeysetCursor after, ResultCount.Mode countMode,
+                      FetchDepth fetchDepth, FieldProjection projection) {
+
+    /**
+     * @param estimable True if the total can be estimated from the table statistics, which is only the case for the
+     *                  (unfiltered or collection) listing
+     * @throws IllegalArgumentException if any of the parameters are invalid, or an invalid combination.
+     */
+    public static Listing parse(Integer page, Integer size, String cursor, String count, String depth, FieldProjection projection,
+                                boolean estimable) {
+        ResultCount.Mode countMode = ResultCount.Mode.parse(count);
+        FetchDepth fetchDepth = FetchDepth.parse(depth);
+
+        // The planner's estimate of a search is no better than a guess, a COUNT is the only honest answer.
+        if (countMode == ResultCount.Mode.ESTIMATED && !estimable) {
+            throw new IllegalArgumentException("Searches only support 'count=exact'.");
+        }
+
+        if (cursor != null) {
+            if (page != null || size == null || size < 1) {
+                throw new IllegalArgumentException("'cursor' requires 'size' (greater than 0) and cannot be combined with 'page'.");
+            }
+        }
+        else if ((page != null) ^ (size != null)) {
+            throw new IllegalArgumentException("Both 'page' and 'size' must be provided together or neither.");
+        } else if ((page != null && page < 0) || (size != null && size < 1)) {
+            throw new IllegalArgumentException("Page must be 0 or greater and size must be greater than 0.");
+        }
+
+        return new Listing(page, size, cursor, KeysetCursor.decode(cursor), countMode, fetchDepth, projection);
+    }
+
+    /**
+     * @return true if every match is to be returned (streamed), rather than a page of them.
+     */
+    public boolean unpaged() {
+        return cursor == null && page == null;
+    }
+}
@@ -0,0 +1,95 @@
+package org.uksrc.archive.utils.query;
+
+import jakarta.ws.rs.QueryParam;
+import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
+import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+
+/**
+ * The paging and output query parameters shared by the listing and the searches ({@code @BeanParam}), see {@link Listing}.
+ */
+public class ListingParameters {
+
+    @QueryParam("page")
+    @Parameter(
+            description = "The page number to retrieve, zero-indexed. If not provided, ALL results are returned.",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.INTEGER, minimum = "0")
+    )
+    Integer page;
+
+    @QueryParam("size")
+    @Parameter(
+            description = "The number of observations per page. If not provided, ALL results are returned.",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.INTEGER, minimum = "1")
+    )
+    Integer size;
+
+    @QueryParam("cursor")
+    @Parameter(
+            description = "Keyset pagination, supply an empty value for the first page and then the 'next' value of the previous response. Requires 'size', cannot be used with 'page'.",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING)
+    )
+    String cursor;
+
+    @QueryParam("count")
+    @Parameter(
+            description = "Paginated requests only. Return the total number of matches as X-Total-Count (exact) or X-Estimated-Count " +
+                    "(estimated, from the database statistics). Searches only support 'exact' (the planner can't estimate the matches " +
+                    "of a search usefully).",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING, enumeration = {"exact", "estimated"})
+    )
+    String count;
+
+    @QueryParam("depth")
+    @Parameter(
+            description = "How much of each Observation to return, 'observation' (no planes), 'planes', 'artifacts' or 'full' (default).",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING, enumeration = {"observation", "planes", "artifacts", "full"})
+    )
+    String depth;
+
+    @QueryParam("fields")
+    @Parameter(
+            description = "Comma separated list of the fields to return instead of the full Observations (id, uri, uriBucket, collection, intent, ra, dec or targetPosition for both, " +
+                    "and for searches with a cone, distance for the separation from the centre in degrees).",
+            in = ParameterIn.QUERY,
+            schema = @Schema(type = SchemaType.STRING)
+    )
+    String fields;
+
+    /**
+     * The parameters as they would be supplied in the query, for calling a resource method directly.
+     */
+    public static ListingParameters of(Integer page, Integer size, String cursor, String count, String depth, String fields) {
+        ListingParameters parameters = new ListingParameters();
+        parameters.page = page;
+        parameters.size = size;
+        parameters.cursor = cursor;
+        parameters.count = count;
+        parameters.depth = depth;
+        parameters.fields = fields;
+        return parameters;
+    }
+
+    /**
+     * The parameters of a search.
+     * @param spatial True for cone searches, which can also return the distance of each Observation from the centre
+     * @throws IllegalArgumentException if any of the parameters are invalid, or an invalid combination.
+     */
+    public Listing parse(boolean spatial) {
+        return Listing.parse(page, size, cursor, count, depth, FieldProjection.parse(fields, spatial), false);
+    }
+
+    /**
+     * The parameters of the listing of the Observations (of a collection), whose total can also be estimated.
+     * @throws IllegalArgumentException if any of the parameters are invalid, or an invalid combination.
+     */
+    public Listing parseListing() {
+        return Listing.parse(page, size, cursor, count, depth, FieldProjection.parse(fields), true);
+    }
+}
@@ -0,0 +1,276 @@
+package org.uksrc.archive.utils.query;
+
+import jakarta.persistence.TypedQuery;
+import org.ivoa.dm.caom2.DataProductType;
+import org.ivoa.dm.caom2.ObservationIntentType;
+import org.uksrc.archive.ingest.PlaneEnergyBounds;
+import org.uksrc.archive.ingest.PlaneInterval;
+import org.uksrc.archive.ingest.PlaneTimeBounds;
+import org.uksrc.archive.ingest.TargetPixel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * The JPQL of a search of Observations ({@code SELECT obs FROM Observation obs ...}) and the parameters it's bound
+ * with, built from any combination of criteria (see {@link #builder}).
+ * <p>
+ * Cones are matched with pgSphere's operators, or without the extension with the HEALPix pixels of the positions
+ * (see {@link TargetPixel}). Footprints and plane bounds are matched with the functions registered by
+ * {@link PgSphereDialect}, see {@link Region} and {@link Bounds}.
+ */
+public final class ObservationSearch {
+
+    // Every positioned Observation, nearest-N searches without a radius are ordered by PGSPHERE_DISTANCE alone.
+    public static final String POSITIONED_QUERY =
+            "SELECT obs FROM Observation obs JOIN obs.targetPosition tp JOIN tp.coordinates p";
+
+    public static final String OBSERVATION_QUERY = "SELECT obs FROM Observation obs";
+
+    // The position is within the cone, served by the GiST index of the positions.
+    public static final String CONE_PREDICATE =
+            "FUNCTION('pgsphere_in_cone', p.cval1, p.cval2, :ra, :dec, :radiusInDegrees) = true";
+
+    // Radians, ordering by this bare expression is served (nearest first) by the GiST index of the positions.
+    public static final String PGSPHERE_DISTANCE = "FUNCTION('pgsphere_distance', p.cval1, p.cval2, :ra, :dec)";
+
+    // Portable (no pgSphere), the pixels of the positions, see TargetPixel.
+    public static final String HEALPIX_JOIN = " JOIN TargetPixel t ON t.observationId = obs.id";
+
+    // The pixel ranges covering the cone (%s) and then the exact distance (cosine of the angle between the position and
+    // the centre at least that of the radius).
+    public static final String HEALPIX_CONE_PREDICATE =
+            "(%s) AND sin(radians(p.cval2)) * :sinDec + cos(radians(p.cval2)) * :cosDec * cos(radians(p.cval1) - :raRadians) >= :cosRadius";
+
+    // Radians, the angle of HEALPIX_CONE_PREDICATE's cosine (clamped against rounding).
+    public static final String HEALPIX_DISTANCE =
+            "acos(least(1.0, greatest(-1.0, sin(radians(p.cval2)) * :sinDec + cos(radians(p.cval2)) * :cosDec * cos(radians(p.cval1) - :raRadians))))";
+
+    // The Observation has a plane whose footprint matches the region (function %s, see Region), served by the GiST
+    // index of the footprints (requires pgSphere).
+    public static final String REGION_PREDICATE =
+            "EXISTS (SELECT f.planeId FROM PlaneFootprint f WHERE f.observationId = obs.id AND FUNCTION('%s', f.polygon, :region) = true)";
+
+    // The Observation has a plane whose bounds (entity %1$s, see PlaneInterval) match the interval (function %2$s, see
+    // Bounds, parameters %3$slower and %3$supper), served by the GiST range index of the bounds.
+    public static final String INTERVAL_PREDICATE =
+            "EXISTS (SELECT b.planeId FROM %1$s b WHERE b.observationId = obs.id" +
+                    " AND FUNCTION('%2$s', b.lower, b.upper, :%3$slower, :%3$supper) = true)";
+
+    // The Observation has a plane of the data product type (not indexed).
+    public static final String PRODUCT_TYPE_PREDICATE =
+            "EXISTS (SELECT pl.id FROM Observation o JOIN o.planes pl WHERE o.id = obs.id AND pl.dataProductType = :productType)";
+
+    private final String jpql;
+    private final boolean filtered;
+    private final String distance;
+    private final String order;
+    private final Integer limit;
+    private final List<Consumer<TypedQuery<?>>> parameters;
+
+    private ObservationSearch(String jpql, boolean filtered, String distance, String order, Integer limit,
+                              List<Consumer<TypedQuery<?>>> parameters) {
+        this.jpql = jpql;
+        this.filtered = filtered;
+        this.distance = distance;
+        this.order = order;
+        this.limit = limit;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @param healpix True to match cones with the HEALPix pixels of the positions, false to use pgSphere
+     */
+    public static Builder builder(boolean healpix) {
+        return new Builder(healpix);
+    }
+
+    /**
+     * @return The query, {@code SELECT obs FROM Observation obs ...}
+     */
+    public String jpql() {
+        return jpql;
+    }
+
+    /**
+     * @return True if the query has a WHERE clause, so further predicates are appended with AND
+     */
+    public boolean filtered() {
+        return filtered;
+    }
+
+    /**
+     * @return The JPQL of the 'distance' projection field (degrees), null if the search doesn't have a cone
+     */
+    public String distance() {
+        return distance;
+    }
+
+    /**
+     * @return The ORDER BY clause, null for the default (keyset) order
+     */
+    public String order() {
+        return order;
+    }
+
+    /**
+     * @return The maximum number of (streamed) matches, null for all of them
+     */
+    public Integer limit() {
+        return limit;
+    }
+
+    /**
+     * Sets the parameters of the query, or of its count or projection.
+     */
+    public void setParameters(TypedQuery<?> query) {
+        parameters.forEach(p -> p.accept(query));
+    }
+
+    public static final class Builder {
+
+        private final boolean healpix;
+        private final StringJoiner criteria = new StringJoiner(" AND ");
+        private final List<Consumer<TypedQuery<?>>> parameters = new ArrayList<>();
+        private String cone;
+        private String distance;
+        private boolean nearestFirst;
+        private Integer limit;
+
+        private Builder(boolean healpix) {
+            this.healpix = healpix;
+        }
+
+        /**
+         * Matches the positions within the cone, or orders every positioned Observation by its distance from the
+         * centre if there isn't a radius (pgSphere only).
+         * @param radius Degrees, null for every position
+         */
+        public Builder cone(double ra, double dec, Double radius) {
+            if (healpix) {
+                List<long[]> pixels = Healpix.cone(TargetPixel.order(), ra, dec, radius);
+                StringJoiner ranges = new StringJoiner(" OR ");
+                for (int i = 0; i < pixels.size(); i++) {
+                    ranges.add("t.pixel BETWEEN :first" + i + " AND :last" + i);
+                }
+                cone = String.format(HEALPIX_CONE_PREDICATE, ranges);
+                distance = HEALPIX_DISTANCE;
+                parameters.add(q -> {
+                    for (int i = 0; i < pixels.size(); i++) {
+                        q.setParameter("first" + i, pixels.get(i)[0]);
+                        q.setParameter("last" + i, pixels.get(i)[1]);
+                    }
+                    q.setParameter("sinDec", Math.sin(Math.toRadians(dec)));
+                    q.setParameter("cosDec", Math.cos(Math.toRadians(dec)));
+                    q.setParameter("raRadians", Math.toRadians(ra));
+                    q.setParameter("cosRadius", Math.cos(Math.toRadians(Math.min(radius, 180))));
+                });
+                return this;
+            }
+
+            cone = radius != null ? CONE_PREDICATE : "";
+            distance = PGSPHERE_DISTANCE;
+            parameters.add(q -> {
+                q.setParameter("ra", ra);
+                q.setParameter("dec", dec);
+                if (radius != null) {
+                    q.setParameter("radiusInDegrees", radius);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Matches the Observations with a plane whose footprint relates to the region as the predicate.
+         */
+        public Builder region(Region region, Region.Predicate predicate) {
+            criteria.add(String.format(REGION_PREDICATE, region.function(predicate)));
+            parameters.add(q -> q.setParameter("region", region.literal()));
+            return this;
+        }
+
+        /**
+         * Matches the Observations with a plane whose time bounds relate to the interval as the predicate.
+         */
+        public Builder time(Bounds interval, Region.Predicate predicate) {
+            return interval(PlaneTimeBounds.class, "time_", interval, predicate);
+        }
+
+        /**
+         * Matches the Observations with a plane whose energy bounds relate to the interval as the predicate.
+         */
+        public Builder energy(Bounds interval, Region.Predicate predicate) {
+            return interval(PlaneEnergyBounds.class, "energy_", interval, predicate);
+        }
+
+        public Builder collection(String collection) {
+            criteria.add("obs.collection = :collection");
+            parameters.add(q -> q.setParameter("collection", collection));
+            return this;
+        }
+
+        public Builder intent(ObservationIntentType intent) {
+            criteria.add("obs.intent = :intent");
+            parameters.add(q -> q.setParameter("intent", intent));
+            return this;
+        }
+
+        /**
+         * Matches the Observations with a plane of the data product type.
+         */
+        public Builder productType(DataProductType productType) {
+            criteria.add(PRODUCT_TYPE_PREDICATE);
+            parameters.add(q -> q.setParameter("productType", productType));
+            return this;
+        }
+
+        /**
+         * Orders the matches nearest the centre of the cone first, rather than by the keyset.
+         */
+        public Builder nearestFirst() {
+            nearestFirst = true;
+            return this;
+        }
+
+        /**
+         * @param limit The maximum number of (streamed) matches, null for all of them
+         */
+        public Builder limit(Integer limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if ordered by distance without a cone.
+         */
+        public ObservationSearch build() {
+            if (nearestFirst && cone == null) {
+                throw new IllegalStateException("Only searches with a cone can be ordered by distance.");
+            }
+
+            StringJoiner where = new StringJoiner(" AND ");
+            if (cone != null && !cone.isEmpty()) {
+                where.add(cone);
+            }
+            if (criteria.length() > 0) {
+                where.add(criteria.toString());
+            }
+
+            String select = cone == null ? OBSERVATION_QUERY : POSITIONED_QUERY + (healpix ? HEALPIX_JOIN : "");
+            String jpql = where.length() > 0 ? select + " WHERE " + where : select;
+            return new ObservationSearch(jpql, where.length() > 0, distance != null ? "degrees(" + distance + ")" : null,
+                    nearestFirst ? " ORDER BY " + distance + ", obs.id" : null, limit, List.copyOf(parameters));
+        }
+
+        private Builder interval(Class<? extends PlaneInterval> entity, String prefix, Bounds interval, Region.Predicate predicate) {
+            criteria.add(String.format(INTERVAL_PREDICATE, entity.getSimpleName(), Bounds.function(predicate), prefix));
+            parameters.add(q -> {
+                q.setParameter(prefix + "lower", interval.lower());
+                q.setParameter(prefix + "upper", interval.upper());
+            });
+            return this;
+        }
+    }
+}
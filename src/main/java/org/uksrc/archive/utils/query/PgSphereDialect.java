@@ -6,11 +6,24 @@ import org.hibernate.dialect.PostgreSQLDialect;
 import org.hibernate.query.sqm.function.SqmFunctionRegistry;
 import org.hibernate.type.StandardBasicTypes;
 
+import java.util.Map;
+
 /**
  * Class to register pgSphere helper functions for Hibernate queries.
  */
 public class PgSphereDialect extends PostgreSQLDialect implements FunctionContributor {
 
+    // An interval as a closed numeric range, lower (%1$s) and upper (%2$s) bounds.
+    public static final String INTERVAL_RANGE = "numrange((%1$s)::numeric, (%2$s)::numeric, '[]')";
+
+    // Point %1$s,%2$s within the cone %3$s,%4$s,%5$s (all degrees).
+    public static final String IN_CONE = "(spoint(radians(%1$s), radians(%2$s)) @ scircle(spoint(radians(%3$s), radians(%4$s)), radians(%5$s)))";
+
+    private static final Map<Region.Predicate, String> RANGE_OPERATORS = Map.of(
+            Region.Predicate.OVERLAPS, "&&",
+            Region.Predicate.CONTAINS, "@>",
+            Region.Predicate.WITHIN, "<@");
+
     @Override
     public void contributeFunctions(FunctionContributions functionContributions) {
         SqmFunctionRegistry registry = functionContributions.getFunctionRegistry();
@@ -26,6 +39,36 @@ public class PgSphereDialect extends PostgreSQLDialect implements FunctionContri
                 doubleType
         );
 
+        // Point x,y within the cone x,y,radius (all degrees). Rendered exactly as the expression of the GiST index
+        // created by IndexInitialiser (on x,y), so that the index can be used. Compare with "= true", Postgres
+        // simplifies that back to the indexable operator.
+        registry.registerPattern(
+                "pgsphere_in_cone",
+                IN_CONE.formatted("?1", "?2", "?3", "?4", "?5"),
+                typeConfig.getBasicTypeRegistry().resolve(StandardBasicTypes.BOOLEAN)
+        );
+
+        // Plane footprint (pgSphere polygon text) overlaps/contains/is within a region (text of the shape's type), see
+        // Region. The footprint is rendered as the expression of the GiST index created by IndexInitialiser.
+        for (Region.Predicate predicate : Region.Predicate.values()) {
+            for (Region.Shape shape : Region.Shape.values()) {
+                registry.registerPattern(
+                        Region.function(predicate, shape),
+                        "((?1)::spoly " + predicate.operator() + " (?2)::" + shape.type() + ")",
+                        typeConfig.getBasicTypeRegistry().resolve(StandardBasicTypes.BOOLEAN)
+                );
+            }
+        }
+
+        // Plane bounds lower,upper overlap/contain/are within the interval lower,upper, see Bounds. Plain Postgres ranges
+        // (no pgSphere), the bounds are rendered as the expression of the GiST index created by IndexInitialiser.
+        for (Region.Predicate predicate : Region.Predicate.values()) {
+            registry.registerPattern(
+                    Bounds.function(predicate),
+                    "(" + INTERVAL_RANGE.formatted("?1", "?2") + " " + RANGE_OPERATORS.get(predicate) + " " + INTERVAL_RANGE.formatted("?3", "?4") + ")",
+                    typeConfig.getBasicTypeRegistry().resolve(StandardBasicTypes.BOOLEAN)
+            );
+        }
     }
 }
 
@@ -0,0 +1,193 @@
+package org.uksrc.archive.utils.query;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * A region of the sky to match Plane footprints against, as supplied in the DALI/SODA {@code POS} syntax (degrees):
+ * <ul>
+ *     <li>{@code CIRCLE ra dec radius}</li>
+ *     <li>{@code BOX ra dec width height}, centred on ra, dec and bounded by lines of constant ra and dec</li>
+ *     <li>{@code POLYGON ra1 dec1 ra2 dec2 ra3 dec3 ...}</li>
+ * </ul>
+ * The region is bound to the query as pgSphere's text representation of the equivalent type, see
+ * {@link PgSphereDialect} for the footprint functions.
+ */
+public final class Region {
+
+    public enum Shape {
+        CIRCLE("scircle", 3),
+        BOX("sbox", 4),
+        POLYGON("spoly", 6);
+
+        private final String type;
+        private final int minValues;    // Number of values, the minimum for a polygon
+
+        Shape(String type, int minValues) {
+            this.type = type;
+            this.minValues = minValues;
+        }
+
+        /**
+         * @return The pgSphere type of the shape.
+         */
+        public String type() {
+            return type;
+        }
+    }
+
+    /**
+     * How a footprint must relate to the region (or, see {@link Bounds}, Plane bounds to an interval).
+     */
+    public enum Predicate {
+        OVERLAPS("&&"),
+        CONTAINS("~"),
+        WITHIN("@");
+
+        private final String operator;
+
+        Predicate(String operator) {
+            this.operator = operator;
+        }
+
+        /**
+         * @return The pgSphere operator, footprint operator region.
+         */
+        public String operator() {
+            return operator;
+        }
+
+        /**
+         * @param value The value of the 'predicate' query parameter (case-insensitive)
+         * @return The requested predicate, OVERLAPS if not supplied.
+         * @throws IllegalArgumentException if the value is not a valid predicate.
+         */
+        public static Predicate parse(String value) {
+            if (value == null || value.isBlank()) {
+                return OVERLAPS;
+            }
+            for (Predicate predicate : values()) {
+                if (predicate.name().equalsIgnoreCase(value.trim())) {
+                    return predicate;
+                }
+            }
+            throw new IllegalArgumentException("'predicate' must be one of 'overlaps', 'contains' or 'within'.");
+        }
+    }
+
+    private final Shape shape;
+    private final String literal;
+
+    private Region(Shape shape, String literal) {
+        this.shape = shape;
+        this.literal = literal;
+    }
+
+    public Shape shape() {
+        return shape;
+    }
+
+    /**
+     * @return pgSphere's text representation of the region.
+     */
+    public String literal() {
+        return literal;
+    }
+
+    /**
+     * @param predicate How the footprints must relate to the region
+     * @return The name of the JPQL function that matches a footprint against this shape of region.
+     */
+    public String function(Predicate predicate) {
+        return function(predicate, shape);
+    }
+
+    /**
+     * @return The name of the function registered by {@link PgSphereDialect} for the predicate and shape.
+     */
+    public static String function(Predicate predicate, Shape shape) {
+        return "pgsphere_footprint_" + predicate.name().toLowerCase(Locale.ROOT) + "_" + shape.type();
+    }
+
+    /**
+     * @param value The value of the 'pos' query parameter
+     * @return The region.
+     * @throws IllegalArgumentException if the region is missing or invalid.
+     */
+    public static Region parse(String value) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("'pos' must be supplied, as 'CIRCLE ra dec radius', 'BOX ra dec width height' or 'POLYGON ra1 dec1 ra2 dec2 ra3 dec3 ...'.");
+        }
+
+        String[] tokens = value.trim().split("[\\s,]+");
+        Shape shape = Arrays.stream(Shape.values())
+                .filter(s -> s.name().equalsIgnoreCase(tokens[0]))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown shape '" + tokens[0] + "', supported shapes are: CIRCLE, BOX, POLYGON"));
+
+        double[] values = new double[tokens.length - 1];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Double.parseDouble(tokens[i + 1]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The values of " + shape + " must be numbers (degrees).");
+        }
+        boolean complete = shape == Shape.POLYGON
+                ? values.length >= shape.minValues && values.length % 2 == 0
+                : values.length == shape.minValues;
+        if (!complete) {
+            throw new IllegalArgumentException(switch (shape) {
+                case CIRCLE -> "CIRCLE requires ra, dec and radius.";
+                case BOX -> "BOX requires ra, dec, width and height.";
+                case POLYGON -> "POLYGON requires pairs of ra and dec, for at least 3 vertices.";
+            });
+        }
+        for (int i = 1; i < (shape == Shape.POLYGON ? values.length : 2); i += 2) {
+            if (!Double.isFinite(values[i - 1]) || !(values[i] >= -90 && values[i] <= 90)) {
+                throw new IllegalArgumentException("Declinations must be between -90 and 90.");
+            }
+        }
+
+        return switch (shape) {
+            case CIRCLE -> {
+                if (!(values[2] > 0 && values[2] < 180)) {
+                    throw new IllegalArgumentException("The radius of a CIRCLE must be greater than 0 and less than 180.");
+                }
+                yield new Region(shape, "<" + point(values[0], values[1]) + "," + number(values[2]) + "d>");
+            }
+            case BOX -> {
+                if (!(values[2] > 0 && values[2] < 360 && values[3] > 0)) {
+                    throw new IllegalArgumentException("The width of a BOX must be greater than 0 and less than 360, and its height greater than 0.");
+                }
+                double south = Math.max(-90, values[1] - values[3] / 2);
+                double north = Math.min(90, values[1] + values[3] / 2);
+                yield new Region(shape, "(" + point(values[0] - values[2] / 2, south) + "," + point(values[0] + values[2] / 2, north) + ")");
+            }
+            case POLYGON -> {
+                StringJoiner vertices = new StringJoiner(",", "{", "}");
+                for (int i = 0; i < values.length; i += 2) {
+                    vertices.add(point(values[i], values[i + 1]));
+                }
+                yield new Region(shape, vertices.toString());
+            }
+        };
+    }
+
+    /**
+     * @param ra Right ascension in degrees, normalised to 0-360
+     * @param dec Declination in degrees
+     * @return pgSphere's text representation of the point.
+     */
+    public static String point(double ra, double dec) {
+        double normalised = ra % 360;
+        return "(" + number(normalised < 0 ? normalised + 360 : normalised) + "d," + number(dec) + "d)";
+    }
+
+    // Never in exponent notation
+    private static String number(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+}
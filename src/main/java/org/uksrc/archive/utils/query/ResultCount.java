@@ -0,0 +1,84 @@
+package org.uksrc.archive.utils.query;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import jakarta.ws.rs.core.Response;
+import org.json.JSONArray;
+
+/**
+ * The total number of results of a paginated query, returned to the caller as a response header.
+ * <p>
+ * Exact counts are returned as {@value #EXACT_HEADER}, estimates (taken from the PostgreSQL planner's
+ * statistics rather than a COUNT over the table) as {@value #ESTIMATED_HEADER}.
+ *
+ * @param header The name of the header to return the count in
+ * @param value The number of results
+ */
+public record ResultCount(String header, long value) {
+
+    public static final String EXACT_HEADER = "X-Total-Count";
+    public static final String ESTIMATED_HEADER = "X-Estimated-Count";
+
+    /**
+     * The type of count requested by the caller.
+     */
+    public enum Mode {
+        EXACT,
+        ESTIMATED;
+
+        /**
+         * @param value The value of the 'count' query parameter (case-insensitive)
+         * @return The requested mode, or null if no count was requested.
+         * @throws IllegalArgumentException if the value is not a valid mode.
+         */
+        public static Mode parse(String value) {
+            if (value == null || value.isBlank()) {
+                return null;
+            }
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value.trim())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("'count' must be either 'exact' or 'estimated'.");
+        }
+    }
+
+    /**
+     * Performs a COUNT query.
+     * @param countQuery A JPQL COUNT query, with all parameters set.
+     * @return The exact count
+     */
+    public static ResultCount exact(TypedQuery<Long> countQuery) {
+        return new ResultCount(EXACT_HEADER, countQuery.getSingleResult());
+    }
+
+    /**
+     * Asks the planner how many rows the supplied SQL would return, without executing it.
+     * Accuracy depends on how recently the table(s) were ANALYZEd.
+     * @param em The entity manager to run the EXPLAIN with
+     * @param sql Native SELECT statement, using positional parameters (?1, ?2...)
+     * @param parameters The values of the positional parameters, in order
+     * @return The estimated count
+     */
+    public static ResultCount estimated(EntityManager em, String sql, Object... parameters) {
+        Query explain = em.createNativeQuery("EXPLAIN (FORMAT JSON) " + sql);
+        for (int i = 0; i < parameters.length; i++) {
+            explain.setParameter(i + 1, parameters[i]);
+        }
+
+        // [{"Plan": {"Node Type": ..., "Plan Rows": n, ...}}]
+        JSONArray plan = new JSONArray(explain.getSingleResult().toString());
+        return new ResultCount(ESTIMATED_HEADER, plan.getJSONObject(0).getJSONObject("Plan").getLong("Plan Rows"));
+    }
+
+    /**
+     * Adds this count to the response being built.
+     * @param builder The response
+     * @return The supplied builder
+     */
+    public Response.ResponseBuilder apply(Response.ResponseBuilder builder) {
+        return builder.header(header, value);
+    }
+}
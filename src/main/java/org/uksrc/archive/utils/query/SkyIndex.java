@@ -0,0 +1,516 @@
+package org.uksrc.archive.utils.query;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.uksrc.archive.ingest.ObservationWrites;
+import org.uksrc.archive.ingest.TargetPixel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An in-memory index of the target positions of every Observation, so that cone searches that only need the ids (and
+ * positions) of the matches can be answered without querying the database ({@code archive.search.sky-index.enabled}).
+ * <p>
+ * The positions are held in primitive arrays sorted by HEALPix (nested) pixel at {@code archive.healpix.order}, a cone
+ * is the binary searched runs of the pixel ranges covering it (see {@link Healpix#cone}) refined by the exact distance.
+ * The arrays are built in the background on startup, searches are made against the database until they are ready
+ * (see {@link #cone}).
+ * <p>
+ * Writes are recorded by {@link ObservationWrites} and applied once their transaction commits. The sorted arrays are never
+ * modified, the positions written since they were built are held in a sorted overlay that masks them. Each change adds
+ * to the overlay tagged with a generation, searches only see the generations that had been applied when they started,
+ * so a change costs only its own size. Once the overlay holds {@code archive.search.sky-index.merge-size} entries
+ * and masked ids (or a tenth of the index) it is merged into new arrays.
+ */
+@ApplicationScoped
+public class SkyIndex {
+
+    private static final Logger LOG = Logger.getLogger(SkyIndex.class);
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    TransactionSynchronizationRegistry transactions;
+
+    @ConfigProperty(name = "archive.search.sky-index.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "archive.search.sky-index.merge-size", defaultValue = "10000")
+    int mergeSize;
+
+    @ConfigProperty(name = "archive.ingest.batch-size", defaultValue = "100")
+    int batchSize;
+
+    /**
+     * A match of a cone search.
+     * @param distance The angular distance from the centre of the cone, in degrees
+     */
+    public record Match(String id, double ra, double dec, double distance) {
+    }
+
+    // The current index, null until built. Replaced by every change (sharing the overlay until it is merged).
+    private volatile State state;
+
+    // Changes committed whilst the index is being built, applied once it is (null if it can't be built).
+    private List<Change> pending = new ArrayList<>();
+
+    private Thread builder;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            return;
+        }
+        builder = new Thread(this::build, "sky-index");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (builder != null) {
+            builder.interrupt();
+        }
+    }
+
+    /**
+     * @return True if searches can be made against the index (it is enabled and has been built).
+     */
+    public boolean ready() {
+        return state != null;
+    }
+
+    /**
+     * @param radius Radius of the cone in degrees
+     * @return The Observations within the cone, in pixel order, or null if the index isn't ready.
+     */
+    public List<Match> cone(double ra, double dec, double radius) {
+        State current = state;
+        if (current == null) {
+            return null;
+        }
+
+        double sinDec = Math.sin(Math.toRadians(dec));
+        double cosDec = Math.cos(Math.toRadians(dec));
+        double cosRadius = Math.cos(Math.toRadians(Math.min(radius, 180)));
+        List<Match> matches = new ArrayList<>();
+        for (long[] range : Healpix.cone(current.order, ra, dec, radius)) {
+            current.base.match(range, ra, sinDec, cosDec, cosRadius, current.overlay, current.generation, matches);
+            current.overlay.match(range, ra, sinDec, cosDec, cosRadius, current.generation, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Orders matches nearest the centre first (then by id).
+     */
+    public static List<Match> nearestFirst(List<Match> matches) {
+        matches.sort(Comparator.comparingDouble(Match::distance).thenComparing(Match::id));
+        return matches;
+    }
+
+    /**
+     * @return True if all the fields of the projection are held by the index.
+     */
+    public static boolean covers(FieldProjection projection) {
+        return projection != null && projection.fields().stream().allMatch(f -> f == FieldProjection.Field.ID
+                || f == FieldProjection.Field.RA || f == FieldProjection.Field.DEC || f == FieldProjection.Field.DISTANCE);
+    }
+
+    /**
+     * @return The match as a row of the projection, see {@link FieldProjection} (the collection isn't held, so null).
+     */
+    public static Object[] row(FieldProjection projection, Match match) {
+        Object[] row = new Object[FieldProjection.KEY_COLUMNS + projection.fields().size()];
+        row[1] = match.id();
+        int i = FieldProjection.KEY_COLUMNS;
+        for (FieldProjection.Field field : projection.fields()) {
+            row[i++] = switch (field) {
+                case ID -> match.id();
+                case RA -> match.ra();
+                case DEC -> match.dec();
+                case DISTANCE -> match.distance();
+                default -> throw new IllegalArgumentException("'" + field.fieldName() + "' isn't held by the sky index");
+            };
+        }
+        return row;
+    }
+
+    /**
+     * Records written target positions, once the current transaction (if any) commits. Called by
+     * {@link ObservationWrites}.
+     * @param positions The {ra, dec} of the positioned Observations written, by id
+     * @param removed The ids of the Observations deleted or written without a position
+     */
+    public void written(Map<String, double[]> positions, Collection<String> removed) {
+        if (!enabled || (positions.isEmpty() && removed.isEmpty())) {
+            return;
+        }
+        Change change = new Change(Map.copyOf(positions), List.copyOf(removed));
+        int status = transactions.getTransactionStatus();
+        if (status == Status.STATUS_NO_TRANSACTION) {
+            apply(change);
+            return;
+        }
+        if (status != Status.STATUS_ACTIVE) {
+            // Marked for rollback (or already completing), the change will never be committed.
+            return;
+        }
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    apply(change);
+                }
+            }
+        });
+    }
+
+    private synchronized void apply(Change change) {
+        if (state == null) {
+            if (pending != null) {
+                pending.add(change);
+            }
+            return;
+        }
+        state = state.with(change, mergeSize);
+    }
+
+    /**
+     * Reads every target position, a batch of Observations (by id) per transaction.
+     */
+    private void build() {
+        try {
+            long started = System.currentTimeMillis();
+            int order = TargetPixel.order();
+            Positions positions = new Positions(1024);
+            String last = "";
+            while (!Thread.currentThread().isInterrupted()) {
+                String after = last;
+                List<Object[]> rows = QuarkusTransaction.requiringNew().call(() -> entityManager.createQuery(
+                                "SELECT o.id, p.cval1, p.cval2 FROM Observation o JOIN o.targetPosition tp JOIN tp.coordinates p " +
+                                        "WHERE p.cval1 IS NOT NULL AND p.cval2 IS NOT NULL AND o.id > :after ORDER BY o.id", Object[].class)
+                        .setParameter("after", after)
+                        .setMaxResults(batchSize)
+                        .getResultList());
+                for (Object[] row : rows) {
+                    double ra = ((Number) row[1]).doubleValue();
+                    double dec = ((Number) row[2]).doubleValue();
+                    positions.add(Healpix.pixel(order, ra, dec), ra, dec, (String) row[0]);
+                }
+                if (rows.size() < batchSize) {
+                    break;
+                }
+                last = (String) rows.get(rows.size() - 1)[0];
+            }
+
+            synchronized (this) {
+                State built = new State(order, positions.sorted(), new Overlay(), 0);
+                for (Change change : pending) {
+                    built = built.with(change, mergeSize);
+                }
+                pending = List.of();
+                state = built;
+            }
+            LOG.infof("Built the sky index of %d target positions in %d ms", positions.size, System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            synchronized (this) {
+                pending = null;
+            }
+            LOG.error("Unable to build the sky index, cone searches will query the database", e);
+        }
+    }
+
+    record Change(Map<String, double[]> positions, List<String> removed) {
+    }
+
+    /**
+     * The index as of a generation, the positions of the Observations written since the base was built (held in the
+     * overlay) mask those in it.
+     */
+    private record State(int order, Positions base, Overlay overlay, long generation) {
+
+        /**
+         * Adds the change to the overlay as the next generation, only ever called whilst holding the SkyIndex lock.
+         * @return The state including the change, with the overlay merged into the base if it has grown too large.
+         */
+        State with(Change change, int mergeSize) {
+            long next = generation + 1;
+            for (String id : change.removed()) {
+                overlay.remove(id, next);
+            }
+            for (Map.Entry<String, double[]> entry : change.positions().entrySet()) {
+                double[] position = entry.getValue();
+                overlay.remove(entry.getKey(), next);
+                overlay.add(Healpix.pixel(order, position[0], position[1]), entry.getKey(), position[0], position[1], next);
+            }
+            if (overlay.size() < Math.max(mergeSize, base.size / 10)) {
+                return new State(order, base, overlay, next);
+            }
+            return new State(order, base.merge(overlay.masked.keySet(), overlay.live()), new Overlay(), next);
+        }
+    }
+
+    /**
+     * The positions written since the base was built, sorted by pixel, and the ids of the base they mask. Only ever
+     * added to (by the writer, whilst holding the SkyIndex lock), each entry records the generation it was added (and
+     * replaced or deleted) in, so searches of an earlier generation can read it whilst it is being changed.
+     */
+    private static final class Overlay {
+
+        private final ConcurrentSkipListMap<Key, Entry> entries = new ConcurrentSkipListMap<>();
+
+        // The generation each id of the base was first masked in
+        private final ConcurrentHashMap<String, Long> masked = new ConcurrentHashMap<>();
+
+        // The current entry of each id, and the number of entries, only used by the writer
+        private final Map<String, Entry> current = new HashMap<>();
+        private int added;
+
+        void add(long pixel, String id, double ra, double dec, long generation) {
+            Entry entry = new Entry(ra, dec);
+            entries.put(new Key(pixel, id, generation), entry);
+            current.put(id, entry);
+            added++;
+        }
+
+        void remove(String id, long generation) {
+            masked.putIfAbsent(id, generation);
+            Entry entry = current.remove(id);
+            if (entry != null) {
+                entry.removed = generation;
+            }
+        }
+
+        /**
+         * @return The number of entries (current or not) and masked ids, what a merge has to process.
+         */
+        int size() {
+            return added + masked.size();
+        }
+
+        boolean masks(String id, long generation) {
+            Long first = masked.get(id);
+            return first != null && first <= generation;
+        }
+
+        /**
+         * @return The current entries, sorted by pixel (then id).
+         */
+        Positions live() {
+            Positions live = new Positions(current.size());
+            entries.forEach((key, entry) -> {
+                if (entry.removed == Long.MAX_VALUE) {
+                    live.add(key.pixel(), entry.ra, entry.dec, key.id());
+                }
+            });
+            return live;
+        }
+
+        /**
+         * Adds the entries within the pixel range that are within the cone, as of the generation, to matches.
+         */
+        void match(long[] range, double centreRa, double sinDec, double cosDec, double cosRadius, long generation, List<Match> matches) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            Key from = new Key(range[0], "", Long.MIN_VALUE);
+            Key to = new Key(range[1] + 1, "", Long.MIN_VALUE);
+            entries.subMap(from, to).forEach((key, entry) -> {
+                if (key.generation() <= generation && entry.removed > generation) {
+                    Match match = Positions.match(key.id(), entry.ra, entry.dec, centreRa, sinDec, cosDec, cosRadius);
+                    if (match != null) {
+                        matches.add(match);
+                    }
+                }
+            });
+        }
+    }
+
+    private record Key(long pixel, String id, long generation) implements Comparable<Key> {
+
+        @Override
+        public int compareTo(Key other) {
+            int c = Long.compare(pixel, other.pixel);
+            if (c == 0) {
+                c = id.compareTo(other.id);
+            }
+            return c != 0 ? c : Long.compare(generation, other.generation);
+        }
+    }
+
+    private static final class Entry {
+
+        final double ra;
+        final double dec;
+
+        // The generation the entry was replaced or deleted in
+        volatile long removed = Long.MAX_VALUE;
+
+        Entry(double ra, double dec) {
+            this.ra = ra;
+            this.dec = dec;
+        }
+    }
+
+    /**
+     * Parallel arrays of pixels, positions and ids (sorted by pixel once built).
+     */
+    private static final class Positions {
+
+        long[] pixels;
+        double[] ra;
+        double[] dec;
+        String[] ids;
+        int size;
+
+        Positions(int capacity) {
+            pixels = new long[capacity];
+            ra = new double[capacity];
+            dec = new double[capacity];
+            ids = new String[capacity];
+        }
+
+        void add(long pixel, double ra, double dec, String id) {
+            if (size == pixels.length) {
+                int capacity = Math.max(16, size * 2);
+                pixels = Arrays.copyOf(pixels, capacity);
+                this.ra = Arrays.copyOf(this.ra, capacity);
+                this.dec = Arrays.copyOf(this.dec, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+            }
+            pixels[size] = pixel;
+            this.ra[size] = ra;
+            this.dec[size] = dec;
+            ids[size] = id;
+            size++;
+        }
+
+        /**
+         * @return A copy sorted by pixel (then id), trimmed to size.
+         */
+        Positions sorted() {
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[size], 0, size);
+
+            Positions sorted = new Positions(size);
+            for (int i : order) {
+                sorted.add(pixels[i], ra[i], dec[i], ids[i]);
+            }
+            return sorted;
+        }
+
+        /**
+         * @return The positions of both (sorted) arrays, less those of this with a masked id.
+         */
+        Positions merge(Set<String> masked, Positions other) {
+            Positions merged = new Positions(size + other.size);
+            int i = 0;
+            int j = 0;
+            while (i < size || j < other.size) {
+                if (i < size && masked.contains(ids[i])) {
+                    i++;
+                } else if (j >= other.size || (i < size && compare(i, other, j) <= 0)) {
+                    merged.add(pixels[i], ra[i], dec[i], ids[i]);
+                    i++;
+                } else {
+                    merged.add(other.pixels[j], other.ra[j], other.dec[j], other.ids[j]);
+                    j++;
+                }
+            }
+            return merged;
+        }
+
+        /**
+         * Adds the positions within the pixel range that are within the cone (and not masked by the overlay, as of the
+         * generation) to matches.
+         */
+        void match(long[] range, double centreRa, double sinDec, double cosDec, double cosRadius, Overlay overlay, long generation, List<Match> matches) {
+            for (int i = first(range[0]); i < size && pixels[i] <= range[1]; i++) {
+                Match match = match(ids[i], ra[i], dec[i], centreRa, sinDec, cosDec, cosRadius);
+                if (match != null && !overlay.masks(ids[i], generation)) {
+                    matches.add(match);
+                }
+            }
+        }
+
+        /**
+         * @return The match if the position is within the cone, otherwise null.
+         */
+        static Match match(String id, double ra, double dec, double centreRa, double sinDec, double cosDec, double cosRadius) {
+            double d = Math.toRadians(dec);
+            double cos = Math.sin(d) * sinDec + Math.cos(d) * cosDec * Math.cos(Math.toRadians(ra - centreRa));
+            if (cos < cosRadius) {
+                return null;
+            }
+            return new Match(id, ra, dec, Math.toDegrees(Math.acos(Math.min(1.0, Math.max(-1.0, cos)))));
+        }
+
+        // Index of the first position at or after the pixel
+        private int first(long pixel) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (pixels[mid] < pixel) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int compare(int i, Positions other, int j) {
+            int c = Long.compare(pixels[i], other.pixels[j]);
+            return c != 0 ? c : ids[i].compareTo(other.ids[j]);
+        }
+
+        // Sorts the indices [from, to) of order by pixel, then id (stable, without boxing)
+        private void mergeSort(int[] order, int[] work, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(order, work, from, mid);
+            mergeSort(order, work, mid, to);
+
+            int i = from;
+            int j = mid;
+            int k = from;
+            while (i < mid || j < to) {
+                if (j >= to || (i < mid && compare(order[i], this, order[j]) <= 0)) {
+                    work[k++] = order[i++];
+                } else {
+                    work[k++] = order[j++];
+                }
+            }
+            System.arraycopy(work, from, order, from, to - from);
+        }
+    }
+}
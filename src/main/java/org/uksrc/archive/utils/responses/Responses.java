@@ -40,4 +40,16 @@ public final class Responses {
                 .entity(message)
                 .build();
     }
+
+    /**
+     * Generate a server error, for failures that aren't caused by the request (log the cause, don't return it)
+     * @param message Message to return to the caller.
+     * @return A 500 response containing the supplied message
+     */
+    public static Response serverError (@NotNull String message){
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .type(MediaType.TEXT_PLAIN)
+                .entity(message)
+                .build();
+    }
 }
@@ -0,0 +1,136 @@
+package org.uksrc.archive.utils.tools;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hit/miss statistics of the second-level cache, per region, and of the query cache.
+ * All zero unless quarkus.hibernate-orm.statistics is enabled (only in the dev and test profiles by default).
+ */
+@XmlRootElement(name = "CacheStatistics")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class CacheStatistics {
+
+    @XmlAttribute(name = "enabled")
+    private boolean enabled;
+
+    @XmlAttribute(name = "queryHits")
+    private long queryHits;
+
+    @XmlAttribute(name = "queryMisses")
+    private long queryMisses;
+
+    @XmlAttribute(name = "queryPuts")
+    private long queryPuts;
+
+    @XmlElement(name = "Region")
+    private List<Region> regions = new ArrayList<>();
+
+    /**
+     * @param emf The EntityManagerFactory of the persistence unit
+     * @return The current statistics.
+     */
+    public static CacheStatistics of(EntityManagerFactory emf) {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        CacheStatistics result = new CacheStatistics();
+        result.enabled = statistics.isStatisticsEnabled();
+        result.queryHits = statistics.getQueryCacheHitCount();
+        result.queryMisses = statistics.getQueryCacheMissCount();
+        result.queryPuts = statistics.getQueryCachePutCount();
+
+        String[] names = statistics.getSecondLevelCacheRegionNames();
+        Arrays.sort(names);
+        for (String name : names) {
+            CacheRegionStatistics region = statistics.getDomainDataRegionStatistics(name);
+            if (region != null) {
+                result.regions.add(new Region(name, region.getHitCount(), region.getMissCount(), region.getPutCount(), region.getElementCountInMemory()));
+            }
+        }
+        return result;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getQueryHits() {
+        return queryHits;
+    }
+
+    public long getQueryMisses() {
+        return queryMisses;
+    }
+
+    public long getQueryPuts() {
+        return queryPuts;
+    }
+
+    public List<Region> getRegions() {
+        return regions;
+    }
+
+    /**
+     * The statistics of a single entity or collection region.
+     */
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class Region {
+
+        @XmlAttribute(name = "name")
+        private String name;
+
+        @XmlAttribute(name = "hits")
+        private long hits;
+
+        @XmlAttribute(name = "misses")
+        private long misses;
+
+        @XmlAttribute(name = "puts")
+        private long puts;
+
+        @XmlAttribute(name = "entries")
+        private long entries;  // -1 if not known
+
+        @SuppressWarnings("unused")
+        public Region() {
+        }
+
+        Region(String name, long hits, long misses, long puts, long entries) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+            this.puts = puts;
+            this.entries = entries;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getPuts() {
+            return puts;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.uksrc.archive.utils.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * JSON Merge Patch (RFC 7386) of Observation documents.
+ * <p>
+ * Members of the patch replace those of the target, null removes a member and objects are patched recursively.
+ * Unlike plain RFC 7386, arrays of child objects (planes, artifacts...) are not replaced wholesale: each element
+ * of the patch is applied to the existing element with the same "id" (or appended if there isn't one), and an
+ * element without an "id" is applied to every existing element, e.g. {@code {"planes": [{"dataRelease": ...}]}}.
+ * Children that aren't mentioned are left as they are.
+ */
+public final class MergePatch {
+
+    public static final String APPLICATION_MERGE_PATCH_JSON = "application/merge-patch+json";
+
+    private static final String ID = "id";
+
+    private MergePatch() {
+    }
+
+    /**
+     * @param target The current document (not modified)
+     * @param patch The patch to apply
+     * @return The patched document.
+     */
+    public static JsonNode apply(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch.deepCopy();
+        }
+
+        ObjectNode result = target != null && target.isObject() ? ((ObjectNode) target).deepCopy() : JsonNodeFactory.instance.objectNode();
+        for (Iterator<Map.Entry<String, JsonNode>> it = patch.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> member = it.next();
+            JsonNode current = result.get(member.getKey());
+            JsonNode value = member.getValue();
+
+            if (value.isNull()) {
+                result.remove(member.getKey());
+            } else if (value.isArray() && current != null && current.isArray() && isChildren((ArrayNode) current, (ArrayNode) value)) {
+                result.set(member.getKey(), applyChildren((ArrayNode) current, (ArrayNode) value));
+            } else {
+                result.set(member.getKey(), apply(current, value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the null members and empty arrays of a document, so that a partial Observation read from XML
+     * (where absent and null can't be told apart) only patches the values it contains.
+     * @param document The document to prune, modified in place
+     * @return The supplied document.
+     */
+    public static JsonNode prune(JsonNode document) {
+        if (document.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> it = document.fields(); it.hasNext(); ) {
+                JsonNode value = it.next().getValue();
+                if (value.isNull() || (value.isArray() && value.isEmpty())) {
+                    it.remove();
+                } else {
+                    prune(value);
+                }
+            }
+        } else if (document.isArray()) {
+            document.forEach(MergePatch::prune);
+        }
+        return document;
+    }
+
+    private static ArrayNode applyChildren(ArrayNode current, ArrayNode patch) {
+        ArrayNode result = current.deepCopy();
+        for (JsonNode element : patch) {
+            JsonNode id = element.get(ID);
+            if (id == null) {
+                for (int i = 0; i < result.size(); i++) {
+                    result.set(i, apply(result.get(i), element));
+                }
+                continue;
+            }
+
+            int index = indexOf(result, id);
+            if (index >= 0) {
+                result.set(index, apply(result.get(index), element));
+            } else {
+                result.add(apply(null, element));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Whether both arrays are of (identifiable) objects rather than values.
+     */
+    private static boolean isChildren(ArrayNode current, ArrayNode patch) {
+        for (JsonNode element : current) {
+            if (!element.isObject() || !element.has(ID)) {
+                return false;
+            }
+        }
+        for (JsonNode element : patch) {
+            if (!element.isObject()) {
+                return false;
+            }
+        }
+        return !current.isEmpty() || !patch.isEmpty();
+    }
+
+    private static int indexOf(ArrayNode array, JsonNode id) {
+        for (int i = 0; i < array.size(); i++) {
+            if (id.equals(array.get(i).get(ID))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
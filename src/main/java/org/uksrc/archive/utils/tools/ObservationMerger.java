@@ -0,0 +1,253 @@
+package org.uksrc.archive.utils.tools;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Transient;
+import jakarta.persistence.Version;
+import org.hibernate.Hibernate;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Merges a supplied (detached) Observation tree into the existing (managed) tree, property by property.
+ * <p>
+ * Child entities (Planes, Artifacts, Parts, Chunks...) are matched by id: matched children are merged in place,
+ * unmatched existing children are removed and new children are added, so Hibernate only issues UPDATE/INSERT/DELETE
+ * statements for what has actually changed rather than deleting and re-inserting every child. A one-to-one entity is
+ * only merged if it has the same id, otherwise it's replaced. Values are only set when they differ, through the
+ * setters so that Hibernate's (enhanced) dirty tracking sees every change (a list without a setter is only ever
+ * assigned, through its field, when the existing list is null).
+ * <p>
+ * The properties of each class are discovered once and held as MethodHandles, no reflection per call.
+ */
+public final class ObservationMerger {
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final Map<Class<?>, List<Property>> PROPERTIES = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Property> IDS = new ConcurrentHashMap<>();
+    private static final Property NO_ID = new Property("", null, null);
+
+    private ObservationMerger() {
+    }
+
+    /**
+     * @param existing The managed observation (or any other CAOM object) to update
+     * @param supplied The new values
+     */
+    public static void merge(Object existing, Object supplied) {
+        merge(Hibernate.unproxy(existing), supplied, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static void merge(Object target, Object source, Set<Object> visited) {
+        if (!visited.add(target)) {
+            return;
+        }
+
+        for (Property property : properties(commonType(target.getClass(), source.getClass()))) {
+            Object current = property.get(target);
+            Object value = property.get(source);
+
+            if (current instanceof List<?> currentList && value instanceof List<?> valueList) {
+                if (isEntityList(currentList, valueList)) {
+                    mergeChildren(castList(currentList), valueList, visited);
+                } else if (!currentList.equals(valueList)) {
+                    List<Object> list = castList(currentList);
+                    list.clear();
+                    list.addAll(valueList);
+                }
+            } else if (current != null && value != null && isBean(value.getClass())
+                    && Hibernate.unproxy(current).getClass() == value.getClass()
+                    && Objects.equals(id(current), id(value))) {
+                // Embedded values and one-to-one entities (the same one), merged rather than replaced.
+                merge(Hibernate.unproxy(current), value, visited);
+            } else if (!Objects.equals(current, value)) {
+                property.set(target, value);
+            }
+        }
+    }
+
+    /**
+     * Matches the supplied children to the existing children by id.
+     */
+    private static void mergeChildren(List<Object> current, List<?> supplied, Set<Object> visited) {
+        Map<Object, Object> existing = new HashMap<>();
+        for (Object child : current) {
+            Object id = id(child);
+            if (id != null) {
+                existing.put(id, child);
+            }
+        }
+
+        Set<Object> kept = new HashSet<>();
+        List<Object> added = new ArrayList<>();
+        for (Object child : supplied) {
+            Object id = id(child);
+            Object match = id != null ? existing.get(id) : null;
+            if (match != null && Hibernate.unproxy(match).getClass() == child.getClass()) {
+                merge(Hibernate.unproxy(match), child, visited);
+                kept.add(id);
+            } else {
+                added.add(child);
+            }
+        }
+
+        current.removeIf(child -> !kept.contains(id(child)));
+        current.addAll(added);
+    }
+
+    private static boolean isEntityList(List<?> current, List<?> supplied) {
+        Object sample = !supplied.isEmpty() ? supplied.get(0) : !current.isEmpty() ? current.get(0) : null;
+        return sample != null && idProperty(Hibernate.getClass(sample)) != NO_ID;
+    }
+
+    private static Object id(Object entity) {
+        Property id = idProperty(Hibernate.getClass(entity));
+        return id != NO_ID ? id.get(entity) : null;
+    }
+
+    /**
+     * @return Whether the type is a (model) object to be merged property by property rather than a value.
+     */
+    private static boolean isBean(Class<?> type) {
+        return !type.isPrimitive() && !type.isEnum() && !type.isArray() && !type.getName().startsWith("java.");
+    }
+
+    /**
+     * The most specific class of the existing object that the supplied object is also an instance of
+     * (they only differ if the type of an Observation is being changed, only the shared properties are merged).
+     */
+    private static Class<?> commonType(Class<?> target, Class<?> source) {
+        Class<?> type = target;
+        while (!type.isAssignableFrom(source)) {
+            type = type.getSuperclass();
+        }
+        return type;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> castList(List<?> list) {
+        return (List<Object>) list;
+    }
+
+    private static Property idProperty(Class<?> type) {
+        return IDS.computeIfAbsent(type, t -> {
+            if (findAnnotated(t, Entity.class) == null) {
+                return NO_ID;
+            }
+            for (Property property : properties(t)) {
+                Field field = field(t, property.name());
+                if (field != null && field.isAnnotationPresent(Id.class)) {
+                    return property;
+                }
+            }
+            return NO_ID;
+        });
+    }
+
+    /**
+     * The persistent properties of the class with a getter (and, other than for lists, a setter, a list without one
+     * is set through its field). Parent references, transient properties and versions are excluded.
+     */
+    private static List<Property> properties(Class<?> type) {
+        return PROPERTIES.computeIfAbsent(type, t -> {
+            List<Property> properties = new ArrayList<>();
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            try {
+                for (PropertyDescriptor descriptor : Introspector.getBeanInfo(t, Object.class).getPropertyDescriptors()) {
+                    Method read = descriptor.getReadMethod();
+                    Method write = descriptor.getWriteMethod();
+                    Field field = field(t, descriptor.getName());
+                    if (read == null || field == null || (write == null && !List.class.isAssignableFrom(read.getReturnType()))
+                            || field.isAnnotationPresent(ManyToOne.class)
+                            || field.isAnnotationPresent(Transient.class)
+                            || field.isAnnotationPresent(Version.class)) {
+                        continue;
+                    }
+                    MethodHandle setter;
+                    if (write != null) {
+                        setter = lookup.unreflect(write);
+                    } else if (!Modifier.isFinal(field.getModifiers())) {
+                        setter = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup()).unreflectSetter(field);
+                    } else {
+                        // Never null
+                        setter = null;
+                    }
+                    properties.add(new Property(descriptor.getName(),
+                            lookup.unreflect(read).asType(GETTER),
+                            setter != null ? setter.asType(SETTER) : null));
+                }
+            } catch (IntrospectionException | IllegalAccessException e) {
+                throw new IllegalStateException("Unable to determine the properties of " + t.getName(), e);
+            }
+            return List.copyOf(properties);
+        });
+    }
+
+    private static Field field(Class<?> type, String name) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException ignored) {
+                // Declared by a superclass
+            }
+        }
+        return null;
+    }
+
+    private static <A extends Annotation> A findAnnotated(Class<?> type, Class<A> annotation) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            A found = c.getAnnotation(annotation);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Accessors of a single property.
+     */
+    private record Property(String name, MethodHandle getter, MethodHandle setter) {
+
+        Object get(Object target) {
+            try {
+                return getter.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to read " + name + " of " + target.getClass().getName(), e);
+            }
+        }
+
+        void set(Object target, Object value) {
+            if (setter == null) {
+                return;
+            }
+            try {
+                setter.invokeExact(target, value);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to set " + name + " of " + target.getClass().getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package org.uksrc.archive.utils.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
+import org.ivoa.dm.caom2.Observation;
+import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.query.FetchDepth;
+import org.uksrc.archive.utils.query.FieldProjection;
+import org.uksrc.archive.utils.query.KeysetCursor;
+import org.uksrc.archive.utils.query.ResultCount;
+import org.uksrc.archive.utils.responses.Responses;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Streams the results of an Observation query to the caller in constant memory.
+ * <p>
+ * Rows are read through a JDBC cursor (fetch size) and written incrementally, either as the
+ * same {@code <Observations>} document as {@link ObservationListWrapper} or as its JSON equivalent.
+ * The persistence context is cleared every {@code archive.stream.clear-interval} rows so that
+ * the heap doesn't grow with the size of the archive, the children of each chunk of rows are loaded
+ * together (see {@link FetchDepth}) before it's written.
+ * <p>
+ * Also writes {@link FieldProjection} rows, as flat {@code <Observation>} elements (or JSON objects)
+ * containing only the requested fields.
+ */
+@ApplicationScoped
+public class ObservationStreamer {
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "archive.stream.fetch-size", defaultValue = "100")
+    int fetchSize;
+
+    @ConfigProperty(name = "archive.stream.clear-interval", defaultValue = "100")
+    int clearInterval;
+
+    private volatile JAXBContext context;
+
+    /**
+     * Creates the output for the supplied query, the query is only executed once the response is written.
+     * @param query Creates the query to perform (called within the streaming transaction).
+     * @param type Either APPLICATION_XML or APPLICATION_JSON
+     * @param depth How much of each Observation's tree to load and write, loaded a chunk at a time.
+     * @return StreamingOutput that writes all the results of the query.
+     */
+    public StreamingOutput stream(Supplier<TypedQuery<Observation>> query, MediaType type, FetchDepth depth) {
+        return output -> {
+            try {
+                // Join the caller's transaction if there is one (so uncommitted rows are visible), a cursor requires one regardless.
+                if (QuarkusTransaction.isActive()) {
+                    em.flush();
+                }
+                QuarkusTransaction.joiningExisting().run(() -> {
+                    try {
+                        writeAll(query.get(), depth, createWriter(output, type));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Reads the query results in chunks, writing and then detaching each chunk.
+     */
+    private void writeAll(TypedQuery<Observation> query, FetchDepth depth, RowWriter writer) throws IOException {
+        Session session = em.unwrap(Session.class);
+        FlushMode previousFlushMode = session.getHibernateFlushMode();
+        boolean previousReadOnly = session.isDefaultReadOnly();
+
+        // Nothing read here is ever written back.
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        session.setDefaultReadOnly(true);
+
+        query.setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize);
+        query.setHint(HibernateHints.HINT_READ_ONLY, true);
+
+        try (Stream<Observation> results = query.getResultStream()) {
+            writer.start(null);
+
+            List<Observation> chunk = new ArrayList<>(clearInterval);
+            Iterator<Observation> iterator = results.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() >= clearInterval) {
+                    writeChunk(chunk, depth, writer);
+                }
+            }
+            writeChunk(chunk, depth, writer);
+
+            writer.end();
+        } finally {
+            session.setDefaultReadOnly(previousReadOnly);
+            session.setHibernateFlushMode(previousFlushMode);
+        }
+    }
+
+    /**
+     * Creates the output for the supplied projected query, all rows are streamed as per {@link #stream}.
+     * @param query Creates the query to perform (called within the streaming transaction), as rewritten by the projection.
+     * @param projection The requested fields
+     * @param type Either APPLICATION_XML or APPLICATION_JSON
+     * @return StreamingOutput that writes all the rows of the query.
+     */
+    public StreamingOutput streamRows(Supplier<TypedQuery<Object[]>> query, FieldProjection projection, MediaType type) {
+        return output -> {
+            try {
+                if (QuarkusTransaction.isActive()) {
+                    em.flush();
+                }
+                QuarkusTransaction.joiningExisting().run(() -> {
+                    TypedQuery<Object[]> rows = query.get();
+                    rows.setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize);
+                    try (Stream<Object[]> results = rows.getResultStream()) {
+                        writeRows(results.iterator(), projection, null, createWriter(output, type));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Creates the output for rows that have already been read (such as from the SkyIndex), without a transaction.
+     * @param rows The rows, as selected by the projection
+     * @param projection The requested fields
+     * @param type Either APPLICATION_XML or APPLICATION_JSON
+     * @return StreamingOutput that writes all the rows.
+     */
+    public StreamingOutput streamRows(List<Object[]> rows, FieldProjection projection, MediaType type) {
+        return output -> writeRows(rows.iterator(), projection, null, createWriter(output, type));
+    }
+
+    /**
+     * Performs a single page of the supplied projected query.
+     * @param query The query, as rewritten by the projection
+     * @param projection The requested fields
+     * @param page zero-indexed page index (offset pagination), ignored if keyset is true
+     * @param size number of entries per page
+     * @param keyset True if the query was created by {@link Tools#createKeysetQuery}, the response will contain the next cursor (if any)
+     * @param type Either APPLICATION_XML or APPLICATION_JSON
+     * @param count Determines the total number of results (exact or estimated), null if not required.
+     * @return Response containing HTTP response code and the rows if successful, plus the count header (if requested).
+     */
+    public Response projectedPage(TypedQuery<Object[]> query, FieldProjection projection, Integer page, int size, boolean keyset,
+                                  MediaType type, Supplier<ResultCount> count) {
+        try {
+            List<Object[]> rows;
+            String next = null;
+            if (keyset) {
+                query.setMaxResults(size + 1);
+                rows = query.getResultList();
+                if (rows.size() > size) {
+                    rows = new ArrayList<>(rows.subList(0, size));
+                    Object[] last = rows.get(size - 1);
+                    next = new KeysetCursor((String) last[0], (String) last[1]).encode();
+                }
+            } else {
+                query.setFirstResult(page * size);
+                query.setMaxResults(size);
+                rows = query.getResultList();
+            }
+
+            List<Object[]> results = rows;
+            String cursor = next;
+            StreamingOutput output = out -> writeRows(results.iterator(), projection, cursor, createWriter(out, type));
+
+            Response.ResponseBuilder builder = Response.ok(output, type);
+            return (count != null ? count.get().apply(builder) : builder).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
+
+    private void writeRows(Iterator<Object[]> rows, FieldProjection projection, String next, RowWriter writer) throws IOException {
+        writer.start(next);
+        int written = 0;
+        while (rows.hasNext()) {
+            writer.write(projection, rows.next());
+            if (++written % clearInterval == 0) {
+                writer.flush();
+            }
+        }
+        writer.end();
+    }
+
+    private RowWriter createWriter(OutputStream output, MediaType type) throws IOException {
+        return MediaType.APPLICATION_JSON_TYPE.isCompatible(type) ? new JsonRowWriter(output) : new XmlRowWriter(output);
+    }
+
+    private void writeChunk(List<Observation> chunk, FetchDepth depth, RowWriter writer) throws IOException {
+        depth.apply(em, chunk);
+        for (Observation observation : chunk) {
+            writer.write(observation);
+        }
+        writer.flush();
+        chunk.clear();
+        em.clear();
+    }
+
+    private JAXBContext context() throws JAXBException {
+        if (context == null) {
+            context = JAXBContext.newInstance(ObservationListWrapper.class);
+        }
+        return context;
+    }
+
+    /**
+     * The JSON name given to ObservationListWrapper.observations by the configured mapper, so that
+     * the streamed document matches the non-streamed (paginated) one.
+     */
+    private String observationsProperty() {
+        BeanDescription description = mapper.getSerializationConfig()
+                .introspect(mapper.constructType(ObservationListWrapper.class));
+        for (BeanPropertyDefinition property : description.findProperties()) {
+            if ("observations".equals(property.getInternalName())) {
+                return property.getName();
+            }
+        }
+        return "observations";
+    }
+
+    /**
+     * Incremental writer of a single document.
+     */
+    private interface RowWriter {
+        void start(String next) throws IOException;
+        void write(Observation observation) throws IOException;
+        void write(FieldProjection projection, Object[] row) throws IOException;
+        void flush() throws IOException;
+        void end() throws IOException;
+    }
+
+    /**
+     * Writes {@code <Observations><caom2:Observation/>...</Observations>}, or for projections
+     * {@code <Observations><Observation><id>...</id>...</Observation>...</Observations>}
+     */
+    private class XmlRowWriter implements RowWriter {
+        private final XMLStreamWriter xml;
+        private final Marshaller marshaller;
+
+        XmlRowWriter(OutputStream output) throws IOException {
+            try {
+                xml = XMLOutputFactory.newInstance().createXMLStreamWriter(output, StandardCharsets.UTF_8.name());
+                marshaller = context().createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            } catch (XMLStreamException | JAXBException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void start(String next) throws IOException {
+            try {
+                xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+                xml.writeStartElement("Observations");
+                if (next != null) {
+                    xml.writeAttribute("next", next);
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void write(Observation observation) throws IOException {
+            try {
+                marshaller.marshal(Tools.formatObservation(observation), xml);
+            } catch (JAXBException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void write(FieldProjection projection, Object[] row) throws IOException {
+            try {
+                xml.writeStartElement("Observation");
+                for (int i = 0; i < projection.fields().size(); i++) {
+                    Object value = row[FieldProjection.KEY_COLUMNS + i];
+                    if (value != null) {
+                        xml.writeStartElement(projection.fields().get(i).fieldName());
+                        xml.writeCharacters(value instanceof Enum<?> ? mapper.convertValue(value, String.class) : value.toString());
+                        xml.writeEndElement();
+                    }
+                }
+                xml.writeEndElement();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                xml.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            try {
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                xml.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code {"observations": [...]}} (property name as per the configured mapper), projections
+     * are written as flat objects of the requested fields.
+     */
+    private class JsonRowWriter implements RowWriter {
+        private final JsonGenerator json;
+        private final ObjectWriter writer;
+
+        JsonRowWriter(OutputStream output) throws IOException {
+            json = mapper.getFactory().createGenerator(output);
+            writer = mapper.writerFor(Observation.class);
+        }
+
+        @Override
+        public void start(String next) throws IOException {
+            json.writeStartObject();
+            if (next != null) {
+                json.writeStringField("next", next);
+            }
+            json.writeFieldName(observationsProperty());
+            json.writeStartArray();
+        }
+
+        @Override
+        public void write(Observation observation) throws IOException {
+            writer.writeValue(json, observation);
+        }
+
+        @Override
+        public void write(FieldProjection projection, Object[] row) throws IOException {
+            json.writeStartObject();
+            for (int i = 0; i < projection.fields().size(); i++) {
+                json.writeFieldName(projection.fields().get(i).fieldName());
+                json.writeObject(row[FieldProjection.KEY_COLUMNS + i]);
+            }
+            json.writeEndObject();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            json.flush();
+        }
+
+        @Override
+        public void end() throws IOException {
+            json.writeEndArray();
+            json.writeEndObject();
+            json.close();
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package org.uksrc.archive.utils.tools;
 
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.NoResultException;
 import jakarta.persistence.TypedQuery;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.xml.bind.JAXBElement;
 import org.ivoa.dm.caom2.Observation;
 import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.query.FetchDepth;
+import org.uksrc.archive.utils.query.KeysetCursor;
+import org.uksrc.archive.utils.query.ResultCount;
 import org.uksrc.archive.utils.responses.Responses;
 
 import javax.xml.namespace.QName;
@@ -14,8 +17,13 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.StringJoiner;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -28,6 +36,13 @@ public final class Tools {
 
     public static final String FOLDER = "seed";   // The folder to search for XML files, needs to be on the classpath.
 
+    // Stable ordering for paginated listings, backed by the (collection, id) index. See IndexInitialiser.
+    public static final String KEYSET_ORDER = " ORDER BY %1$s.collection, %1$s.id";
+    public static final String KEYSET_SEEK = "(%1$s.collection, %1$s.id) > (:lastKey, :lastId)";
+
+    // SQLSTATE of a duplicate key
+    private static final String UNIQUE_VIOLATION = "23505";
+
     /**
      * Performs the supplied query (with or without the pagination parameters)
      * @param page zero-indexed page index
@@ -36,6 +51,21 @@ public final class Tools {
      * @return Response containing HTTP response code and expected body if successful.
      */
     public static Response performQuery(Integer page, Integer size, TypedQuery<Observation> query) {
+        return performQuery(page, size, query, null, FetchDepth.FULL, null);
+    }
+
+    /**
+     * Performs the supplied query (with or without the pagination parameters), including the total number of results
+     * @param page zero-indexed page index
+     * @param size number of entries per page
+     * @param query query to perform
+     * @param em The entity manager the query was created with, null to leave the children to load lazily
+     * @param depth How much of each Observation's tree to load and return
+     * @param count Determines the total number of results (exact or estimated), null if not required.
+     * @return Response containing HTTP response code and expected body if successful, plus the count header (if requested).
+     */
+    public static Response performQuery(Integer page, Integer size, TypedQuery<Observation> query, EntityManager em, FetchDepth depth,
+                                        Supplier<ResultCount> count) {
         try {
             if (page != null && size != null) {
                 int firstResult = page * size;
@@ -44,14 +74,145 @@ public final class Tools {
             }
 
             List<Observation> observations = query.getResultList();
+            if (em != null) {
+                depth.apply(em, observations);
+            }
             ObservationListWrapper wrapper = new ObservationListWrapper(observations);
 
-            return Response.ok(wrapper).build();
+            return withCount(Response.ok(wrapper), count).build();
         } catch (Exception e) {
             return Responses.errorResponse(e);
         }
     }
 
+    /**
+     * Creates a query for keyset (cursor) pagination, the seek predicate and ordering are appended to the supplied JPQL.
+     * @param em The entity manager to create the query with
+     * @param jpql The base query, selecting Observations with the supplied alias (may already contain a WHERE clause)
+     * @param filtered True if the base query has a WHERE clause of its own (not only within a subquery)
+     * @param alias The alias of the Observation in the supplied query, "o" in "SELECT o FROM Observation o"
+     * @param after The position of the last row of the previous page, null for the first page
+     * @return The query, any parameters of the base query still need to be set by the caller.
+     */
+    public static TypedQuery<Observation> createKeysetQuery(EntityManager em, String jpql, boolean filtered, String alias, KeysetCursor after) {
+        return createKeysetQuery(em, jpql, filtered, alias, after, Observation.class);
+    }
+
+    /**
+     * Creates a query for keyset (cursor) pagination with a specific result type, such as Object[] for projections.
+     * @param em The entity manager to create the query with
+     * @param jpql The base query, from Observation with the supplied alias (may already contain a WHERE clause)
+     * @param filtered True if the base query has a WHERE clause of its own (not only within a subquery)
+     * @param alias The alias of the Observation in the supplied query
+     * @param after The position of the last row of the previous page, null for the first page
+     * @param resultClass The type of each row
+     * @return The query, any parameters of the base query still need to be set by the caller.
+     */
+    public static <T> TypedQuery<T> createKeysetQuery(EntityManager em, String jpql, boolean filtered, String alias, KeysetCursor after,
+                                                      Class<T> resultClass) {
+        StringBuilder sb = new StringBuilder(jpql);
+        if (after != null) {
+            sb.append(filtered ? " AND " : " WHERE ")
+                    .append(String.format(KEYSET_SEEK, alias));
+        }
+        sb.append(String.format(KEYSET_ORDER, alias));
+
+        TypedQuery<T> query = em.createQuery(sb.toString(), resultClass);
+        if (after != null) {
+            query.setParameter("lastKey", after.lastKey());
+            query.setParameter("lastId", after.lastId());
+        }
+        return query;
+    }
+
+    /**
+     * Performs the supplied keyset query, returning a single page and the cursor for the next page (if any).
+     * @param size number of entries per page
+     * @param query query to perform, as created by {@link #createKeysetQuery}
+     * @return Response containing HTTP response code and expected body if successful. The body's "next" value is
+     * only set if there are further results.
+     */
+    public static Response performKeysetQuery(int size, TypedQuery<Observation> query) {
+        return performKeysetQuery(size, query, null, FetchDepth.FULL, null);
+    }
+
+    /**
+     * Performs the supplied keyset query, returning a single page, the cursor for the next page (if any) and the total number of results
+     * @param size number of entries per page
+     * @param query query to perform, as created by {@link #createKeysetQuery}
+     * @param em The entity manager the query was created with, null to leave the children to load lazily
+     * @param depth How much of each Observation's tree to load and return
+     * @param count Determines the total number of results (exact or estimated), null if not required.
+     * @return Response containing HTTP response code and expected body if successful, plus the count header (if requested).
+     */
+    public static Response performKeysetQuery(int size, TypedQuery<Observation> query, EntityManager em, FetchDepth depth,
+                                              Supplier<ResultCount> count) {
+        try {
+            // One extra row tells us whether there's a next page without a separate query.
+            query.setMaxResults(size + 1);
+            List<Observation> observations = query.getResultList();
+
+            String next = null;
+            if (observations.size() > size) {
+                observations = new ArrayList<>(observations.subList(0, size));
+                Observation last = observations.get(size - 1);
+                next = new KeysetCursor(last.getCollection(), last.getId()).encode();
+            }
+            if (em != null) {
+                depth.apply(em, observations);
+            }
+
+            ObservationListWrapper wrapper = new ObservationListWrapper(observations);
+            wrapper.setNext(next);
+            return withCount(Response.ok(wrapper), count).build();
+        } catch (Exception e) {
+            return Responses.errorResponse(e);
+        }
+    }
+
+    private static Response.ResponseBuilder withCount(Response.ResponseBuilder builder, Supplier<ResultCount> count) {
+        return count != null ? count.get().apply(builder) : builder;
+    }
+
+    /**
+     * Determines whether the caller would prefer XML or JSON, for responses that are written directly
+     * rather than via the JAX-RS entity providers (XML unless JSON is preferred, as per the @Produces order).
+     * @param accept The value of the Accept header (may be null)
+     * @return Either APPLICATION_XML_TYPE or APPLICATION_JSON_TYPE
+     */
+    public static MediaType preferredMediaType(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_XML_TYPE;
+        }
+
+        List<MediaType> types = new ArrayList<>();
+        for (String value : accept.split(",")) {
+            try {
+                types.add(MediaType.valueOf(value.trim()));
+            } catch (IllegalArgumentException e) {
+                //Ignore anything unparseable
+            }
+        }
+        types.sort(Comparator.comparingDouble(Tools::quality).reversed());
+
+        for (MediaType type : types) {
+            if (type.isWildcardType() || MediaType.APPLICATION_XML_TYPE.isCompatible(type)) {
+                return MediaType.APPLICATION_XML_TYPE;
+            } else if (MediaType.APPLICATION_JSON_TYPE.isCompatible(type)) {
+                return MediaType.APPLICATION_JSON_TYPE;
+            }
+        }
+        return MediaType.APPLICATION_XML_TYPE;
+    }
+
+    private static double quality(MediaType type) {
+        try {
+            return Double.parseDouble(type.getParameters().getOrDefault("q", "1"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * Converts a List of strings to a TSV
      * @param list The list of elements to convert to a TSV string.
@@ -115,18 +276,16 @@ public final class Tools {
     }
 
     /**
-     * Adds an observation to the database
+     * Adds an observation to the database.
+     * There's no prior existence check, an existing observation is detected by the primary key constraint
+     * (a single round trip, and no window for a concurrent request with the same id to slip through).
      * @param observation Either a SimpleObservation or a DerivedObservation
-     * @return Response containing status code and added observation (if successful)
+     * @param persist Persists (and flushes) the observation, such as ObservationWrites.persist
+     * @return Response containing status code and added observation (if successful), 409 if Observation.id already exists.
      */
-    public static Response submitObservation(EntityManager em, Observation observation) {
-        if (findObservation(em, observation.getId()) != null) {
-            return Responses.errorResponse("Observation.id " + observation.getId() + " already exists.");
-        }
-
+    public static Response submitObservation(Observation observation, Consumer<Observation> persist) {
         try {
-            em.persist(observation);
-            em.flush();
+            persist.accept(observation);
 
             Object formattedObs = Tools.formatObservation(observation);
             return Response.status(Response.Status.CREATED)
@@ -134,25 +293,49 @@ public final class Tools {
                     .build();
 
         } catch (Exception e) {
+            if (isUniqueViolation(e)) {
+                return Response.status(Response.Status.CONFLICT)
+                        .type(MediaType.TEXT_PLAIN)
+                        .entity("Observation.id " + observation.getId() + " already exists.")
+                        .build();
+            }
             return Responses.errorResponse(e);
         }
     }
 
+    /**
+     * Updates an existing (managed) observation with the values of the supplied observation, only the
+     * properties and children that differ are written (see {@link ObservationMerger}).
+     * @param existing The observation to update
+     * @param observation The new values
+     */
+    public static void updateObservation(Observation existing, Observation observation) {
+        ObservationMerger.merge(existing, observation);
+    }
+
+    /**
+     * @param e An exception thrown whilst flushing/committing
+     * @return true if it was caused by a duplicate key (PostgreSQL unique_violation)
+     */
+    public static boolean isUniqueViolation(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql && UNIQUE_VIOLATION.equals(sql.getSQLState())) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
     /**
      * Checks to see if an observation with the supplied ID already exists
+     * (by primary key, so answered from the second-level cache when possible).
      * @param id Observation.id
      * @return The observation if found, null if not
      */
     public static Observation findObservation(EntityManager em, String id) {
-        TypedQuery<Observation> existsQuery = em.createQuery(
-                "SELECT o FROM Observation o WHERE o.id = :id", Observation.class
-        );
-
-        try {
-            existsQuery.setParameter("id", id);
-            return existsQuery.getSingleResult();
-        } catch (NoResultException e){
-            return null;
-        }
+        return em.find(Observation.class, id);
     }
 }
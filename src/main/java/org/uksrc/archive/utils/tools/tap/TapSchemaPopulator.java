@@ -14,6 +14,7 @@ import org.ivoa.dm.tapschema.ColNameKeys;
 import org.ivoa.dm.tapschema.Schema;
 import org.ivoa.dm.tapschema.TapschemaModel;
 import org.jboss.logging.Logger;
+import org.uksrc.archive.ingest.ObsCore;
 
 import javax.xml.transform.stream.StreamSource;
 import java.io.InputStream;
@@ -59,7 +60,13 @@ public class TapSchemaPopulator {
                 addTapSchema();
             }
 
-            addCAOMSchema();
+            // Independent of the CAOM schema, which may fail on a model the repository can't convert
+            try {
+                addCAOMSchema();
+            } catch (Exception e) {
+                LOG.error("Adding the CAOM schema to the TAP Schema", e);
+            }
+            addObsCoreSchema();
 
         }catch (Exception e) {
             LOG.error("Populating TAP Schema", e);
@@ -90,6 +97,20 @@ public class TapSchemaPopulator {
         }
     }
 
+    /**
+     * Add the ObsCore table (maintained by ingest, see ObsCore) to the database, unless already present.
+     */
+    private void addObsCoreSchema() {
+        if (entityManager.createNativeQuery(CHECK_SCHEMA_ADDED_SQL).setParameter(1, ObsCore.SCHEMA).getResultList().isEmpty()) {
+            tapSchemaRepository.insertSchema(ObsCore.SCHEMA, "IVOA standard data models", null, null);
+        }
+        if (!entityManager.createNativeQuery(CHECK_TABLE_EXISTS_SQL).setParameter(1, ObsCore.TABLE).getResultList().isEmpty()) {
+            return;
+        }
+
+        tapSchemaRepository.addDescribedTable(ObsCore.SCHEMA, ObsCore.TABLE, "ObsCore 1.1, one row per CAOM Plane", ObsCore.COLUMNS);
+    }
+
     /**
      * Adds the supplied model to the database.
      * @param is An input stream that contains the model
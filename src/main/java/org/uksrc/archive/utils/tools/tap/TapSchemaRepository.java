@@ -6,6 +6,7 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.transaction.Transactional;
 import org.ivoa.dm.tapschema.Schema;
+import org.uksrc.archive.ingest.ObsCore;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
@@ -38,6 +39,7 @@ public class TapSchemaRepository {
     static final String insertTableSql = "INSERT INTO TAP_SCHEMA.\"tables\"(schema_name, table_name, table_type, description) VALUES (?, ?, ?, ?)";
  //   static final String insertColumnSql = "INSERT INTO tap_schema.\"columns\"(table_name, column_name, description, datatype, size, arraysize, unit, ucd, principal, std, indexed) VALUES(?,?,?,?,?,NULL,NULL,NULL,0,1,0)";
  static final String insertColumnSql = "INSERT INTO TAP_SCHEMA.\"columns\"(table_name, column_name, description, datatype, arraysize, unit, ucd, principal, std, indexed) VALUES(?,?,?,?,?,NULL,NULL,false,true,false)";
+    static final String insertDescribedColumnSql = "INSERT INTO TAP_SCHEMA.\"columns\"(table_name, column_name, description, datatype, arraysize, unit, ucd, utype, principal, std, indexed) VALUES(?,?,?,?,NULL,?,?,?,?,true,?)";
 
     //Columns that are reserved words in TAP (currently only CAOM 2.5 entries) - raised with CADC to see if a model adjustment is in order before release.
     static final Set<String> reservedWords = Set.of("coordsys", "pi", "position", "time");
@@ -138,6 +140,52 @@ public class TapSchemaRepository {
                 .executeUpdate();
     }
 
+    /**
+     * Adds a column's details to the TAP_SCHEMA in the database, for the columns of a standard data model (such as
+     * ObsCore) that are described by their unit, UCD and utype.
+     * @param tableName The name of the table that the column belongs to
+     * @param columnName The name of the column as it appears in the table
+     * @param dataType The TAP datatype, one of those supported by Vollt (see above)
+     * @param unit The VOUnit of the values, null if unitless
+     * @param ucd The UCD of the column
+     * @param utype The utype of the column in its data model
+     * @param description Human-readable description of the column
+     * @param principal True if the column should be shown by default
+     * @param indexed True if the column is indexed in the database
+     */
+    @Transactional
+    public void addColumn(final String tableName, final String columnName, final String dataType, final String unit,
+                          final String ucd, final String utype, final String description, boolean principal, boolean indexed) {
+        entityManager.createNativeQuery(insertDescribedColumnSql)
+                .setParameter(1, tableName)
+                .setParameter(2, columnName)
+                .setParameter(3, description)
+                .setParameter(4, dataType.toUpperCase())
+                .setParameter(5, unit)
+                .setParameter(6, ucd)
+                .setParameter(7, utype)
+                .setParameter(8, principal)
+                .setParameter(9, indexed)
+                .executeUpdate();
+    }
+
+    /**
+     * Adds a table of a standard data model (such as ObsCore) and its described columns to the TAP_SCHEMA, in one
+     * transaction so that the table is never registered without its columns.
+     * @param schemaName The schema that this table belongs to.
+     * @param tableName The name of the table to be added to the TAP_SCHEMA
+     * @param description Human-readable description of the table
+     * @param columns The columns of the table, all shown by default
+     */
+    @Transactional
+    public void addDescribedTable(final String schemaName, final String tableName, final String description, List<ObsCore.TapColumn> columns) {
+        addTable(schemaName, tableName, "table", description);
+        for (ObsCore.TapColumn column : columns) {
+            addColumn(tableName, column.name(), column.datatype(), column.unit(), column.ucd(), column.utype(),
+                    column.description(), true, column.indexed());
+        }
+    }
+
     /**
      * Remove leading underscore from arrays.
      * @param udtName formats a udt if required
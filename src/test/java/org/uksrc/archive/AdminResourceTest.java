@@ -9,6 +9,8 @@ import java.util.UUID;
 
 import static io.restassured.RestAssured.given;
 import static jakarta.ws.rs.core.Response.Status.*;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
 
 /**
  * Unit tests to allow the testing of the /admin API, should contain anything that requires
@@ -23,7 +25,9 @@ public class AdminResourceTest {
     @ConfigProperty(name = "basic.auth.admin.password")
     String adminPassword;
 
-    private final static String OBSERVATION = "<caom2:Observation xmlns:caom2=\"http://www.opencadc.org/caom2/xml/v2.5\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"caom2:SimpleObservation\" caom2:id=\"" + UUID.randomUUID() + "\">\n" +
+    private final static String OBSERVATION_ID = UUID.randomUUID().toString();
+
+    private final static String OBSERVATION = "<caom2:Observation xmlns:caom2=\"http://www.opencadc.org/caom2/xml/v2.5\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"caom2:SimpleObservation\" caom2:id=\"" + OBSERVATION_ID + "\">\n" +
             "<caom2:collection>CK2235</caom2:collection>\n" +
             "<caom2:uri>https://www.archive-service.org/CK2/CK2235/CK2235_L_002_20180714</caom2:uri>\n" +
             "<caom2:uriBucket>3d0</caom2:uriBucket>\n" +
@@ -65,4 +69,34 @@ public class AdminResourceTest {
                 .then()
                 .statusCode(UNAUTHORIZED.getStatusCode());
     }
+
+    // Should allow the injection of multiple resources using basic authentication
+    @Test
+    public void addingMultipleResources() {
+        String observations = "<Observations>" + OBSERVATION.replace(OBSERVATION_ID, UUID.randomUUID().toString()) + "</Observations>";
+
+        given()
+                .auth().preemptive().basic(adminUsername, adminPassword)
+                .contentType(ContentType.XML)
+                .body(observations)
+                .when()
+                .post("/admin/addObservations")
+                .then()
+                .statusCode(OK.getStatusCode())
+                .body("IngestReport.@created", equalTo("1"));
+    }
+
+    // Should return the second-level cache statistics, the CAOM entities being cached
+    @Test
+    public void gettingCacheStatistics() {
+        given()
+                .auth().preemptive().basic(adminUsername, adminPassword)
+                .accept(ContentType.XML)
+                .when()
+                .get("/admin/cache")
+                .then()
+                .statusCode(OK.getStatusCode())
+                .body("CacheStatistics.@enabled", equalTo("true"))
+                .body("CacheStatistics.Region.@name", hasItem("org.ivoa.dm.caom2.Observation"));
+    }
 }
@@ -15,8 +15,10 @@ import org.uksrc.archive.utils.Utilities;
 import java.util.Arrays;
 import java.util.List;
 
+import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.hamcrest.Matchers.equalTo;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.uksrc.archive.utils.Utilities.*;
 
@@ -34,6 +36,7 @@ public class CollectionResourceTest {
     public void clearDatabase() {
         // Clear the table
         em.createQuery("DELETE FROM Observation").executeUpdate();
+        em.createQuery("DELETE FROM CollectionSummary").executeUpdate();
     }
 
     @Test
@@ -93,4 +96,50 @@ public class CollectionResourceTest {
             throw new RuntimeException(e);
         }
     }
+
+    @Test
+    @DisplayName("Test retrieving the statistics of a collection")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testRetrievingCollectionStats() {
+        for (int i = 1; i < 4; i++) {
+            Observation obs = createSimpleObservation(Utilities.OBSERVATION1 + i, Utilities.COLLECTION1);
+            try (Response res = observationResource.addObservation(obs)) {
+                assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+            }
+        }
+        Observation obs = createArtifactObservation(Utilities.OBSERVATION1 + 4, Utilities.COLLECTION1, "uri:artifact");
+        try (Response res = observationResource.addObservation(obs)) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        given()
+                .header("Accept", "application/json")
+                .when()
+                .get("/collections/" + Utilities.COLLECTION1 + "/stats")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("observations", equalTo(4))
+                .body("artifacts", equalTo(1))
+                .body("bytes", equalTo(35205));
+
+        //Removing an observation is reflected in the statistics
+        try (Response res = observationResource.deleteObservation(Utilities.OBSERVATION1 + 4)) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), res.getStatus());
+        }
+
+        given()
+                .header("Accept", "application/json")
+                .when()
+                .get("/collections/" + Utilities.COLLECTION1 + "/stats")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("observations", equalTo(3))
+                .body("artifacts", equalTo(0))
+                .body("bytes", equalTo(0));
+
+        when()
+                .get("/collections/" + Utilities.COLLECTION2 + "/stats")
+                .then()
+                .statusCode(Response.Status.NOT_FOUND.getStatusCode());
+    }
 }
@@ -0,0 +1,109 @@
+package org.uksrc.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.uksrc.archive.ingest.BatchIngester;
+import org.uksrc.archive.ingest.IngestJob;
+import org.uksrc.archive.ingest.IngestResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Test class for the background ingest jobs
+ */
+@QuarkusTest
+public class IngestResourceTest {
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    IngestResource ingestResource;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @BeforeEach
+    @Transactional
+    public void clearDatabase() {
+        em.createQuery("DELETE FROM Observation").executeUpdate();
+    }
+
+    @Test
+    @DisplayName("Submit a job, it's accepted straight away and completes in the background.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testSubmittingJob() throws Exception {
+        String ndjson = mapper.writeValueAsString(createSimpleObservation(OBSERVATION1, COLLECTION1)) + "\n" +
+                "{not an observation\n" +
+                mapper.writeValueAsString(createSimpleObservation(OBSERVATION2, COLLECTION1)) + "\n";
+
+        String id;
+        try (Response res = ingestResource.submitJob(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)),
+                BatchIngester.APPLICATION_NDJSON, null, null)) {
+            assertEquals(Response.Status.ACCEPTED.getStatusCode(), res.getStatus());
+            IngestJob job = (IngestJob) res.getEntity();
+            assertEquals(IngestJob.Status.QUEUED, job.getStatus());
+            id = job.getId();
+        }
+
+        IngestJob job = waitForJob(id);
+        assertEquals(IngestJob.Status.COMPLETED, job.getStatus());
+        assertEquals(2, job.getCreated());
+        assertEquals(1, job.getInvalid());
+        assertEquals(1, job.getErrors().size());
+        assertEquals(1, job.getErrors().get(0).getIndex());
+        assertEquals(IngestResult.Status.INVALID, job.getErrors().get(0).getStatus());
+    }
+
+    @Test
+    @DisplayName("A job that cannot be read is reported as failed.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testSubmittingUnreadableJob() throws Exception {
+        String id;
+        try (Response res = ingestResource.submitJob(new ByteArrayInputStream("not xml".getBytes(StandardCharsets.UTF_8)),
+                "application/xml", null, null)) {
+            assertEquals(Response.Status.ACCEPTED.getStatusCode(), res.getStatus());
+            id = ((IngestJob) res.getEntity()).getId();
+        }
+
+        IngestJob job = waitForJob(id);
+        assertEquals(IngestJob.Status.FAILED, job.getStatus());
+        assertNotNull(job.getMessage());
+    }
+
+    @Test
+    @DisplayName("Requesting an unknown job returns a 404.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testGettingUnknownJob() {
+        try (Response res = ingestResource.getJob("no-such-job")) {
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), res.getStatus());
+        }
+    }
+
+    private IngestJob waitForJob(String id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Response res = ingestResource.getJob(id)) {
+                assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+                IngestJob job = (IngestJob) res.getEntity();
+                if (job.getStatus() == IngestJob.Status.COMPLETED || job.getStatus() == IngestJob.Status.FAILED) {
+                    return job;
+                }
+            }
+            Thread.sleep(100);
+        }
+        fail("Ingest job " + id + " did not finish");
+        return null;
+    }
+}
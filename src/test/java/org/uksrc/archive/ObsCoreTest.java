@@ -0,0 +1,120 @@
+package org.uksrc.archive;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.ivoa.dm.caom2.Observation;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static jakarta.ws.rs.core.Response.Status.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Tests the ivoa.obscore table follows the writes and deletes of observation1.xml (two planes, one with circular
+ * bounds), and that it is queryable through TAP.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTest
+public class ObsCoreTest {
+
+    @Inject
+    ObservationResource observationResource;
+
+    @Inject
+    EntityManager entityManager;
+
+    private static final String TAP_QUERY = "/tap/sync?REQUEST=doQuery&LANG=ADQL&FORMAT=JSON&QUERY=";
+
+    private static Observation observation;
+
+    @Test
+    @Order(1)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testRowsWritten() throws Exception {
+        observation = addObservation1(observationResource, null);
+
+        List<Object[]> rows = rows();
+        assertEquals(observation.getPlanes().size(), rows.size());
+        for (Object[] row : rows) {
+            assertEquals("EMERLIN", row[0]);
+            //The telescope of the file
+            assertEquals("e-MERLIN", row[7]);
+        }
+
+        Object[] bounded = rows.stream().filter(r -> r[4] != null).findFirst().orElseThrow();
+        assertEquals(193.109524583333, ((Number) bounded[2]).doubleValue(), 1e-9);
+        assertEquals(56.57208, ((Number) bounded[3]).doubleValue(), 1e-9);
+        assertTrue(((String) bounded[4]).startsWith("CIRCLE ICRS "));
+        assertEquals(5071420926.5, ((Number) bounded[5]).doubleValue(), 1e-6);
+        assertEquals(0.056277915900131405, ((Number) bounded[6]).doubleValue(), 1e-12);
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testTapQuery() {
+        given()
+                .when()
+                .get(TAP_QUERY + "SELECT obs_publisher_did, s_ra, s_dec FROM ivoa.obscore WHERE obs_id = '" + observation.getUri() + "'")
+                .then()
+                .statusCode(OK.getStatusCode())
+                .body("data", hasSize(observation.getPlanes().size()))
+                .body("metadata.name", containsInAnyOrder("obs_publisher_did", "s_ra", "s_dec"));
+
+        //Described in TAP_SCHEMA
+        Response res = given()
+                .when()
+                .get(TAP_QUERY + "SELECT column_name FROM TAP_SCHEMA.columns WHERE table_name = 'ivoa.obscore'")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+        List<String> columns = res.jsonPath().getList("data.collect { it[0] }", String.class);
+        assertTrue(columns.containsAll(List.of("dataproduct_type", "obs_id", "s_ra", "s_dec", "t_min", "em_max")));
+    }
+
+    @Test
+    @Order(3)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testRowsReplacedOnUpdate() {
+        observation.setCollection("EMERLIN-UPDATED");
+        try (jakarta.ws.rs.core.Response res = observationResource.updateObservation(observation.getId(), false, observation)) {
+            assertEquals(OK.getStatusCode(), res.getStatus());
+        }
+
+        List<Object[]> rows = rows();
+        assertEquals(observation.getPlanes().size(), rows.size());
+        for (Object[] row : rows) {
+            assertEquals("EMERLIN-UPDATED", row[0]);
+        }
+    }
+
+    @Test
+    @Order(4)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testRowsRemovedOnDelete() {
+        try (jakarta.ws.rs.core.Response res = observationResource.deleteObservation(observation.getId())) {
+            assertEquals(NO_CONTENT.getStatusCode(), res.getStatus());
+        }
+        assertTrue(rows().isEmpty());
+    }
+
+    /**
+     * @return {obs_collection, obs_publisher_did, s_ra, s_dec, s_region, t_min, em_min, facility_name} of the test observation's rows.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object[]> rows() {
+        return entityManager.createNativeQuery("SELECT obs_collection, obs_publisher_did, s_ra, s_dec, s_region, t_min, em_min, facility_name " +
+                        "FROM ivoa.obscore WHERE observation_id = ?1")
+                .setParameter(1, observation.getId())
+                .getResultList();
+    }
+}
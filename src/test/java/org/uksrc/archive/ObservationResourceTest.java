@@ -1,5 +1,7 @@
 package org.uksrc.archive;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.quarkus.security.AuthenticationFailedException;
 import io.quarkus.security.ForbiddenException;
 import io.quarkus.test.junit.QuarkusTest;
@@ -7,16 +9,29 @@ import io.quarkus.test.security.TestSecurity;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.xml.bind.JAXBElement;
 import org.ivoa.dm.caom2.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.uksrc.archive.ingest.BatchIngester;
+import org.uksrc.archive.ingest.DeleteReport;
+import org.uksrc.archive.ingest.IngestReport;
+import org.uksrc.archive.ingest.IngestResult;
 import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.query.ListingParameters;
+import org.uksrc.archive.utils.query.ResultCount;
+import org.uksrc.archive.utils.tools.MergePatch;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -37,6 +52,9 @@ public class ObservationResourceTest {
     @Inject
     ObservationResource observationResource;
 
+    @Inject
+    ObjectMapper mapper;
+
     static final String nonResolvableArtifactUri = "uri:TS8004_C_001_20190801_avg_uvplt_a_1331+3030.png";
 
     @BeforeEach
@@ -51,11 +69,11 @@ public class ObservationResourceTest {
     @Test
     @DisplayName("Check that and empty database returns a robust response.")
     @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
-    public void testGettingObservations() {
-        try (Response res = observationResource.getAllObservations(null, null, null)) {
+    public void testGettingObservations() throws Exception {
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(null, null, null, null, null, null), null)) {
             assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
 
-            ObservationListWrapper wrapper = (ObservationListWrapper) res.getEntity();
+            ObservationListWrapper wrapper = readStreamedObservations(res);
             assert(wrapper.getObservations().isEmpty());
         }
     }
@@ -63,7 +81,7 @@ public class ObservationResourceTest {
     @Test
     @DisplayName("Add two observation and check two are returned.")
     @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
-    public void testGettingObservationsNonEmpty() {
+    public void testGettingObservationsNonEmpty() throws Exception {
         Observation obs1 = createSimpleObservation(OBSERVATION1, COLLECTION1);
         Observation obs2 = createSimpleObservation(OBSERVATION2, COLLECTION1);
 
@@ -72,10 +90,10 @@ public class ObservationResourceTest {
             assertEquals (Response.Status.CREATED.getStatusCode(), res1.getStatus());
             assertEquals (Response.Status.CREATED.getStatusCode(), res2.getStatus());
 
-            Response obsRes = observationResource.getAllObservations(null, null, null);
+            Response obsRes = observationResource.getAllObservations(null, ListingParameters.of(null, null, null, null, null, null), null);
             assertEquals (Response.Status.OK.getStatusCode(), obsRes.getStatus());
 
-            ObservationListWrapper wrapper = (ObservationListWrapper) obsRes.getEntity();
+            ObservationListWrapper wrapper = readStreamedObservations(obsRes);
             List<Observation> observations = wrapper.getObservations();
             assertEquals(2, observations.size());
         }
@@ -84,7 +102,7 @@ public class ObservationResourceTest {
     @Test
     @DisplayName("Get observations via collection Id")
     @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
-    public void testGettingObservationsViaCollectionId() {
+    public void testGettingObservationsViaCollectionId() throws Exception {
         Observation obs1 = createSimpleObservation(OBSERVATION1, COLLECTION1);
         Observation obs2 = createSimpleObservation(OBSERVATION2, COLLECTION1);
 
@@ -94,17 +112,17 @@ public class ObservationResourceTest {
             assertEquals (Response.Status.CREATED.getStatusCode(), res2.getStatus());
 
             //Both previously added observations should be returned
-            Response obsRes = observationResource.getAllObservations(COLLECTION1, null, null);
+            Response obsRes = observationResource.getAllObservations(COLLECTION1, ListingParameters.of(null, null, null, null, null, null), null);
             assertEquals (obsRes.getStatus(), Response.Status.OK.getStatusCode());
 
-            ObservationListWrapper wrapper = (ObservationListWrapper) obsRes.getEntity();
+            ObservationListWrapper wrapper = readStreamedObservations(obsRes);
             assertEquals(2, wrapper.getObservations().size());
 
             //Neither of the previously added observations should be returned (ONLY collection1 exists)
-            obsRes = observationResource.getAllObservations(COLLECTION2, null, null);
+            obsRes = observationResource.getAllObservations(COLLECTION2, ListingParameters.of(null, null, null, null, null, null), null);
             assertEquals (obsRes.getStatus(), Response.Status.OK.getStatusCode());
 
-            wrapper = (ObservationListWrapper) obsRes.getEntity();
+            wrapper = readStreamedObservations(obsRes);
             assert (wrapper.getObservations().isEmpty());
         }
     }
@@ -160,7 +178,7 @@ public class ObservationResourceTest {
         // Update it with a different value
         observation.setIntent(ObservationIntentType.CALIBRATION);
 
-        try (Response res = observationResource.updateObservation(OBSERVATION2, observation)) {
+        try (Response res = observationResource.updateObservation(OBSERVATION2, false, observation)) {
             assertEquals(res.getStatus(), Response.Status.OK.getStatusCode());
 
             JAXBElement<?> jaxbElement = (JAXBElement<?>) res.getEntity();
@@ -171,7 +189,7 @@ public class ObservationResourceTest {
         }
 
         // For completeness, we need to check that the actual entry is updated
-        try (Response res = observationResource.getObservation(OBSERVATION2)) {
+        try (Response res = observationResource.getObservation(OBSERVATION2, null)) {
             assertEquals(res.getStatus(), Response.Status.OK.getStatusCode());
 
             JAXBElement<?> jaxbElement = (JAXBElement<?>) res.getEntity();
@@ -182,6 +200,128 @@ public class ObservationResourceTest {
         }
     }
 
+    @Test
+    @DisplayName("Update a child of an observation, children are matched by id so the others are untouched.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testUpdatingObservationChildren() throws Exception {
+        Observation observation = createArtifactObservation(OBSERVATION1, COLLECTION1, nonResolvableArtifactUri);
+        Observation changed = mapper.readValue(mapper.writeValueAsString(observation), Observation.class);
+        try (Response res = observationResource.addObservation(observation)) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        // Change a value of the existing artifact and add a second plane
+        Plane plane = changed.getPlanes().get(0);
+        plane.getArtifacts().get(0).setContentType("image/jpeg");
+        Plane added = new Plane();
+        added.setId(UUID.randomUUID().toString());
+        added.setUri(UUID.randomUUID().toString());
+        changed.addToPlanes(added);
+
+        try (Response res = observationResource.updateObservation(OBSERVATION1, false, changed)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.getObservation(OBSERVATION1, null)) {
+            Observation updated = (Observation) ((JAXBElement<?>) res.getEntity()).getValue();
+            assertEquals(2, updated.getPlanes().size());
+            Plane original = updated.getPlanes().stream().filter(p -> p.getId().equals(plane.getId())).findFirst().orElseThrow();
+            assertEquals(1, original.getArtifacts().size());
+            assertEquals("image/jpeg", original.getArtifacts().get(0).getContentType());
+        }
+    }
+
+    @Test
+    @DisplayName("Patch an observation, only the supplied values (and children) are changed.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testPatchingObservation() throws Exception {
+        Observation observation = createArtifactObservation(OBSERVATION1, COLLECTION1, nonResolvableArtifactUri);
+        Plane plane = observation.getPlanes().get(0);
+        String artifactId = plane.getArtifacts().get(0).getId();
+        try (Response res = observationResource.addObservation(observation)) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        ObjectNode patch = mapper.createObjectNode();
+        patch.set("intent", mapper.valueToTree(ObservationIntentType.CALIBRATION));
+        ObjectNode artifact = patch.putArray("planes").addObject()
+                .put("id", plane.getId())
+                .putArray("artifacts").addObject();
+        artifact.put("id", artifactId).put("contentType", "image/jpeg");
+        String body = mapper.writeValueAsString(patch);
+
+        try (Response res = observationResource.patchObservation(OBSERVATION1, stream(body), MergePatch.APPLICATION_MERGE_PATCH_JSON)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.getObservation(OBSERVATION1, null)) {
+            Observation patched = (Observation) ((JAXBElement<?>) res.getEntity()).getValue();
+            assertEquals(ObservationIntentType.CALIBRATION, patched.getIntent());
+            assertEquals(COLLECTION1, patched.getCollection());
+            assertEquals(1, patched.getPlanes().size());
+            assertEquals(1, patched.getPlanes().get(0).getArtifacts().size());
+            assertEquals("image/jpeg", patched.getPlanes().get(0).getArtifacts().get(0).getContentType());
+            assertEquals(nonResolvableArtifactUri, patched.getPlanes().get(0).getArtifacts().get(0).getUri());
+        }
+
+        // Nothing left to change
+        try (Response res = observationResource.patchObservation(OBSERVATION1, stream(body), MergePatch.APPLICATION_MERGE_PATCH_JSON)) {
+            assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.patchObservation(OBSERVATION1, stream("{\"id\": \"another\"}"), MergePatch.APPLICATION_MERGE_PATCH_JSON)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.patchObservation(OBSERVATION2, stream(body), MergePatch.APPLICATION_MERGE_PATCH_JSON)) {
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), res.getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Patch all the observations of a collection, those of other collections are untouched.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testPatchingCollection() throws Exception {
+        String other = UUID.randomUUID().toString();
+        for (Observation observation : List.of(createSimpleObservation(OBSERVATION1, COLLECTION1),
+                createSimpleObservation(OBSERVATION2, COLLECTION1), createSimpleObservation(other, COLLECTION2))) {
+            try (Response res = observationResource.addObservation(observation)) {
+                assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+            }
+        }
+
+        ObjectNode patch = mapper.createObjectNode();
+        patch.set("intent", mapper.valueToTree(ObservationIntentType.CALIBRATION));
+        String body = mapper.writeValueAsString(patch);
+
+        try (Response res = observationResource.patchObservations(COLLECTION1, null, stream(body), MergePatch.APPLICATION_MERGE_PATCH_JSON)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+            IngestReport report = (IngestReport) res.getEntity();
+            assertEquals(2, report.getUpdated());
+            assertEquals(0, report.getInvalid());
+        }
+
+        try (Response res = observationResource.getObservation(OBSERVATION2, null)) {
+            assertEquals(ObservationIntentType.CALIBRATION, ((Observation) ((JAXBElement<?>) res.getEntity()).getValue()).getIntent());
+        }
+        try (Response res = observationResource.getObservation(other, null)) {
+            assertEquals(ObservationIntentType.SCIENCE, ((Observation) ((JAXBElement<?>) res.getEntity()).getValue()).getIntent());
+        }
+
+        // Again, nothing left to change
+        try (Response res = observationResource.patchObservations(COLLECTION1, null, stream(body), MergePatch.APPLICATION_MERGE_PATCH_JSON)) {
+            assertEquals(2, ((IngestReport) res.getEntity()).getUnchanged());
+        }
+
+        try (Response res = observationResource.patchObservations(null, null, stream(body), MergePatch.APPLICATION_MERGE_PATCH_JSON)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
     @Test
     @DisplayName("Attempt to update a non-existent observation and check the not found status.")
     @TestSecurity(user = "testuser", roles = {TEST_WRITER_ROLE})
@@ -189,11 +329,53 @@ public class ObservationResourceTest {
         Observation observation = createSimpleObservation(OBSERVATION2, COLLECTION1);
         observation.setIntent(ObservationIntentType.CALIBRATION);
 
-        try (Response res = observationResource.updateObservation(OBSERVATION2, observation)) {
+        try (Response res = observationResource.updateObservation(OBSERVATION2, false, observation)) {
             assertEquals(res.getStatus(), Response.Status.NOT_FOUND.getStatusCode());
         }
     }
 
+    @Test
+    @DisplayName("Attempt to add an observation that already exists, check the conflict status.")
+    @TestSecurity(user = "testuser", roles = {TEST_WRITER_ROLE})
+    public void testAddingDuplicateObservation() {
+        try (Response res = observationResource.addObservation(createSimpleObservation(OBSERVATION1, COLLECTION1))) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.addObservation(createSimpleObservation(OBSERVATION1, COLLECTION1))) {
+            assertEquals(Response.Status.CONFLICT.getStatusCode(), res.getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Upsert an observation, it's added the first time and updated the second.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testUpsertingObservation() {
+        try (Response res = observationResource.updateObservation(OBSERVATION1, true, createSimpleObservation(OBSERVATION1, COLLECTION1))) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        Observation observation = createSimpleObservation(OBSERVATION1, COLLECTION1);
+        observation.setIntent(ObservationIntentType.CALIBRATION);
+        try (Response res = observationResource.updateObservation(OBSERVATION1, true, observation)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.getObservation(OBSERVATION1, null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+            Observation updated = (Observation) ((JAXBElement<?>) res.getEntity()).getValue();
+            assertEquals(ObservationIntentType.CALIBRATION, updated.getIntent());
+        }
+
+        // Re-submitting the same content changes nothing, with or without upsert
+        try (Response res = observationResource.updateObservation(OBSERVATION1, true, observation)) {
+            assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), res.getStatus());
+        }
+        try (Response res = observationResource.updateObservation(OBSERVATION1, false, observation)) {
+            assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), res.getStatus());
+        }
+    }
+
     @Test
     @DisplayName("Attempt to delete an observation.")
     @TestSecurity(user = "testuser", roles = {TEST_WRITER_ROLE})
@@ -205,7 +387,7 @@ public class ObservationResourceTest {
         }
 
         // Check it exists
-        try (Response obsRes = observationResource.getObservation(OBSERVATION1)) {
+        try (Response obsRes = observationResource.getObservation(OBSERVATION1, null)) {
             JAXBElement<?> jaxbElement = (JAXBElement<?>) obsRes.getEntity();
 
             Observation updatedObservation = (Observation) jaxbElement.getValue();
@@ -230,7 +412,7 @@ public class ObservationResourceTest {
             }
         }
 
-        try (Response res = observationResource.getAllObservations(null, 0, 10)) {
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(0, 10, null, null, null, null), null)) {
             assertEquals(res.getStatus(), Response.Status.OK.getStatusCode());
 
             ObservationListWrapper wrapper = (ObservationListWrapper) res.getEntity();
@@ -250,7 +432,7 @@ public class ObservationResourceTest {
             }
         }
 
-        try (Response res = observationResource.getAllObservations(null, 1, 10)) {
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(1, 10, null, null, null, null), null)) {
             assertEquals(res.getStatus(), Response.Status.OK.getStatusCode());
 
             ObservationListWrapper wrapper = (ObservationListWrapper) res.getEntity();
@@ -258,6 +440,77 @@ public class ObservationResourceTest {
         }
     }
 
+    @Test
+    @DisplayName("Test the exact and estimated total counts of paged results")
+    @TestSecurity(user = "testuser", roles = {TEST_WRITER_ROLE})
+    public void testPagingResultCounts() {
+        for (int i = 0; i < 15; i++){
+            Observation observation = createSimpleObservation(OBSERVATION1 + i, COLLECTION1);
+            try (Response res = observationResource.addObservation(observation)) {
+                assert (res.getStatus() == Response.Status.CREATED.getStatusCode());
+            }
+        }
+
+        try (Response res = observationResource.getAllObservations(COLLECTION1, ListingParameters.of(0, 10, null, "exact", null, null), null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+            assertEquals("15", res.getHeaderString(ResultCount.EXACT_HEADER));
+            assertNull(res.getHeaderString(ResultCount.ESTIMATED_HEADER));
+        }
+
+        try (Response res = observationResource.getAllObservations(COLLECTION1, ListingParameters.of(null, 10, "", "estimated", null, null), null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+            assertTrue(Long.parseLong(res.getHeaderString(ResultCount.ESTIMATED_HEADER)) >= 0);
+            assertNull(res.getHeaderString(ResultCount.EXACT_HEADER));
+        }
+
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(0, 10, null, "everything", null, null), null)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Test keyset (cursor) paging, following the cursor until the final page")
+    @TestSecurity(user = "testuser", roles = {TEST_WRITER_ROLE})
+    public void testCursorPagingResults() {
+        for (int i = 0; i < 15; i++){
+            Observation observation = createSimpleObservation(OBSERVATION1 + i, COLLECTION1);
+            try (Response res = observationResource.addObservation(observation)) {
+                assert (res.getStatus() == Response.Status.CREATED.getStatusCode());
+            }
+        }
+
+        String next;
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(null, 10, "", null, null, null), null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            ObservationListWrapper wrapper = (ObservationListWrapper) res.getEntity();
+            assertEquals(10, wrapper.getObservations().size());
+            assertNotNull(wrapper.getNext());
+            next = wrapper.getNext();
+        }
+
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(null, 10, next, null, null, null), null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            ObservationListWrapper wrapper = (ObservationListWrapper) res.getEntity();
+            assertEquals(5, wrapper.getObservations().size());
+            assertNull(wrapper.getNext());
+        }
+    }
+
+    @Test
+    @DisplayName("Check that a cursor without a page size, or an invalid cursor, is rejected")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    public void testInvalidCursor() {
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(null, null, "", null, null, null), null)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(null, 10, "not-a-cursor", null, null, null), null)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+    }
+
     @Test
     @DisplayName("Attempt to delete an observation that doesn't exist.")
     @TestSecurity(user = "testuser", roles = {TEST_WRITER_ROLE})
@@ -267,6 +520,42 @@ public class ObservationResourceTest {
         }
     }
 
+    @Test
+    @DisplayName("Delete all the observations of a collection, including their planes and artifacts.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testDeletingCollection() {
+        String other = UUID.randomUUID().toString();
+        for (Observation observation : List.of(createArtifactObservation(OBSERVATION1, COLLECTION1, nonResolvableArtifactUri),
+                createDerivedObservation(OBSERVATION2, COLLECTION1), createSimpleObservation(other, COLLECTION2))) {
+            try (Response res = observationResource.addObservation(observation)) {
+                assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+            }
+        }
+
+        try (Response res = observationResource.deleteObservations(COLLECTION1, null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+            DeleteReport report = (DeleteReport) res.getEntity();
+            assertEquals(2, report.getObservations());
+            assertTrue(report.getRows() >= 4);  // 2 observations, a plane and an artifact
+        }
+
+        try (Response res = observationResource.getObservation(OBSERVATION1, null)) {
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), res.getStatus());
+        }
+        try (Response res = observationResource.getObservation(other, null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+        }
+
+        // By id, the observation has to exist
+        try (Response res = observationResource.deleteObservations(null, List.of(other, OBSERVATION1))) {
+            assertEquals(1, ((DeleteReport) res.getEntity()).getObservations());
+        }
+
+        try (Response res = observationResource.deleteObservations(null, null)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+    }
+
     @Test
     @DisplayName("Attempt to access a protected resource without rights")
     public void testAccessResourceWithoutRights() {
@@ -280,18 +569,18 @@ public class ObservationResourceTest {
     @DisplayName("Add an observation with a single artifact and check the response is the same.")
     @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
     @Transactional
-    public void testGettingArtifactObservation() {
+    public void testGettingArtifactObservation() throws Exception {
         //One plane with one artifact
         Observation obs1 = createArtifactObservation(OBSERVATION1, COLLECTION1, nonResolvableArtifactUri);
 
         try(Response res1 = observationResource.addObservation(obs1)) {
             assertEquals (Response.Status.CREATED.getStatusCode(), res1.getStatus());
 
-            Response obsRes = observationResource.getAllObservations(null, null, null);
+            Response obsRes = observationResource.getAllObservations(null, ListingParameters.of(null, null, null, null, null, null), null);
             assertEquals (Response.Status.OK.getStatusCode(), obsRes.getStatus());
 
             //Check one observation is returned
-            ObservationListWrapper wrapper = (ObservationListWrapper) obsRes.getEntity();
+            ObservationListWrapper wrapper = readStreamedObservations(obsRes);
             List<Observation> observations = wrapper.getObservations();
             assertEquals(1, observations.size());
 
@@ -313,4 +602,199 @@ public class ObservationResourceTest {
             assertEquals("image/png", art.getContentType());
         }
     }
+
+    @Test
+    @DisplayName("Check that the depth parameter limits how much of the observation tree is returned.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testGettingObservationDepth() {
+        Observation obs1 = createArtifactObservation(OBSERVATION1, COLLECTION1, nonResolvableArtifactUri);
+        try (Response res = observationResource.addObservation(obs1)) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        try (Response res = observationResource.getObservation(OBSERVATION1, "observation")) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            Observation obsOut = (Observation) ((JAXBElement<?>) res.getEntity()).getValue();
+            assertTrue(obsOut.getPlanes().isEmpty());
+        }
+
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(0, 10, null, null, "planes", null), null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            ObservationListWrapper wrapper = (ObservationListWrapper) res.getEntity();
+            List<Plane> planes = wrapper.getObservations().get(0).getPlanes();
+            assertEquals(1, planes.size());
+            assertTrue(planes.get(0).getArtifacts().isEmpty());
+        }
+
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(0, 10, null, null, "full", null), null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            ObservationListWrapper wrapper = (ObservationListWrapper) res.getEntity();
+            List<Plane> planes = wrapper.getObservations().get(0).getPlanes();
+            assertEquals(1, planes.get(0).getArtifacts().size());
+        }
+
+        try (Response res = observationResource.getObservation(OBSERVATION1, "everything")) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Check that only the requested fields are returned, as XML or JSON.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testGettingObservationFields() throws Exception {
+        for (int i = 0; i < 3; i++){
+            Observation observation = createSimpleObservation(OBSERVATION1 + i, COLLECTION1);
+            try (Response res = observationResource.addObservation(observation)) {
+                assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+            }
+        }
+
+        try (Response res = observationResource.getAllObservations(COLLECTION1, ListingParameters.of(0, 2, null, null, null, "id,intent"), null)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            String xml = writeStreamedResponse(res);
+            assertEquals(2, xml.split("<Observation>").length - 1);
+            assertTrue(xml.contains("<id>" + OBSERVATION1 + "0</id>"));
+            assertFalse(xml.contains("<collection>"));
+            assertFalse(xml.contains("caom2:"));
+        }
+
+        try (Response res = observationResource.getAllObservations(COLLECTION1, ListingParameters.of(null, null, null, null, null, "id,collection"), MediaType.APPLICATION_JSON)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            //Single (list) property, named as per the non-streamed listing
+            JSONObject json = new JSONObject(writeStreamedResponse(res));
+            JSONArray rows = json.getJSONArray(json.keys().next());
+            assertEquals(3, rows.length());
+            assertEquals(COLLECTION1, rows.getJSONObject(0).getString("collection"));
+            assertEquals(2, rows.getJSONObject(0).length());
+        }
+
+        try (Response res = observationResource.getAllObservations(null, ListingParameters.of(null, null, null, null, null, "id,planes"), null)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Add a batch of observations and check the result of each entry.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testAddingObservationBatch() throws Exception {
+        try (Response res = observationResource.addObservation(createSimpleObservation(OBSERVATION1, COLLECTION1))) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        ObservationListWrapper batch = new ObservationListWrapper(List.of(
+                createSimpleObservation(OBSERVATION1, COLLECTION1),     // already exists
+                createSimpleObservation(OBSERVATION2, COLLECTION1),
+                createDerivedObservation(OBSERVATION2, COLLECTION1),    // repeated
+                createSimpleObservation(null, COLLECTION1)));           // no id
+
+        try (Response res = observationResource.addObservations(writeXmlStream(batch), MediaType.APPLICATION_XML, null, false)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            IngestReport report = (IngestReport) res.getEntity();
+            assertEquals(1, report.getCreated());
+            assertEquals(2, report.getDuplicate());
+            assertEquals(1, report.getInvalid());
+
+            List<IngestResult> results = report.getResults();
+            assertEquals(IngestResult.Status.DUPLICATE, results.get(0).getStatus());
+            assertEquals(IngestResult.Status.CREATED, results.get(1).getStatus());
+            assertEquals(IngestResult.Status.DUPLICATE, results.get(2).getStatus());
+            assertEquals(IngestResult.Status.INVALID, results.get(3).getStatus());
+        }
+
+        try (Response res = observationResource.getAllObservations(COLLECTION1, ListingParameters.of(0, 10, null, "exact", null, null), null)) {
+            assertEquals("2", res.getHeaderString(ResultCount.EXACT_HEADER));
+        }
+    }
+
+    @Test
+    @DisplayName("Add a batch of observations as NDJSON, an unreadable line is reported without affecting the others.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testAddingObservationBatchNdjson() throws Exception {
+        String ndjson = mapper.writeValueAsString(createSimpleObservation(OBSERVATION1, COLLECTION1)) + "\n" +
+                "{not an observation\n" +
+                "\n" +
+                mapper.writeValueAsString(createSimpleObservation(OBSERVATION2, COLLECTION1)) + "\n";
+
+        try (Response res = observationResource.addObservations(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), BatchIngester.APPLICATION_NDJSON, null, false)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            IngestReport report = (IngestReport) res.getEntity();
+            assertEquals(2, report.getCreated());
+            assertEquals(1, report.getInvalid());
+            assertEquals(3, report.getResults().size());
+            assertEquals(1, report.getResults().get(1).getIndex());
+            assertEquals(IngestResult.Status.INVALID, report.getResults().get(1).getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Stream a document larger than several chunks, listing only the entries that weren't created.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testAddingLargeObservationBatch() throws Exception {
+        final int total = 250;
+        List<Observation> observations = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            observations.add(createSimpleObservation("large-" + i, COLLECTION1));
+        }
+        observations.add(createSimpleObservation("large-0", COLLECTION1));  // repeated, in a later chunk
+
+        try (Response res = observationResource.addObservations(
+                writeXmlStream(new ObservationListWrapper(observations)), MediaType.APPLICATION_XML, "errors", false)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            IngestReport report = (IngestReport) res.getEntity();
+            assertEquals(total, report.getCreated());
+            assertEquals(1, report.getDuplicate());
+            assertEquals(1, report.getResults().size());
+            assertEquals(total, report.getResults().get(0).getIndex());
+        }
+
+        try (Response res = observationResource.getAllObservations(COLLECTION1, ListingParameters.of(0, 10, null, "exact", null, null), null)) {
+            assertEquals(String.valueOf(total), res.getHeaderString(ResultCount.EXACT_HEADER));
+        }
+
+        try (Response res = observationResource.addObservations(
+                writeXmlStream(new ObservationListWrapper(observations)), MediaType.APPLICATION_XML, "some", false)) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Upsert a batch of observations, existing entries are updated rather than reported as duplicates.")
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    public void testUpsertingObservationBatch() throws Exception {
+        try (Response res = observationResource.addObservation(createSimpleObservation(OBSERVATION1, COLLECTION1))) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), res.getStatus());
+        }
+
+        Observation changed = createSimpleObservation(OBSERVATION1, COLLECTION1);
+        changed.setIntent(ObservationIntentType.CALIBRATION);
+        ObservationListWrapper batch = new ObservationListWrapper(List.of(
+                changed,
+                createSimpleObservation(OBSERVATION2, COLLECTION1)));
+
+        try (Response res = observationResource.addObservations(writeXmlStream(batch), MediaType.APPLICATION_XML, null, true)) {
+            assertEquals(Response.Status.OK.getStatusCode(), res.getStatus());
+
+            IngestReport report = (IngestReport) res.getEntity();
+            assertEquals(1, report.getCreated());
+            assertEquals(1, report.getUpdated());
+            assertEquals(0, report.getDuplicate());
+            assertEquals(IngestResult.Status.UPDATED, report.getResults().get(0).getStatus());
+        }
+
+        // Harvesting the same content again is a no-op
+        try (Response res = observationResource.addObservations(writeXmlStream(batch), MediaType.APPLICATION_XML, null, true)) {
+            IngestReport report = (IngestReport) res.getEntity();
+            assertEquals(2, report.getUnchanged());
+            assertEquals(0, report.getUpdated());
+        }
+    }
 }
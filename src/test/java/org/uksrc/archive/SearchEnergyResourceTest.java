@@ -0,0 +1,89 @@
+package org.uksrc.archive;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Tests the /search/energy endpoint, against the energy bounds of the planes of observation1.xml:
+ * [0.056277915900131405, 0.062236341706456304] m (roughly 4.82 - 5.33 GHz).
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTest
+public class SearchEnergyResourceTest {
+
+    @Inject
+    ObservationResource observationResource;
+
+    private static String observationId;
+
+    @Test
+    @Order(1)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void setupData() throws Exception {
+        if (observationId == null) {
+            observationId = addObservation1(observationResource, null).getId();
+        }
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testEnergySearch() {
+        //Wavelengths, metres by default
+        assertTrue(search("min=0.06&max=0.07").contains(observationId));
+        assertTrue(search("min=5.7&max=5.8&unit=cm").contains(observationId));
+        assertFalse(search("min=21&max=22&unit=cm").contains(observationId));
+
+        //Frequencies
+        assertTrue(search("min=5&max=5&unit=GHz").contains(observationId));
+        assertTrue(search("min=5000&max=5100&unit=MHz").contains(observationId));
+        assertFalse(search("min=1.4&max=1.5&unit=GHz").contains(observationId));
+
+        //Open ended, a minimum frequency is a maximum wavelength
+        assertTrue(search("min=5.2&unit=GHz").contains(observationId));
+        assertFalse(search("min=6&unit=GHz").contains(observationId));
+        assertFalse(search("max=4&unit=GHz").contains(observationId));
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testEnergySearchPredicates() {
+        //Within both planes' bounds
+        assertTrue(search("min=5&max=5.1&unit=GHz&predicate=contains").contains(observationId));
+        assertFalse(search("min=5&max=5.1&unit=GHz&predicate=within").contains(observationId));
+
+        //Around both planes' bounds
+        assertTrue(search("min=4&max=6&unit=GHz&predicate=within").contains(observationId));
+        assertFalse(search("min=4&max=6&unit=GHz&predicate=contains").contains(observationId));
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testEnergySearchInvalidParameters() {
+        for (String query : List.of("", "?unit=GHz", "?min=1&unit=parsec", "?min=1&unit=ghz", "?min=-1",
+                "?min=0&unit=GHz", "?min=2&max=1&unit=GHz", "?min=1&predicate=touches", "?min=1&size=5",
+                "?min=5&unit=GHz&predicate=contains", "?max=5.1&unit=GHz&predicate=contains")) {
+            given()
+                    .when()
+                    .get("/search/energy" + query)
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
+    private static List<String> search(String query) {
+        return searchIds("/search/energy", query);
+    }
+}
@@ -0,0 +1,98 @@
+package org.uksrc.archive;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import org.ivoa.dm.caom2.Observation;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+import org.uksrc.archive.utils.HealpixConeProfile;
+import org.uksrc.archive.utils.ObservationListWrapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static jakarta.ws.rs.core.Response.Status.OK;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Tests the /search/cone endpoint with the HEALPix backend, using the coneTestData.json file as SearchResourceTest.
+ * Positions outside the cone must not match the target either.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTest
+@TestProfile(HealpixConeProfile.class)
+public class SearchHealpixResourceTest {
+
+    @Inject
+    ObservationResource observationResource;
+
+    private static JSONObject positions;
+    private static String targetId;
+
+    @BeforeAll
+    public static void loadData() {
+        try {
+            String positionData = Files.readString(Paths.get("testing/coneTestData.json"));
+            positions = new JSONObject(positionData);
+        } catch (IOException e) {
+            fail("Unable to load position data from file: testing/coneTestData.json");
+        }
+    }
+
+    @Test
+    @Order(1)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void setupData() {
+        if (targetId == null) {
+            try {
+                Observation obs = readXmlFile("testing/observationTargeted.xml", Observation.class);
+                JSONObject target = positions.getJSONObject("target");
+                obs.setTargetPosition(createTargetPosition(target.getDouble("ra"), target.getDouble("dec")));
+                observationResource.addObservation(obs);
+                targetId = obs.getId();
+            }
+            catch (Exception e) {
+                fail("Failed to load test data", e);
+            }
+        }
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testConeSearch() {
+        JSONObject target = positions.getJSONObject("target");
+        double radius = target.getDouble("radius");
+
+        JSONArray positionList = positions.getJSONArray("positions");
+        for (int i = 0; i < positionList.length(); i++) {
+            JSONObject position = positionList.getJSONObject(i);
+
+            String query = "/search/cone?ra=" + position.getDouble("ra") + "&dec=" + position.getDouble("dec") + "&radius=" + radius;
+            Response res = given()
+                    .contentType("application/xml")
+                    .when()
+                    .get(query)
+                    .andReturn();
+
+            assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+            try {
+                ObservationListWrapper wrapper = readXmlString(res.getBody().asString(), ObservationListWrapper.class);
+                List<Observation> observations = wrapper.getObservations();
+                boolean found = observations.stream().anyMatch(o -> o.getId().equals(targetId));
+                assertEquals(position.getBoolean("withinRadius"), found, "Unexpected match for " + query);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
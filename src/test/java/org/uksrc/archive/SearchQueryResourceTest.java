@@ -0,0 +1,117 @@
+package org.uksrc.archive;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.uksrc.archive.utils.ObservationListWrapper;
+
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static jakarta.ws.rs.core.Response.Status.OK;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Tests the /search/query endpoint, against observation1.xml (collection EMERLIN, science, visibility planes, see
+ * SearchTimeResourceTest and SearchEnergyResourceTest for its bounds) positioned away from the other tests' cones.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTest
+public class SearchQueryResourceTest {
+
+    @Inject
+    ObservationResource observationResource;
+
+    private static final double RA = 300.0;
+    private static final double DEC = 30.0;
+
+    private static final String CONE = "ra=" + RA + "&dec=" + DEC + "&radius=0.5";
+
+    private static String observationId;
+
+    @Test
+    @Order(1)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void setupData() throws Exception {
+        if (observationId == null) {
+            observationId = addObservation1(observationResource, createTargetPosition(RA, DEC)).getId();
+        }
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testCombinedSearch() {
+        //Every criterion at once
+        assertTrue(search(CONE + "&collectionId=EMERLIN&start=5071420000&end=5071421000&min=5&max=5&unit=GHz" +
+                "&intent=science&productType=visibility").contains(observationId));
+
+        //Each criterion alone
+        for (String query : List.of(CONE, "collectionId=EMERLIN", "start=5071420000", "min=5&unit=GHz", "intent=science",
+                "productType=visibility")) {
+            assertTrue(search(query).contains(observationId), "Expected a match for " + query);
+        }
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testCombinedSearchExcludes() {
+        //Any one failing criterion excludes the observation
+        for (String criterion : List.of("collectionId=other", "start=5071500000", "min=1.4&max=1.5&unit=GHz",
+                "intent=calibration", "productType=image")) {
+            assertFalse(search(CONE + "&" + criterion).contains(observationId), "Expected no match for " + criterion);
+        }
+        assertFalse(search("ra=10&dec=10&radius=0.5&collectionId=EMERLIN").contains(observationId));
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testCombinedSearchSortedAndPaged() throws Exception {
+        Response res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get("/search/query?" + CONE + "&intent=science&sort=distance&fields=id,distance")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+        List<Double> distances = res.xmlPath().getList("Observations.Observation.distance", Double.class);
+        assertFalse(distances.isEmpty());
+        assertTrue(distances.get(0) < 1e-6);
+
+        res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get("/search/query?collectionId=EMERLIN&productType=visibility&page=0&size=1&count=exact")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        ObservationListWrapper wrapper = readXmlString(res.getBody().asString(), ObservationListWrapper.class);
+        assertEquals(1, wrapper.getObservations().size());
+        assertTrue(Integer.parseInt(res.getHeader("X-Total-Count")) >= 1);
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testCombinedSearchInvalidParameters() {
+        for (String query : List.of("", "?page=0&size=1", "?ra=1&dec=2", "?intent=survey", "?start=yesterday",
+                "?unit=GHz", "?min=2&max=1", "?collectionId=EMERLIN&sort=distance", "?" + CONE + "&sort=distance&cursor=",
+                "?collectionId=EMERLIN&fields=distance", "?collectionId=EMERLIN&page=0", "?productType=picture")) {
+            given()
+                    .when()
+                    .get("/search/query" + query)
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
+    private static List<String> search(String query) {
+        return searchIds("/search/query", query);
+    }
+}
@@ -0,0 +1,137 @@
+package org.uksrc.archive;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import org.ivoa.dm.caom2.Observation;
+import org.ivoa.dm.caom2.types.Point;
+import org.ivoa.dm.caom2.types.Polygon;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.uksrc.archive.utils.ObservationListWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static jakarta.ws.rs.core.Response.Status.CREATED;
+import static jakarta.ws.rs.core.Response.Status.OK;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Tests the /search/region endpoint, against the footprints (circular bounds) of the planes of observation1.xml.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTest
+public class SearchRegionResourceTest {
+
+    @Inject
+    ObservationResource observationResource;
+
+    // Centre of the bounds of the first plane of observation1.xml, radius 0.0011377777777777766
+    private static final double RA = 193.109524583333;
+    private static final double DEC = 56.57208;
+
+    private static String observationId;
+
+    @Test
+    @Order(1)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void setupData() throws Exception {
+        if (observationId == null) {
+            observationId = addObservation1(observationResource, null).getId();
+        }
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testRegionSearch() {
+        //Overlapping the footprint, as each shape
+        for (String pos : List.of("CIRCLE " + RA + " " + DEC + " 0.01",
+                "BOX " + (RA + 0.001) + " " + DEC + " 0.01 0.01",
+                "POLYGON " + (RA - 0.01) + " " + (DEC - 0.01) + " " + (RA + 0.01) + " " + (DEC - 0.01) + " " + RA + " " + (DEC + 0.01))) {
+            assertTrue(search(pos, null).contains(observationId), "Expected a match for " + pos);
+        }
+
+        //Elsewhere
+        assertFalse(search("CIRCLE 10 -10 1", null).contains(observationId));
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testRegionSearchPredicates() {
+        //A region within the footprint
+        String inner = "CIRCLE " + RA + " " + DEC + " 0.0001";
+        assertTrue(search(inner, "contains").contains(observationId));
+        assertFalse(search(inner, "within").contains(observationId));
+
+        //A region larger than the footprint
+        String outer = "CIRCLE " + RA + " " + DEC + " 0.1";
+        assertTrue(search(outer, "within").contains(observationId));
+        assertFalse(search(outer, "contains").contains(observationId));
+    }
+
+    @Test
+    @Order(3)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testSelfCrossingFootprint() throws Exception {
+        //A bow tie, pgSphere can't represent it so the plane has no footprint, but the observation is still added
+        Observation obs = readObservationWithNewIds(OBSERVATION1_FILE);
+        Polygon bowTie = new Polygon();
+        bowTie.setPoints(new ArrayList<>(List.of(point(9.99, -10.01), point(10.01, -9.99), point(10.01, -10.01), point(9.99, -9.99))));
+        obs.getPlanes().get(0).getPosition().setBounds(bowTie);
+        try (jakarta.ws.rs.core.Response res = observationResource.addObservation(obs)) {
+            assertEquals(CREATED.getStatusCode(), res.getStatus());
+        }
+
+        assertFalse(search("CIRCLE 10 -10 1", null).contains(obs.getId()));
+        //The footprint of the other plane
+        assertTrue(search("CIRCLE " + RA + " " + DEC + " 0.01", null).contains(obs.getId()));
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testRegionSearchPaged() throws Exception {
+        Response res = given()
+                .header("Accept", "application/xml")
+                .queryParam("pos", "CIRCLE " + RA + " " + DEC + " 1")
+                .when()
+                .get("/search/region?page=0&size=1&count=exact")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        ObservationListWrapper wrapper = readXmlString(res.getBody().asString(), ObservationListWrapper.class);
+        assertEquals(1, wrapper.getObservations().size());
+        assertTrue(Integer.parseInt(res.getHeader("X-Total-Count")) >= 1);
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testRegionSearchInvalidParameters() {
+        for (String query : List.of("", "?pos=CIRCLE 1 2", "?pos=TRIANGLE 1 2 3", "?pos=POLYGON 1 2 3 4",
+                "?pos=CIRCLE 1 95 1", "?pos=CIRCLE 1 2 3&predicate=touches", "?pos=CIRCLE 1 2 3&page=0")) {
+            given()
+                    .when()
+                    .get("/search/region" + query)
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
+    private static Point point(double ra, double dec) {
+        Point point = new Point();
+        point.setCval1(ra);
+        point.setCval2(dec);
+        return point;
+    }
+
+    private static List<String> search(String pos, String predicate) {
+        return searchIds("/search/region", "pos=" + pos + "&predicate=" + (predicate != null ? predicate : "overlaps"));
+    }
+}
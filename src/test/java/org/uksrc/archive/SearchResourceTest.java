@@ -4,6 +4,8 @@ import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.security.TestSecurity;
 import io.restassured.response.Response;
 import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
 import org.ivoa.dm.caom2.Observation;
 import org.ivoa.dm.caom2.TargetPosition;
 import org.ivoa.dm.caom2.types.Point;
@@ -11,6 +13,8 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.*;
 import org.uksrc.archive.utils.ObservationListWrapper;
+import org.uksrc.archive.utils.query.CaomTables;
+import org.uksrc.archive.utils.query.PgSphereDialect;
 
 import java.awt.*;
 import java.io.IOException;
@@ -35,6 +39,9 @@ public class SearchResourceTest {
     @Inject
     ObservationResource observationResource;
 
+    @Inject
+    EntityManager entityManager;
+
     private static JSONObject positions;
     private static boolean dataLoaded = false;
 
@@ -100,6 +107,198 @@ public class SearchResourceTest {
         }
     }
 
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testCrossmatch() {
+        JSONObject target = positions.getJSONObject("target");
+        double radius = target.getDouble("radius");
+
+        //All the positions in a single request, the response has an entry per position in the order supplied
+        JSONArray positionList = positions.getJSONArray("positions");
+        JSONArray cones = new JSONArray();
+        for (int i = 0; i < positionList.length(); i++) {
+            JSONObject position = positionList.getJSONObject(i);
+            cones.put(new JSONObject().put("ra", position.getDouble("ra")).put("dec", position.getDouble("dec")).put("radius", radius));
+        }
+
+        Response res = given()
+                .contentType("application/json")
+                .header("Accept", "application/json")
+                .body(cones.toString())
+                .when()
+                .post("/search/crossmatch")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        JSONArray results = new JSONObject(res.getBody().asString()).getJSONArray("positions");
+        assertEquals(positionList.length(), results.length());
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            assertEquals(i, result.getInt("index"));
+            JSONArray matches = result.getJSONArray("matches");
+            if (positionList.getJSONObject(i).getBoolean("withinRadius")) {
+                assertFalse(matches.isEmpty(), "Expected at least one match for position " + i);
+            }
+            for (int m = 0; m < matches.length(); m++) {
+                assertTrue(matches.getJSONObject(m).getDouble("distance") <= radius);
+            }
+        }
+    }
+
+    //The cone predicate, as rendered by pgsphere_in_cone, must be served by the GiST index of the target positions
+    @Test
+    @Transactional
+    void testConeSearchUsesIndex() {
+        //Too few rows for the planner to prefer the index by cost alone
+        entityManager.createNativeQuery("SET LOCAL enable_seqscan = off").executeUpdate();
+
+        String sql = "SELECT 1 FROM " + CaomTables.table(entityManager, TargetPosition.class) + " WHERE " +
+                PgSphereDialect.IN_CONE.formatted(CaomTables.column(entityManager, TargetPosition.class, "coordinates.cval1"),
+                        CaomTables.column(entityManager, TargetPosition.class, "coordinates.cval2"), 193.1, 56.6, 1.0);
+        List<?> plan = entityManager.createNativeQuery("EXPLAIN " + sql).getResultList();
+        assertTrue(plan.stream().anyMatch(line -> line.toString().contains("target_position_spoint_idx")), "Plan: " + plan);
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testCrossmatchCsv() {
+        JSONObject target = positions.getJSONObject("target");
+
+        //The radius supplied as a parameter, for positions without their own
+        String csv = "ra,dec\n" + target.getDouble("ra") + "," + target.getDouble("dec") + "\n";
+        Response res = given()
+                .contentType("text/csv")
+                .header("Accept", "application/json")
+                .body(csv)
+                .when()
+                .post("/search/crossmatch?radius=0.1")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        JSONArray matches = new JSONObject(res.getBody().asString()).getJSONArray("positions").getJSONObject(0).getJSONArray("matches");
+        assertFalse(matches.isEmpty());
+        assertTrue(matches.getJSONObject(0).getDouble("distance") < 1e-6);
+
+        //Quoted names and values (RFC 4180), the label containing a comma
+        String quoted = "\"label\",\"ra\",\"dec\"\n\"a, b\",\"" + target.getDouble("ra") + "\"," + target.getDouble("dec") + "\n";
+        res = given()
+                .contentType("text/csv")
+                .header("Accept", "application/json")
+                .body(quoted)
+                .when()
+                .post("/search/crossmatch?radius=0.1")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+        assertFalse(new JSONObject(res.getBody().asString()).getJSONArray("positions").getJSONObject(0).getJSONArray("matches").isEmpty());
+
+        //No radius at all
+        given()
+                .contentType("text/csv")
+                .body(csv)
+                .when()
+                .post("/search/crossmatch")
+                .then()
+                .statusCode(400);
+
+        //An unterminated quote
+        given()
+                .contentType("text/csv")
+                .body("ra,dec\n\"" + target.getDouble("ra") + "," + target.getDouble("dec") + "\n")
+                .when()
+                .post("/search/crossmatch?radius=0.1")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testCrossmatchVOTable() {
+        JSONObject target = positions.getJSONObject("target");
+
+        //Columns found by UCD, whatever their names
+        String votable = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <VOTABLE version="1.4" xmlns="http://www.ivoa.net/xml/VOTable/v1.3">
+                  <RESOURCE>
+                    <TABLE>
+                      <FIELD name="alpha" datatype="double" ucd="pos.eq.ra;meta.main"/>
+                      <FIELD name="delta" datatype="double" ucd="pos.eq.dec;meta.main"/>
+                      <FIELD name="radius" datatype="double"/>
+                      <DATA>
+                        <TABLEDATA>
+                          <TR><TD>%s</TD><TD>%s</TD><TD>0.1</TD></TR>
+                          <TR><TD>%s</TD><TD>%s</TD><TD>0.1</TD></TR>
+                        </TABLEDATA>
+                      </DATA>
+                    </TABLE>
+                  </RESOURCE>
+                </VOTABLE>
+                """.formatted(target.getDouble("ra"), target.getDouble("dec"), target.getDouble("ra") + 90, target.getDouble("dec"));
+        Response res = given()
+                .contentType("application/x-votable+xml")
+                .header("Accept", "application/json")
+                .body(votable)
+                .when()
+                .post("/search/crossmatch")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        JSONArray results = new JSONObject(res.getBody().asString()).getJSONArray("positions");
+        assertEquals(2, results.length());
+        JSONArray matches = results.getJSONObject(0).getJSONArray("matches");
+        assertFalse(matches.isEmpty());
+        assertTrue(matches.getJSONObject(0).getDouble("distance") < 1e-6);
+        assertTrue(results.getJSONObject(1).getJSONArray("matches").isEmpty());
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testNearestConeSearch() {
+        JSONObject target = positions.getJSONObject("target");
+        String centre = "/search/cone?ra=" + target.getDouble("ra") + "&dec=" + target.getDouble("dec");
+
+        //The single nearest Observation, no radius required
+        Response res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get(centre + "&nearest=1&fields=id,distance")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        List<Double> distances = res.xmlPath().getList("Observations.Observation.distance", Double.class);
+        assertEquals(1, distances.size());
+        assertTrue(distances.get(0) < 1e-6);
+
+        //Every match within the radius, nearest first
+        res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get(centre + "&radius=" + target.getDouble("radius") + "&sort=distance&fields=id,distance")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        distances = res.xmlPath().getList("Observations.Observation.distance", Double.class);
+        assertFalse(distances.isEmpty());
+        for (int i = 1; i < distances.size(); i++) {
+            assertTrue(distances.get(i - 1) <= distances.get(i), "Expected the matches nearest first");
+        }
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testNearestConeSearchInvalidParameters() {
+        String centre = "/search/cone?ra=10&dec=10";
+        for (String query : List.of(centre + "&radius=1&sort=collection", centre + "&nearest=0", centre + "&nearest=5&page=0&size=5",
+                centre + "&radius=1&sort=distance&cursor=&size=5", centre + "&fields=distance", "/observations?fields=id,distance",
+                centre + "&radius=1&page=0&size=5&count=estimated")) {
+            given()
+                    .when()
+                    .get(query)
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
     /**
      * Uses the values for 'target' from positions to make a TargetPosition object.
      * Will be used to test against.
@@ -0,0 +1,110 @@
+package org.uksrc.archive;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.uksrc.archive.utils.SkyIndexProfile;
+import org.uksrc.archive.utils.query.SkyIndex;
+
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static jakarta.ws.rs.core.Response.Status.NO_CONTENT;
+import static jakarta.ws.rs.core.Response.Status.OK;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Tests cone searches answered by the in-memory sky index, which must follow writes and deletes.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTest
+@TestProfile(SkyIndexProfile.class)
+public class SearchSkyIndexResourceTest {
+
+    @Inject
+    ObservationResource observationResource;
+
+    @Inject
+    SkyIndex skyIndex;
+
+    private static final double RA = 250.0;
+    private static final double DEC = -40.0;
+
+    private static final String CONE = "/search/cone?ra=" + RA + "&dec=" + DEC + "&radius=0.5";
+
+    private static String observationId;
+
+    @Test
+    @Order(1)
+    void testIndexBuilt() throws InterruptedException {
+        for (int i = 0; i < 100 && !skyIndex.ready(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(skyIndex.ready(), "Expected the sky index to be built on startup");
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testIndexFollowsWrites() throws Exception {
+        observationId = addObservation1(observationResource, createTargetPosition(RA + 0.1, DEC)).getId();
+
+        List<SkyIndex.Match> matches = skyIndex.cone(RA, DEC, 0.5);
+        assertTrue(matches.stream().anyMatch(m -> m.id().equals(observationId)));
+        assertTrue(skyIndex.cone(RA, DEC, 0.01).stream().noneMatch(m -> m.id().equals(observationId)));
+    }
+
+    @Test
+    @Order(3)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testConeSearchFromIndex() {
+        Response res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get(CONE + "&fields=id,ra,dec,distance&sort=distance")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+
+        List<String> ids = res.xmlPath().getList("Observations.Observation.id", String.class);
+        List<Double> distances = res.xmlPath().getList("Observations.Observation.distance", Double.class);
+        assertTrue(ids.contains(observationId));
+        for (int i = 1; i < distances.size(); i++) {
+            assertTrue(distances.get(i - 1) <= distances.get(i), "Expected the matches nearest first");
+        }
+
+        //The same matches as the database (other fields aren't held by the index)
+        res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get(CONE + "&fields=id,uri")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+        assertEquals(ids.stream().sorted().toList(),
+                res.xmlPath().getList("Observations.Observation.id", String.class).stream().sorted().toList());
+    }
+
+    @Test
+    @Order(4)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void testIndexFollowsDeletes() {
+        try (jakarta.ws.rs.core.Response res = observationResource.deleteObservation(observationId)) {
+            assertEquals(NO_CONTENT.getStatusCode(), res.getStatus());
+        }
+        assertTrue(skyIndex.cone(RA, DEC, 0.5).stream().noneMatch(m -> m.id().equals(observationId)));
+
+        Response res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get(CONE + "&fields=id")
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+        assertFalse(res.xmlPath().getList("Observations.Observation.id", String.class).contains(observationId));
+    }
+}
@@ -0,0 +1,81 @@
+package org.uksrc.archive;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.uksrc.archive.utils.Utilities.*;
+
+/**
+ * Tests the /search/time endpoint, against the time bounds of the planes of observation1.xml:
+ * [5071420926.5, 5071496397.75] and [5071418412.5, 5071499997.75].
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTest
+public class SearchTimeResourceTest {
+
+    @Inject
+    ObservationResource observationResource;
+
+    private static String observationId;
+
+    @Test
+    @Order(1)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE, TEST_WRITER_ROLE})
+    void setupData() throws Exception {
+        if (observationId == null) {
+            observationId = addObservation1(observationResource, null).getId();
+        }
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testTimeSearch() {
+        assertTrue(search("start=5071420000&end=5071421000").contains(observationId));
+        assertFalse(search("start=5071500000&end=5071600000").contains(observationId));
+
+        //Open ended
+        assertTrue(search("start=5071499000").contains(observationId));
+        assertFalse(search("start=5071500000").contains(observationId));
+        assertFalse(search("end=2024-01-01T00:00:00Z").contains(observationId));
+    }
+
+    @Test
+    @Order(2)
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testTimeSearchPredicates() {
+        //Within both planes' bounds
+        assertTrue(search("start=5071430000&end=5071440000&predicate=contains").contains(observationId));
+        assertFalse(search("start=5071430000&end=5071440000&predicate=within").contains(observationId));
+
+        //Around both planes' bounds
+        assertTrue(search("start=5071000000&end=5072000000&predicate=within").contains(observationId));
+        assertFalse(search("start=5071000000&end=5072000000&predicate=contains").contains(observationId));
+    }
+
+    @Test
+    @TestSecurity(user = "testuser", roles = {TEST_READER_ROLE})
+    void testTimeSearchInvalidParameters() {
+        for (String query : List.of("", "?start=yesterday", "?start=10&end=5", "?start=2024-02-30", "?start=1&predicate=touches",
+                "?start=1&size=5", "?start=1&predicate=contains", "?end=5071440000&predicate=contains")) {
+            given()
+                    .when()
+                    .get("/search/time" + query)
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
+    private static List<String> search(String query) {
+        return searchIds("/search/time", query);
+    }
+}
@@ -0,0 +1,17 @@
+package org.uksrc.archive.utils;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+/**
+ * Matches cone searches with HEALPix pixels rather than pgSphere, so that the same searches can be tested against
+ * both backends.
+ */
+public class HealpixConeProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("archive.search.cone-backend", "healpix");
+    }
+}
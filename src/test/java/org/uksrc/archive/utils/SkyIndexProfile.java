@@ -0,0 +1,16 @@
+package org.uksrc.archive.utils;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+/**
+ * Answers id-only cone searches from the in-memory sky index once it has been built.
+ */
+public class SkyIndexProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("archive.search.sky-index.enabled", "true");
+    }
+}
@@ -1,16 +1,31 @@
 package org.uksrc.archive.utils;
 
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.Unmarshaller;
 import org.ivoa.dm.caom2.*;
+import org.ivoa.dm.caom2.types.Point;
+import org.uksrc.archive.ObservationResource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.restassured.RestAssured.given;
+import static jakarta.ws.rs.core.Response.Status.CREATED;
+import static jakarta.ws.rs.core.Response.Status.OK;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class Utilities {
 
@@ -19,6 +34,9 @@ public class Utilities {
     public static final String OBSERVATION1 = "c630c66f-b06b-4fed-bc16-1d7fd321";
     public static final String OBSERVATION2 = "c630c66f-b06b-4fed-bc16-2e4df256";
 
+    // Two planes with time, energy and (circular) position bounds, the fixture of the searches
+    public static final String OBSERVATION1_FILE = "testing/observation1.xml";
+
     // Used in testing only, must conform to the @RolesAllowed setting in the APIs
     public static final String TEST_READER_ROLE = "UKSRC/archive-service/viewer";
     public static final String TEST_WRITER_ROLE = "UKSRC/archive-service/maintainer";
@@ -117,4 +135,107 @@ public class Utilities {
         String xml = Files.readString(Paths.get(path));
         return readXmlString(xml, clazz);
     }
+
+    /**
+     * Reads an Observation from an XML file, replacing every id (and the Observation's uri) with a fresh one so that
+     * the file can be added alongside other tests' copies of it.
+     * @param path The path to the XML file.
+     * @return The unmarshalled Observation.
+     * @throws Exception If the XML cannot be unmarshalled.
+     */
+    public static Observation readObservationWithNewIds(String path) throws Exception {
+        String xml = Files.readString(Paths.get(path))
+                .replaceFirst("<caom2:uri>[^<]+</caom2:uri>", "<caom2:uri>" + UUID.randomUUID() + "</caom2:uri>");
+        Matcher ids = Pattern.compile("caom2:id=\"[^\"]+\"").matcher(xml);
+        StringBuilder sb = new StringBuilder();
+        while (ids.find()) {
+            ids.appendReplacement(sb, "caom2:id=\"" + UUID.randomUUID() + "\"");
+        }
+        ids.appendTail(sb);
+        return readXmlString(sb.toString(), Observation.class);
+    }
+
+    /**
+     * Writes a streamed (unpaginated) observation listing and reads it back.
+     * @param res The response returned by the resource, containing a StreamingOutput entity (XML).
+     * @return The observations written by the stream.
+     * @throws Exception If the stream cannot be written or the XML cannot be unmarshalled.
+     */
+    public static ObservationListWrapper readStreamedObservations(Response res) throws Exception {
+        return readXmlString(writeStreamedResponse(res), ObservationListWrapper.class);
+    }
+
+    /**
+     * Writes a streamed response body.
+     * @param res The response returned by the resource, containing a StreamingOutput entity.
+     * @return The body as written to the caller.
+     * @throws Exception If the stream cannot be written.
+     */
+    public static String writeStreamedResponse(Response res) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) res.getEntity()).write(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a JAXB object as XML.
+     * @param object The object to marshal, such as an ObservationListWrapper.
+     * @return The XML document as a stream.
+     * @throws Exception If the object cannot be marshalled.
+     */
+    public static InputStream writeXmlStream(Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JAXBContext.newInstance(object.getClass()).createMarshaller().marshal(object, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    /**
+     * Adds a copy of observation1.xml with fresh ids, the file is loaded by several tests.
+     * @param resource The resource to add it through (within a test that has the writer role).
+     * @param position The target position to give it, null to keep that of the file.
+     * @return The Observation added.
+     * @throws Exception If the file cannot be read.
+     */
+    public static Observation addObservation1(ObservationResource resource, TargetPosition position) throws Exception {
+        Observation obs = readObservationWithNewIds(OBSERVATION1_FILE);
+        if (position != null) {
+            obs.setTargetPosition(position);
+        }
+        try (Response res = resource.addObservation(obs)) {
+            assertEquals(CREATED.getStatusCode(), res.getStatus());
+        }
+        return obs;
+    }
+
+    /**
+     * Creates an ICRS target position.
+     * @param ra Right ascension in degrees.
+     * @param dec Declination in degrees.
+     * @return The TargetPosition
+     */
+    public static TargetPosition createTargetPosition(double ra, double dec) {
+        TargetPosition tp = new TargetPosition();
+        tp.setCoordsys("ICRS");
+        Point point = new Point();
+        point.setCval1(ra);
+        point.setCval2(dec);
+        tp.setCoordinates(point);
+        return tp;
+    }
+
+    /**
+     * Searches for the ids of the matching observations (requesting only the id field), the search must succeed.
+     * @param path The search endpoint, such as /search/time
+     * @param query The query string of the search, without the fields parameter.
+     * @return The ids of the observations matching the query.
+     */
+    public static List<String> searchIds(String path, String query) {
+        io.restassured.response.Response res = given()
+                .header("Accept", "application/xml")
+                .when()
+                .get(path + "?fields=id&" + query)
+                .andReturn();
+        assertEquals(OK.getStatusCode(), res.getStatusCode());
+        return res.xmlPath().getList("Observations.Observation.id", String.class);
+    }
 }